@@ -0,0 +1,37 @@
+package com.jetbrains.finance.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns category names to small dense ids so columnar tables can store an {@code int} per row.
+ * Ids are never reused or removed. Adding names is for one thread at a time; {@link #name} may be called
+ * from any thread for an id it was handed.
+ */
+public final class CategoryDictionary {
+    private final Map<String, Integer> ids = new HashMap<>();
+    // Replaced whole when it grows, so a reader that sees a row's id also sees its name
+    private volatile String[] names = new String[16];
+    private int size;
+
+    /** Returns the id for {@code name}, adding it if it is new. */
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        if (size == names.length) names = Arrays.copyOf(names, size * 2);
+        names[size] = name;
+        ids.put(name, size);
+        return size++;
+    }
+
+    /** Returns the id for {@code name}, or -1 if it has never been interned. */
+    public int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String name(int id) { return names[id]; }
+
+    public int size() { return size; }
+}
@@ -0,0 +1,74 @@
+package com.jetbrains.finance.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * An amount of money held as a whole number of minor units (pence), so totals, comparisons and
+ * percentages are plain {@code long} arithmetic. Arithmetic is overflow-checked and throws
+ * {@link ArithmeticException} instead of wrapping. Convert with {@link #toBigDecimal()} only
+ * where a value leaves the app (display, CSV).
+ */
+public record Money(long minorUnits) implements Comparable<Money> {
+    /** Decimal places represented by one minor unit. */
+    public static final int SCALE = 2;
+
+    public static final Money ZERO = new Money(0);
+
+    public static Money ofMinor(long minorUnits) {
+        return minorUnits == 0 ? ZERO : new Money(minorUnits);
+    }
+
+    /** Converts from a decimal amount, rounding half-up beyond {@link #SCALE} decimal places. */
+    public static Money of(BigDecimal amount) {
+        return ofMinor(toMinor(amount));
+    }
+
+    /** Minor units for a decimal amount, rounding half-up beyond {@link #SCALE} decimal places. */
+    public static long toMinor(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal toBigDecimal(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    public Money plus(Money other) {
+        return ofMinor(Math.addExact(minorUnits, other.minorUnits));
+    }
+
+    public Money minus(Money other) {
+        return ofMinor(Math.subtractExact(minorUnits, other.minorUnits));
+    }
+
+    public Money abs() {
+        return minorUnits >= 0 ? this : ofMinor(Math.negateExact(minorUnits));
+    }
+
+    public int signum() { return Long.signum(minorUnits); }
+
+    public boolean isZero() { return minorUnits == 0; }
+
+    /**
+     * This amount as a percentage of {@code whole}, rounded half-up to two decimal places.
+     * A zero {@code whole} gives 100 when this amount is positive and 0 otherwise.
+     */
+    public double percentOf(Money whole) {
+        if (whole.minorUnits == 0) return minorUnits > 0 ? 100.0 : 0.0;
+        return Math.round(minorUnits * 10_000.0 / whole.minorUnits) / 100.0;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return toBigDecimal(minorUnits);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
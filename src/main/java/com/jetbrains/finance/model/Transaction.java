@@ -3,10 +3,16 @@ package com.jetbrains.finance.model;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Comparator;
 
 public class Transaction implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    /** Ledger order: by date, then by id, so rows added later sort after earlier rows on the same day. */
+    public static final Comparator<Transaction> LEDGER_ORDER =
+            Comparator.comparing(Transaction::getDate).thenComparingLong(Transaction::getId);
+
+    private long id; // stable, persisted; 0 until the ledger assigns one
     private TransactionType type;
     private LocalDate date;
     private BigDecimal amount;
@@ -24,6 +30,14 @@ public class Transaction implements Serializable {
         this.description = description;
     }
 
+    public Transaction(long id, TransactionType type, LocalDate date, BigDecimal amount, String category, String description) {
+        this(type, date, amount, category, description);
+        this.id = id;
+    }
+
+    public long getId() { return id; }
+    public void setId(long id) { this.id = id; }
+
     public TransactionType getType() { return type; }
     public void setType(TransactionType type) { this.type = type; }
 
@@ -0,0 +1,273 @@
+package com.jetbrains.finance.model;
+
+import java.io.ObjectStreamException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable, column-oriented block of transactions in ledger order ({@link Transaction#LEDGER_ORDER}).
+ * Each row costs a handful of primitives: epoch day, amount in minor units (pence), category id,
+ * type and id, plus its description characters in a pool shared by the block.
+ * Changes produce a new table, so a table (and any view handed out from it) never changes underneath a reader.
+ */
+public final class TransactionTable {
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private final CategoryDictionary categories;
+    private final int size;
+    private final long[] ids;
+    private final int[] days;
+    private final long[] amounts;
+    private final int[] cats;
+    private final byte[] types;
+    private final int[] descEnd; // description of row i is pool[descEnd[i-1] .. descEnd[i])
+    private final char[] pool;
+
+    private TransactionTable(CategoryDictionary categories, int size, long[] ids, int[] days, long[] amounts,
+                             int[] cats, byte[] types, int[] descEnd, char[] pool) {
+        this.categories = categories;
+        this.size = size;
+        this.ids = ids;
+        this.days = days;
+        this.amounts = amounts;
+        this.cats = cats;
+        this.types = types;
+        this.descEnd = descEnd;
+        this.pool = pool;
+    }
+
+    public static TransactionTable empty(CategoryDictionary categories) {
+        return new TransactionTable(categories, 0, new long[0], new int[0], new long[0], new int[0], new byte[0], new int[0], new char[0]);
+    }
+
+    /** Builds a table from rows that are already in ledger order. */
+    public static TransactionTable of(CategoryDictionary categories, List<? extends Transaction> rows) {
+        int n = rows.size();
+        long[] ids = new long[n];
+        int[] days = new int[n];
+        long[] amounts = new long[n];
+        int[] cats = new int[n];
+        byte[] types = new byte[n];
+        int[] descEnd = new int[n];
+        int chars = 0;
+        for (Transaction t : rows) chars += descriptionOf(t).length();
+        char[] pool = new char[chars];
+        int p = 0;
+        for (int i = 0; i < n; i++) {
+            Transaction t = rows.get(i);
+            ids[i] = t.getId();
+            days[i] = (int) t.getDate().toEpochDay();
+            amounts[i] = Money.toMinor(t.getAmount());
+            cats[i] = categories.idOf(t.getCategory());
+            types[i] = (byte) t.getType().ordinal();
+            String d = descriptionOf(t);
+            d.getChars(0, d.length(), pool, p);
+            p += d.length();
+            descEnd[i] = p;
+        }
+        return new TransactionTable(categories, n, ids, days, amounts, cats, types, descEnd, pool);
+    }
+
+    public int size() { return size; }
+
+    public CategoryDictionary categories() { return categories; }
+
+    public long id(int row) { return ids[row]; }
+    public int epochDay(int row) { return days[row]; }
+    public long amountMinor(int row) { return amounts[row]; }
+    public int categoryId(int row) { return cats[row]; }
+    public TransactionType type(int row) { return TYPES[types[row]]; }
+    public boolean isIncome(int row) { return types[row] == TransactionType.INCOME.ordinal(); }
+
+    public String description(int row) {
+        int start = row == 0 ? 0 : descEnd[row - 1];
+        return new String(pool, start, descEnd[row] - start);
+    }
+
+    /** A read-only {@link Transaction} backed by this table's columns. */
+    public Transaction view(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException(row);
+        return new RowView(this, row);
+    }
+
+    /** The rows as a fixed-size list of {@link #view}s, made on access, so listing a table copies nothing. */
+    public List<Transaction> asList() {
+        return new AbstractList<>() {
+            @Override
+            public Transaction get(int index) { return view(index); }
+
+            @Override
+            public int size() { return size; }
+        };
+    }
+
+    /**
+     * Binary search by ledger key.
+     * @return the row index, or {@code -(insertionPoint) - 1} when absent
+     */
+    public int find(int epochDay, long id) {
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = days[mid] != epochDay ? Integer.compare(days[mid], epochDay) : Long.compare(ids[mid], id);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -(lo + 1);
+    }
+
+    /** Returns a copy with {@code t} inserted at its ledger position. */
+    public TransactionTable withInserted(Transaction t) {
+        int day = (int) t.getDate().toEpochDay();
+        int at = find(day, t.getId());
+        if (at >= 0) throw new IllegalArgumentException("Duplicate transaction id " + t.getId());
+        at = -at - 1;
+        String d = descriptionOf(t);
+        int len = d.length();
+        int poolAt = at == 0 ? 0 : descEnd[at - 1];
+        int n = size + 1;
+        long[] nIds = insert(ids, at, n); nIds[at] = t.getId();
+        int[] nDays = insert(days, at, n); nDays[at] = day;
+        long[] nAmounts = insert(amounts, at, n); nAmounts[at] = Money.toMinor(t.getAmount());
+        int[] nCats = insert(cats, at, n); nCats[at] = categories.idOf(t.getCategory());
+        byte[] nTypes = new byte[n];
+        System.arraycopy(types, 0, nTypes, 0, at);
+        System.arraycopy(types, at, nTypes, at + 1, size - at);
+        nTypes[at] = (byte) t.getType().ordinal();
+        int[] nDescEnd = insert(descEnd, at, n);
+        nDescEnd[at] = poolAt + len;
+        for (int i = at + 1; i < n; i++) nDescEnd[i] += len;
+        char[] nPool = new char[pool.length + len];
+        System.arraycopy(pool, 0, nPool, 0, poolAt);
+        d.getChars(0, len, nPool, poolAt);
+        System.arraycopy(pool, poolAt, nPool, poolAt + len, pool.length - poolAt);
+        return new TransactionTable(categories, n, nIds, nDays, nAmounts, nCats, nTypes, nDescEnd, nPool);
+    }
+
+    /** Returns a copy without the given row. */
+    public TransactionTable without(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException(row);
+        int poolStart = row == 0 ? 0 : descEnd[row - 1];
+        int len = descEnd[row] - poolStart;
+        int n = size - 1;
+        long[] nIds = remove(ids, row, n);
+        int[] nDays = remove(days, row, n);
+        long[] nAmounts = remove(amounts, row, n);
+        int[] nCats = remove(cats, row, n);
+        byte[] nTypes = new byte[n];
+        System.arraycopy(types, 0, nTypes, 0, row);
+        System.arraycopy(types, row + 1, nTypes, row, n - row);
+        int[] nDescEnd = remove(descEnd, row, n);
+        for (int i = row; i < n; i++) nDescEnd[i] -= len;
+        char[] nPool = new char[pool.length - len];
+        System.arraycopy(pool, 0, nPool, 0, poolStart);
+        System.arraycopy(pool, poolStart + len, nPool, poolStart, pool.length - poolStart - len);
+        return new TransactionTable(categories, n, nIds, nDays, nAmounts, nCats, nTypes, nDescEnd, nPool);
+    }
+
+    /** Returns a copy with another table's rows merged in; on equal keys this table's rows stay first. */
+    public TransactionTable mergedWith(TransactionTable other) {
+        int n = size + other.size;
+        long[] nIds = new long[n];
+        int[] nDays = new int[n];
+        long[] nAmounts = new long[n];
+        int[] nCats = new int[n];
+        byte[] nTypes = new byte[n];
+        int[] nDescEnd = new int[n];
+        char[] nPool = new char[pool.length + other.pool.length];
+        int i = 0, j = 0, p = 0;
+        for (int k = 0; k < n; k++) {
+            boolean takeOther = i == size || (j < other.size
+                    && (other.days[j] != days[i] ? other.days[j] < days[i] : other.ids[j] < ids[i]));
+            TransactionTable src = takeOther ? other : this;
+            int r = takeOther ? j++ : i++;
+            nIds[k] = src.ids[r];
+            nDays[k] = src.days[r];
+            nAmounts[k] = src.amounts[r];
+            nCats[k] = src.cats[r];
+            nTypes[k] = src.types[r];
+            int start = r == 0 ? 0 : src.descEnd[r - 1];
+            int len = src.descEnd[r] - start;
+            System.arraycopy(src.pool, start, nPool, p, len);
+            p += len;
+            nDescEnd[k] = p;
+        }
+        return new TransactionTable(categories, n, nIds, nDays, nAmounts, nCats, nTypes, nDescEnd, nPool);
+    }
+
+    private static String descriptionOf(Transaction t) {
+        String d = t.getDescription();
+        return d == null ? "" : d;
+    }
+
+    private static long[] insert(long[] a, int at, int n) {
+        long[] out = new long[n];
+        System.arraycopy(a, 0, out, 0, at);
+        System.arraycopy(a, at, out, at + 1, n - 1 - at);
+        return out;
+    }
+
+    private static int[] insert(int[] a, int at, int n) {
+        int[] out = new int[n];
+        System.arraycopy(a, 0, out, 0, at);
+        System.arraycopy(a, at, out, at + 1, n - 1 - at);
+        return out;
+    }
+
+    private static long[] remove(long[] a, int row, int n) {
+        long[] out = Arrays.copyOf(a, n);
+        System.arraycopy(a, row + 1, out, row, n - row);
+        return out;
+    }
+
+    private static int[] remove(int[] a, int row, int n) {
+        int[] out = Arrays.copyOf(a, n);
+        System.arraycopy(a, row + 1, out, row, n - row);
+        return out;
+    }
+
+    /** Flyweight row: reads through to the table's columns; the inherited fields stay unused. */
+    private static final class RowView extends Transaction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient TransactionTable table;
+        private final transient int row;
+        private transient String description;
+
+        RowView(TransactionTable table, int row) {
+            this.table = table;
+            this.row = row;
+        }
+
+        @Override public long getId() { return table.ids[row]; }
+        @Override public TransactionType getType() { return table.type(row); }
+        @Override public LocalDate getDate() { return LocalDate.ofEpochDay(table.days[row]); }
+        @Override public BigDecimal getAmount() { return Money.toBigDecimal(table.amounts[row]); }
+        @Override public String getCategory() { return table.categories.name(table.cats[row]); }
+
+        @Override public String getDescription() {
+            if (description == null) description = table.description(row);
+            return description;
+        }
+
+        @Override public void setId(long id) { throw readOnly(); }
+        @Override public void setType(TransactionType type) { throw readOnly(); }
+        @Override public void setDate(LocalDate date) { throw readOnly(); }
+        @Override public void setAmount(BigDecimal amount) { throw readOnly(); }
+        @Override public void setCategory(String category) { throw readOnly(); }
+        @Override public void setDescription(String description) { throw readOnly(); }
+
+        private static UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException("Transaction views are read-only; edit through FinanceService");
+        }
+
+        // Serialize as a plain, detached Transaction
+        private Object writeReplace() throws ObjectStreamException {
+            return new Transaction(getId(), getType(), getDate(), getAmount(), getCategory(), getDescription());
+        }
+    }
+}
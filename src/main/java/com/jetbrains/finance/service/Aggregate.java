@@ -0,0 +1,15 @@
+package com.jetbrains.finance.service;
+
+/** What {@link FinanceService#aggregate} can compute over a date range; any combination is computed in one pass. */
+public enum Aggregate {
+    /** Income and expense totals, see {@link Aggregates#summary()}. */
+    TOTALS,
+    /** Number of transactions, see {@link Aggregates#count()}. */
+    COUNT,
+    /** Expenses summed by category, see {@link Aggregates#spentByCategory()}. */
+    BY_CATEGORY,
+    /** Smallest and largest transaction amount, see {@link Aggregates#smallest()} and {@link Aggregates#largest()}. */
+    MIN_MAX,
+    /** Income and expense per day of the range, see {@link Aggregates#incomeOn} and {@link Aggregates#expenseOn}. */
+    DAILY
+}
@@ -0,0 +1,185 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.CategoryDictionary;
+import com.jetbrains.finance.model.Money;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionTable;
+import com.jetbrains.finance.model.TransactionType;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Accumulates the requested {@link Aggregate}s for one date range. Rows are fed in once, from month tables or
+ * from the store, and every requested aggregate is updated in the same pass; months the range covers whole
+ * can instead contribute their running totals when no per-row aggregate is wanted.
+ * <p>
+ * Scans of disjoint parts of the range can run on separate threads and then be {@link #merge merged}. Every
+ * aggregate is an exact integer sum, count, minimum or maximum, so merging in any grouping gives the same
+ * result as one sequential scan. A scan never adds to the category dictionary: store rows in a category it
+ * has not seen are kept by name. So scans only read the service's state, and can share its read lock.
+ */
+final class AggregateScan {
+    private final Set<Aggregate> wanted;
+    private final LocalDate from;
+    private final LocalDate to;
+    private final int fromDay;
+    private final int toDay;
+    private final CategoryDictionary categories;
+    private final boolean byCategory;
+    private final boolean minMax;
+    private final boolean daily;
+
+    private int count;
+    private long income;
+    private long expense;
+    // Indexed by category id
+    private long[] spent;
+    private int[] expenses;
+    // Expenses read from the store in categories the dictionary does not hold, by name
+    private final Map<String, Long> unseen = new HashMap<>();
+    private long smallest = Long.MAX_VALUE;
+    private long largest = Long.MIN_VALUE;
+    // Indexed by days since from
+    private final long[] dailyIncome;
+    private final long[] dailyExpense;
+
+    AggregateScan(Set<Aggregate> wanted, LocalDate from, LocalDate to, CategoryDictionary categories) {
+        this.wanted = wanted.isEmpty() ? EnumSet.noneOf(Aggregate.class) : EnumSet.copyOf(wanted);
+        this.from = from;
+        this.to = to;
+        this.fromDay = (int) from.toEpochDay();
+        this.toDay = (int) to.toEpochDay();
+        this.categories = categories;
+        this.byCategory = wanted.contains(Aggregate.BY_CATEGORY);
+        this.minMax = wanted.contains(Aggregate.MIN_MAX);
+        this.daily = wanted.contains(Aggregate.DAILY);
+        this.spent = new long[byCategory ? Math.max(8, categories.size()) : 0];
+        this.expenses = new int[spent.length];
+        int days = daily ? Math.toIntExact(to.toEpochDay() - from.toEpochDay() + 1) : 0;
+        this.dailyIncome = new long[days];
+        this.dailyExpense = new long[days];
+    }
+
+    /** True when the rows themselves must be seen; otherwise running totals are enough. */
+    boolean needsRows() {
+        return minMax || daily;
+    }
+
+    boolean wants(Aggregate aggregate) {
+        return wanted.contains(aggregate);
+    }
+
+    /** Adds a month's (or store range's) row count and totals without looking at its rows. */
+    void addTotals(int rows, long incomeMinor, long expenseMinor) {
+        count += rows;
+        income = Math.addExact(income, incomeMinor);
+        expense = Math.addExact(expense, expenseMinor);
+    }
+
+    /** Adds expenses already summed for one category. */
+    void addSpent(int category, long amountMinor, int rows) {
+        grow(category);
+        spent[category] = Math.addExact(spent[category], amountMinor);
+        expenses[category] += rows;
+    }
+
+    void addSpent(String category, long amountMinor) {
+        int id = categories.find(category);
+        if (id >= 0) addSpent(id, amountMinor, 1);
+        else unseen.merge(category, amountMinor, Math::addExact);
+    }
+
+    /** Adds one resident month: its running totals when the range covers it whole and no row is needed, otherwise its rows. */
+    void addMonth(Map.Entry<YearMonth, MonthBucket> month) {
+        YearMonth ym = month.getKey();
+        if (!needsRows() && !from.isAfter(ym.atDay(1)) && !to.isBefore(ym.atEndOfMonth())) month.getValue().addTo(this);
+        else scan(month.getValue().table());
+    }
+
+    /** Folds in a scan of another part of the same range. */
+    void merge(AggregateScan other) {
+        addTotals(other.count, other.income, other.expense);
+        for (int c = other.spent.length - 1; c >= 0; c--) {
+            if (other.expenses[c] != 0) addSpent(c, other.spent[c], other.expenses[c]);
+        }
+        other.unseen.forEach((name, amount) -> unseen.merge(name, amount, Math::addExact));
+        smallest = Math.min(smallest, other.smallest);
+        largest = Math.max(largest, other.largest);
+        for (int i = 0; i < dailyIncome.length; i++) {
+            dailyIncome[i] = Math.addExact(dailyIncome[i], other.dailyIncome[i]);
+            dailyExpense[i] = Math.addExact(dailyExpense[i], other.dailyExpense[i]);
+        }
+    }
+
+    /** Feeds the table's rows that fall in the range; the table is in ledger order, so the scan starts at the range. */
+    void scan(TransactionTable table) {
+        int lo = 0, hi = table.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (table.epochDay(mid) < fromDay) lo = mid + 1;
+            else hi = mid;
+        }
+        for (int i = lo; i < table.size(); i++) {
+            int day = table.epochDay(i);
+            if (day > toDay) break;
+            row(day, table.isIncome(i), table.amountMinor(i), byCategory ? table.categoryId(i) : -1);
+        }
+    }
+
+    /** Feeds one row read from the store; the caller only passes rows in the range. */
+    void add(Transaction t) {
+        boolean isIncome = t.getType() == TransactionType.INCOME;
+        long amount = Money.toMinor(t.getAmount());
+        int category = byCategory && !isIncome ? categories.find(t.getCategory()) : -1;
+        row((int) t.getDate().toEpochDay(), isIncome, amount, category);
+        if (byCategory && !isIncome && category < 0) unseen.merge(t.getCategory(), amount, Math::addExact);
+    }
+
+    private void row(int day, boolean isIncome, long amount, int category) {
+        count++;
+        if (isIncome) {
+            income = Math.addExact(income, amount);
+        } else {
+            expense = Math.addExact(expense, amount);
+            if (byCategory && category >= 0) addSpent(category, amount, 1);
+        }
+        if (minMax) {
+            smallest = Math.min(smallest, amount);
+            largest = Math.max(largest, amount);
+        }
+        if (daily) {
+            int at = day - fromDay;
+            if (isIncome) dailyIncome[at] = Math.addExact(dailyIncome[at], amount);
+            else dailyExpense[at] = Math.addExact(dailyExpense[at], amount);
+        }
+    }
+
+    private void grow(int category) {
+        if (category < spent.length) return;
+        int n = Math.max(category + 1, spent.length * 2);
+        spent = Arrays.copyOf(spent, n);
+        expenses = Arrays.copyOf(expenses, n);
+    }
+
+    Aggregates result() {
+        Map<String, Money> byCat = null;
+        if (byCategory) {
+            Map<String, Long> minor = new TreeMap<>(unseen);
+            for (int c = 0; c < spent.length; c++) {
+                if (expenses[c] > 0) minor.merge(categories.name(c), spent[c], Math::addExact);
+            }
+            byCat = new TreeMap<>();
+            for (Map.Entry<String, Long> e : minor.entrySet()) byCat.put(e.getKey(), Money.ofMinor(e.getValue()));
+        }
+        boolean none = smallest > largest;
+        return new Aggregates(wanted, from, to, count, income, expense, byCat,
+                none ? null : Money.ofMinor(smallest), none ? null : Money.ofMinor(largest), dailyIncome, dailyExpense);
+    }
+}
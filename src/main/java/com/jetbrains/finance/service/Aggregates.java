@@ -0,0 +1,93 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.Money;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The results of {@link FinanceService#aggregate} for one date range. Reading an aggregate that was not
+ * requested throws {@link IllegalStateException}.
+ */
+public final class Aggregates {
+    private final Set<Aggregate> computed;
+    private final LocalDate from;
+    private final LocalDate to;
+    private final int count;
+    private final long incomeMinor;
+    private final long expenseMinor;
+    private final Map<String, Money> spentByCategory;
+    private final Money smallest;
+    private final Money largest;
+    // Indexed by days since from
+    private final long[] dailyIncome;
+    private final long[] dailyExpense;
+
+    Aggregates(Set<Aggregate> computed, LocalDate from, LocalDate to, int count, long incomeMinor, long expenseMinor,
+               Map<String, Money> spentByCategory, Money smallest, Money largest, long[] dailyIncome, long[] dailyExpense) {
+        this.computed = computed;
+        this.from = from;
+        this.to = to;
+        this.count = count;
+        this.incomeMinor = incomeMinor;
+        this.expenseMinor = expenseMinor;
+        this.spentByCategory = spentByCategory;
+        this.smallest = smallest;
+        this.largest = largest;
+        this.dailyIncome = dailyIncome;
+        this.dailyExpense = dailyExpense;
+    }
+
+    public LocalDate from() { return from; }
+
+    public LocalDate to() { return to; }
+
+    public MonthlySummary summary() {
+        require(Aggregate.TOTALS);
+        return new MonthlySummary(Money.ofMinor(incomeMinor), Money.ofMinor(expenseMinor),
+                Money.ofMinor(Math.subtractExact(incomeMinor, expenseMinor)));
+    }
+
+    public int count() {
+        require(Aggregate.COUNT);
+        return count;
+    }
+
+    /** Category -> amount spent, sorted by category; categories without expenses in the range are absent. */
+    public Map<String, Money> spentByCategory() {
+        require(Aggregate.BY_CATEGORY);
+        return spentByCategory;
+    }
+
+    /** The smallest transaction amount in the range, or null if it has none. */
+    public Money smallest() {
+        require(Aggregate.MIN_MAX);
+        return smallest;
+    }
+
+    /** The largest transaction amount in the range, or null if it has none. */
+    public Money largest() {
+        require(Aggregate.MIN_MAX);
+        return largest;
+    }
+
+    public Money incomeOn(LocalDate day) {
+        require(Aggregate.DAILY);
+        return Money.ofMinor(dailyIncome[offset(day)]);
+    }
+
+    public Money expenseOn(LocalDate day) {
+        require(Aggregate.DAILY);
+        return Money.ofMinor(dailyExpense[offset(day)]);
+    }
+
+    private int offset(LocalDate day) {
+        if (day.isBefore(from) || day.isAfter(to)) throw new IllegalArgumentException(day + " is outside " + from + " to " + to);
+        return (int) (day.toEpochDay() - from.toEpochDay());
+    }
+
+    private void require(Aggregate aggregate) {
+        if (!computed.contains(aggregate)) throw new IllegalStateException(aggregate + " was not requested");
+    }
+}
@@ -0,0 +1,138 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.store.MonthTotals;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Cumulative totals by day for the rows in memory: Fenwick trees over epoch days of row counts, income and
+ * expense in minor units, so the totals of any date range take O(log days) and a row added or removed is a
+ * point update of the same cost.
+ * <p>
+ * The trees cover a window of consecutive days. A date outside it doubles the window until it fits, and the trees
+ * are rebuilt, as long as the window stays within {@link #MAX_WINDOW} days. Days that would stretch it further,
+ * such as a mistyped year, are kept in a sorted map and added up directly.
+ */
+final class DayIndex {
+    /** Widest window of days kept in the trees, about 180 years. */
+    static final int MAX_WINDOW = 1 << 16;
+    private static final int MIN_WINDOW = 1 << 10;
+
+    // Epoch day of slot 0; the trees are 1-based, so day d lives at d - base + 1
+    private int base;
+    private int size;
+    private int[] rows = new int[1];
+    private long[] income = new long[1];
+    private long[] expense = new long[1];
+    // Days outside the window: epoch day -> {rows, income, expense}
+    private final TreeMap<Integer, long[]> outside = new TreeMap<>();
+
+    /** Adds a row to (positive {@code rowsDelta}) or takes it from (negative) the day's totals. */
+    void add(int day, boolean isIncome, long amountMinor, int rowsDelta) {
+        if (size == 0 || day < base || day >= base + size) place(day);
+        if (day < base || day >= base + size) {
+            long[] totals = outside.computeIfAbsent(day, k -> new long[3]);
+            totals[0] += rowsDelta;
+            totals[isIncome ? 1 : 2] = Math.addExact(totals[isIncome ? 1 : 2], amountMinor);
+            if (totals[0] == 0) outside.remove(day);
+            return;
+        }
+        for (int i = day - base + 1; i <= size; i += i & -i) {
+            rows[i] += rowsDelta;
+            if (isIncome) income[i] = Math.addExact(income[i], amountMinor);
+            else expense[i] = Math.addExact(expense[i], amountMinor);
+        }
+    }
+
+    /** Row count and totals of the days {@code fromDay} to {@code toDay} inclusive; nothing if {@code fromDay} comes later. */
+    MonthTotals sum(int fromDay, int toDay) {
+        long n = 0, in = 0, out = 0;
+        if (size > 0) {
+            int hi = Math.min(toDay, base + size - 1) - base + 1;
+            int lo = Math.max(fromDay, base) - base;
+            if (hi > lo) {
+                for (int i = hi; i > 0; i -= i & -i) { n += rows[i]; in += income[i]; out += expense[i]; }
+                for (int i = lo; i > 0; i -= i & -i) { n -= rows[i]; in -= income[i]; out -= expense[i]; }
+            }
+        }
+        if (fromDay <= toDay) {
+            for (long[] totals : outside.subMap(fromDay, true, toDay, true).values()) {
+                n += totals[0];
+                in = Math.addExact(in, totals[1]);
+                out = Math.addExact(out, totals[2]);
+            }
+        }
+        return new MonthTotals(Math.toIntExact(n), in, out);
+    }
+
+    /**
+     * Grows the window to take in {@code day} if that keeps it within {@link #MAX_WINDOW}. A window that would
+     * grow too wide stays put, unless it holds fewer rows than there are days outside it (it was placed by a few
+     * stray dates), in which case it moves to the new day.
+     */
+    private void place(int day) {
+        if (size > 0) {
+            long span = (long) Math.max(base + size - 1, day) - Math.min(base, day) + 1;
+            if (span <= MAX_WINDOW) {
+                int newSize = size;
+                while (newSize < span) newSize <<= 1;
+                // Grow towards the new day, leaving room beyond it
+                rebuild(day < base ? base + size - newSize : base, newSize);
+                return;
+            }
+            if (outside.size() <= sum(base, base + size - 1).rows()) return;
+            spill();
+        }
+        rebuild(day - MIN_WINDOW / 2, MIN_WINDOW);
+    }
+
+    /** Moves every day in the window out to the map and empties the window. */
+    private void spill() {
+        for (int d = base; d < base + size; d++) {
+            MonthTotals totals = sum(d, d);
+            if (totals.rows() != 0) outside.put(d, new long[] {totals.rows(), totals.incomeMinor(), totals.expenseMinor()});
+        }
+        size = 0;
+        rows = new int[1];
+        income = new long[1];
+        expense = new long[1];
+    }
+
+    /** Rebuilds the trees over a new window from the current per-day values, then moves in outside days it now covers. */
+    private void rebuild(int newBase, int newSize) {
+        int[] newRows = new int[newSize + 1];
+        long[] newIncome = new long[newSize + 1];
+        long[] newExpense = new long[newSize + 1];
+        // Per-day values are the differences of consecutive prefix sums; the window only ever grows, so every day fits
+        for (int i = 1; i <= size; i++) {
+            int at = base + i - 1 - newBase + 1;
+            MonthTotals day = sum(base + i - 1, base + i - 1);
+            newRows[at] = day.rows();
+            newIncome[at] = day.incomeMinor();
+            newExpense[at] = day.expenseMinor();
+        }
+        Map<Integer, long[]> covered = outside.subMap(newBase, true, newBase + newSize - 1, true);
+        for (Map.Entry<Integer, long[]> e : covered.entrySet()) {
+            int at = e.getKey() - newBase + 1;
+            newRows[at] += (int) e.getValue()[0];
+            newIncome[at] += e.getValue()[1];
+            newExpense[at] += e.getValue()[2];
+        }
+        covered.clear();
+        // Linear-time Fenwick construction: each slot passes its sum up to its parent
+        for (int i = 1; i <= newSize; i++) {
+            int parent = i + (i & -i);
+            if (parent <= newSize) {
+                newRows[parent] += newRows[i];
+                newIncome[parent] += newIncome[i];
+                newExpense[parent] += newExpense[i];
+            }
+        }
+        base = newBase;
+        size = newSize;
+        rows = newRows;
+        income = newIncome;
+        expense = newExpense;
+    }
+}
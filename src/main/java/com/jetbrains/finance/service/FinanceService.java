@@ -1,12 +1,19 @@
 package com.jetbrains.finance.service;
 
-import com.jetbrains.finance.model.FinanceData;
+import com.jetbrains.finance.model.CategoryDictionary;
+import com.jetbrains.finance.model.Money;
 import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionTable;
 import com.jetbrains.finance.model.TransactionType;
+import com.jetbrains.finance.store.LedgerManifest;
+import com.jetbrains.finance.store.MonthTotals;
+import com.jetbrains.finance.store.PendingSave;
 import com.jetbrains.finance.store.PlainTextStore;
+import com.jetbrains.finance.store.StorageBackend;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -14,157 +21,951 @@ import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.YearMonth;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.StreamSupport;
 
+/**
+ * The ledger and its budgets, safe to share between threads. Writes, and reads that bring a month into memory,
+ * hold the write lock of a {@link StampedLock}; other reads share its read lock. Each write publishes a
+ * {@link LedgerSnapshot} before unlocking, which month totals, saves and exports read without locking, and
+ * listeners hear of the write as {@link LedgerEvent}s once the lock is released.
+ */
 public class FinanceService {
-    private final PlainTextStore store;
-    private final FinanceData data;
+    /** Debug switch: -Dfinance.verifyAggregates=true re-checks cached month totals against a recompute on every read. */
+    private static final boolean VERIFY_AGGREGATES = Boolean.getBoolean("finance.verifyAggregates");
+    /** -Dfinance.residentMonths=N keeps at most N months in memory (0, the default, keeps every month read). */
+    private static final int RESIDENT_MONTHS = Integer.getInteger("finance.residentMonths", 0);
+    /** -Dfinance.parallelMinRows=N: aggregations over fewer resident rows than this run on the calling thread only. */
+    private static final int PARALLEL_MIN_ROWS = Integer.getInteger("finance.parallelMinRows", 200_000);
+    private static final System.Logger LOG = System.getLogger(FinanceService.class.getName());
+
+    private final StorageBackend store;
+    private final Map<String, BigDecimal> budgets;
+    // The ledger: columnar month buckets in ledger order with per-month totals. A change only copies its month.
+    private final NavigableMap<YearMonth, MonthBucket> months = new TreeMap<>();
+    // Months the store holds that have not been read yet, with the totals from its index
+    private final NavigableMap<YearMonth, MonthTotals> cold = new TreeMap<>();
+    // Resident months, least recently used first
+    private final Set<YearMonth> recency = new LinkedHashSet<>();
+    // Months read under the read lock, with when; moved to the back of recency before the next trim
+    private final Map<YearMonth, Long> readSince = new ConcurrentHashMap<>();
+    private final AtomicLong readClock = new AtomicLong();
+    private int residentLimit = RESIDENT_MONTHS;
+    private int parallelMinRows = PARALLEL_MIN_ROWS;
+    private final LongAdder hits = new LongAdder();
+    private long loads;
+    private long evictions;
+    private final CategoryDictionary categories = new CategoryDictionary();
+    // id -> epoch day of every resident row, which names the bucket; the row is then found by binary search
+    private final LongIntMap dayById = new LongIntMap();
+    // Cumulative totals by day of every resident row, for date-range totals in O(log days)
+    private final DayIndex dayTotals = new DayIndex();
+    private long nextId = 1;
+    private final StorageBackend.Ledger ledger = new LedgerView();
+    // Months changed since the last snapshot was published, and whether the budgets were
+    private final Set<YearMonth> unpublished = new HashSet<>();
+    private boolean budgetsChanged;
+    // What the current write changed, announced to listeners once the lock is released
+    private final Set<YearMonth> changedMonths = new TreeSet<>();
+    private final Set<String> changedCategories = new TreeSet<>();
+    private final Set<String> changedBudgets = new TreeSet<>();
+    // Guards every field above; see the class comment
+    private final StampedLock lock = new StampedLock();
+    // Written under the write lock, read without it
+    private volatile LedgerSnapshot snapshot = LedgerSnapshot.EMPTY;
+    private final List<Consumer<? super LedgerEvent>> listeners = new CopyOnWriteArrayList<>();
 
     public FinanceService(Path file) {
-        this.store = new PlainTextStore(file);
-        this.data = store.load();
+        this(file, false);
+    }
+
+    /** @param journaled append the changes since the last save to a journal instead of rewriting the data file */
+    public FinanceService(Path file, boolean journaled) {
+        this(new PlainTextStore(file, journaled));
+    }
+
+    /** Reads only the store's index; a month's transactions are read when the month is first needed. */
+    public FinanceService(StorageBackend store) {
+        this.store = store;
+        LedgerManifest manifest;
+        try {
+            manifest = store.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open " + store.getLocation(), e);
+        }
+        this.budgets = new HashMap<>(manifest.budgets());
+        this.nextId = Math.max(1, manifest.nextId());
+        cold.putAll(manifest.months());
+        unpublished.addAll(cold.keySet());
+        budgetsChanged = true;
+        publish();
+    }
+
+    /** Keeps at most {@code limit} months in memory, 0 for no limit; months with unsaved changes stay until saved. */
+    public void setResidentMonthLimit(int limit) {
+        if (limit < 0) throw new IllegalArgumentException("Limit must be >= 0");
+        writing(() -> {
+            residentLimit = limit;
+            trim();
+            return null;
+        });
+    }
+
+    /** Overrides -Dfinance.parallelMinRows, so that tests and benchmarks can force either kind of scan. */
+    void setParallelMinRows(int rows) {
+        if (rows < 0) throw new IllegalArgumentException("Rows must be >= 0");
+        writing(() -> {
+            parallelMinRows = rows;
+            return null;
+        });
+    }
+
+    public ResidencyStats getResidencyStats() {
+        return optimistic(() -> new ResidencyStats(months.size(), months.size() + cold.size(), residentLimit, hits.sum(), loads, evictions));
+    }
+
+    private <T> T writing(Supplier<T> action) {
+        long stamp = lock.writeLock();
+        try {
+            return action.get();
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /** Publishes what the write changed, even if it failed part way, lets readers in, then tells listeners. */
+    private void release(long stamp) {
+        List<LedgerEvent> events = List.of();
+        try {
+            publish();
+            events = takeEvents();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        for (LedgerEvent event : events) {
+            for (Consumer<? super LedgerEvent> listener : listeners) {
+                try {
+                    listener.accept(event);
+                } catch (RuntimeException e) {
+                    // The write has already happened; a failing listener must not undo that for the caller or the other listeners
+                    LOG.log(System.Logger.Level.WARNING, "Change listener failed on " + event, e);
+                }
+            }
+        }
+    }
+
+    /** Calls {@code listener} on the writing thread after each change, once it can be read; a listener that throws is logged. */
+    public void addChangeListener(Consumer<? super LedgerEvent> listener) {
+        listeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    public void removeChangeListener(Consumer<? super LedgerEvent> listener) {
+        listeners.remove(listener);
     }
 
-    public void save() throws IOException { store.save(data); }
+    /** Notes a row that was added, removed, or replaced (call for both the old and new row). */
+    private void changed(Transaction t) {
+        changedMonths.add(YearMonth.from(t.getDate()));
+        changedCategories.add(t.getCategory());
+    }
+
+    private List<LedgerEvent> takeEvents() {
+        List<LedgerEvent> events = new ArrayList<>(2);
+        long version = snapshot.version();
+        if (!changedMonths.isEmpty()) {
+            events.add(new LedgerEvent.TransactionsChanged(version, Collections.unmodifiableSortedSet(new TreeSet<>(changedMonths)),
+                    Collections.unmodifiableSortedSet(new TreeSet<>(changedCategories))));
+        }
+        if (!changedBudgets.isEmpty()) {
+            events.add(new LedgerEvent.BudgetsChanged(version, Collections.unmodifiableSortedSet(new TreeSet<>(changedBudgets))));
+        }
+        changedMonths.clear();
+        changedCategories.clear();
+        changedBudgets.clear();
+        return events;
+    }
+
+    /**
+     * Replaces the snapshot with one that differs only in the changed months. Only called under the write lock,
+     * so a plain volatile write is the whole publish.
+     */
+    private void publish() {
+        LedgerSnapshot last = snapshot;
+        if (unpublished.isEmpty() && !budgetsChanged && nextId == last.nextId()) return;
+        PersistentSortedMap<YearMonth, TransactionTable> tables = last.tables();
+        PersistentSortedMap<YearMonth, MonthTotals> totals = last.allTotals();
+        for (YearMonth ym : unpublished) {
+            MonthBucket bucket = months.get(ym);
+            MonthTotals stored = bucket != null ? bucket.totals() : cold.get(ym);
+            tables = bucket != null ? tables.with(ym, bucket.table()) : tables.without(ym);
+            totals = stored != null ? totals.with(ym, stored) : totals.without(ym);
+        }
+        unpublished.clear();
+        PersistentSortedMap<YearMonth, Long> changedIn = last.changedIn();
+        for (YearMonth ym : changedMonths) changedIn = changedIn.with(ym, last.version() + 1);
+        Map<String, BigDecimal> budgetsNow = budgetsChanged ? Map.copyOf(budgets) : last.budgets();
+        budgetsChanged = false;
+        snapshot = new LedgerSnapshot(last.version() + 1, tables, totals, changedIn, budgetsNow, nextId);
+    }
+
+    /** The ledger as of the last completed change, without locking; a snapshot never changes afterwards. */
+    public LedgerSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /** A snapshot holding the month's rows, reading the month into memory first if only the store has it. */
+    private LedgerSnapshot snapshotWith(YearMonth ym) {
+        LedgerSnapshot snap = snapshot;
+        if (snap.hasRows(ym)) return snap;
+        return writing(() -> {
+            bucket(ym);
+            publish();
+            // Taken before trim so that the month is still in it, even if it is dropped from memory
+            LedgerSnapshot loaded = snapshot;
+            trim();
+            return loaded;
+        });
+    }
+
+    private <T> T reading(Supplier<T> action) {
+        long stamp = lock.readLock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Runs a read that only looks at memory without locking, then checks no writer ran meanwhile; if one did, the
+     * result (or failure) may come from half-made changes and the read is repeated under the read lock.
+     */
+    private <T> T optimistic(Supplier<T> read) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = read.get();
+                if (lock.validate(stamp)) return result;
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) throw e;
+            }
+        }
+        return reading(read);
+    }
+
+    /** The month's bucket, reading it from the store first if it is not resident; null if the month has no rows. */
+    private MonthBucket bucket(YearMonth ym) {
+        MonthBucket bucket = months.get(ym);
+        if (bucket != null) {
+            hits.increment();
+            recency.remove(ym);
+            recency.add(ym);
+            return bucket;
+        }
+        if (!cold.containsKey(ym)) return null;
+        loads++;
+        unpublished.add(ym);
+        List<Transaction> rows;
+        try {
+            rows = new ArrayList<>(store.loadMonth(ym));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + ym + " from " + store.getLocation(), e);
+        }
+        cold.remove(ym);
+        if (rows.isEmpty()) return null;
+        for (Transaction t : rows) nextId = Math.max(nextId, t.getId() + 1);
+        for (Transaction t : rows) {
+            if (t.getId() <= 0) t.setId(nextId++);
+            dayById.put(t.getId(), (int) t.getDate().toEpochDay());
+        }
+        rows.sort(Transaction.LEDGER_ORDER);
+        bucket = new MonthBucket(categories, dayTotals);
+        bucket.mergeAll(rows);
+        months.put(ym, bucket);
+        recency.add(ym);
+        return bucket;
+    }
+
+    /**
+     * Drops least recently used months over the limit. Only called once an operation is complete, when
+     * the store has been told about every change the operation made.
+     */
+    private void trim() {
+        if (!readSince.isEmpty()) {
+            List<Map.Entry<YearMonth, Long>> reads = new ArrayList<>(readSince.entrySet());
+            reads.sort(Map.Entry.comparingByValue());
+            for (Map.Entry<YearMonth, Long> e : reads) {
+                if (readSince.remove(e.getKey(), e.getValue()) && recency.remove(e.getKey())) recency.add(e.getKey());
+            }
+        }
+        if (residentLimit == 0 || months.size() <= residentLimit) return;
+        for (Iterator<YearMonth> it = recency.iterator(); it.hasNext() && months.size() > residentLimit; ) {
+            YearMonth ym = it.next();
+            if (!store.canReload(ym)) continue;
+            it.remove();
+            MonthBucket bucket = months.remove(ym);
+            bucket.unindex();
+            TransactionTable table = bucket.table();
+            for (int i = 0; i < table.size(); i++) dayById.remove(table.id(i));
+            cold.put(ym, bucket.totals());
+            unpublished.add(ym);
+            evictions++;
+        }
+    }
+
+    /** The month's bucket for a change, created if the month has no rows yet. */
+    private MonthBucket writableBucket(YearMonth ym) {
+        unpublished.add(ym);
+        MonthBucket bucket = bucket(ym);
+        if (bucket == null) {
+            bucket = new MonthBucket(categories, dayTotals);
+            months.put(ym, bucket);
+            recency.add(ym);
+        }
+        return bucket;
+    }
+
+    /** Reads months not in memory until one holds the id; needed where a lookup cannot be narrowed to one month. */
+    private int findDay(long id) {
+        for (YearMonth ym : new ArrayList<>(cold.keySet())) {
+            bucket(ym);
+            int day = dayById.get(id);
+            if (day != LongIntMap.MISSING) return day;
+            trim();
+        }
+        return LongIntMap.MISSING;
+    }
+
+    public void save() throws IOException {
+        prepareSave().write();
+    }
+
+    /** Captures the unsaved changes under the lock, to be written later without it; see {@link SaveScheduler}. */
+    public PendingSave prepareSave() throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            return store.prepareSave(ledger);
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /** Rewrites the whole store, folding in (and removing) any journal. */
+    public void compact() throws IOException {
+        PendingSave rewrite;
+        long stamp = lock.writeLock();
+        try {
+            rewrite = store.prepareRewrite(ledger);
+        } finally {
+            release(stamp);
+        }
+        rewrite.write();
+    }
+
+    /** The store's view of the ledger while it prepares a save: the snapshot, which the write lock keeps current. */
+    private final class LedgerView implements StorageBackend.Ledger {
+        @Override
+        public Map<String, BigDecimal> budgets() { return snapshot.budgets(); }
+
+        @Override
+        public long nextId() { return snapshot.nextId(); }
+
+        @Override
+        public NavigableMap<YearMonth, MonthTotals> months() {
+            NavigableMap<YearMonth, MonthTotals> out = new TreeMap<>();
+            snapshot.allTotals().forEach(out::put);
+            return out;
+        }
+
+        @Override
+        public List<Transaction> rows(YearMonth month) {
+            TransactionTable table = snapshot.table(month);
+            if (table == null) {
+                MonthBucket bucket = bucket(month);
+                if (bucket == null) return List.of();
+                table = bucket.table();
+            }
+            return table.asList();
+        }
+    }
 
     public Map<String, BigDecimal> getBudgets() {
-        return new TreeMap<>(data.getBudgets());
+        return new TreeMap<>(snapshot.budgets());
     }
 
     public void setBudget(String category, BigDecimal limit) {
         Objects.requireNonNull(category, "category");
         Objects.requireNonNull(limit, "limit");
         if (limit.compareTo(BigDecimal.ZERO) < 0) throw new IllegalArgumentException("Budget must be >= 0");
-        data.getBudgets().put(category, limit);
+        writing(() -> {
+            budgets.put(category, limit);
+            budgetsChanged = true;
+            changedBudgets.add(category);
+            store.recordBudget(category, limit);
+            return null;
+        });
     }
 
     public void removeBudget(String category) {
         Objects.requireNonNull(category, "category");
-        data.getBudgets().remove(category);
+        writing(() -> {
+            if (budgets.remove(category) != null) {
+                budgetsChanged = true;
+                changedBudgets.add(category);
+                store.recordBudgetRemoved(category);
+            }
+            return null;
+        });
+    }
+
+    /** Records the store could not read and skipped; see {@link StorageBackend#getUnreadableRecords()}. */
+    public int getUnreadableRecords() {
+        return store.getUnreadableRecords();
     }
 
     public java.nio.file.Path getDataFile() {
-        return this.store.getFile();
+        return this.store.getLocation();
     }
 
-    public void addTransaction(TransactionType type, LocalDate date, BigDecimal amount, String category, String description) {
+    /** @return the new transaction's id */
+    public long addTransaction(TransactionType type, LocalDate date, BigDecimal amount, String category, String description) {
+        var t = newTransaction(type, date, amount, category, description);
+        return writing(() -> {
+            t.setId(nextId++);
+            dayById.put(t.getId(), (int) date.toEpochDay());
+            writableBucket(YearMonth.from(date)).insert(t);
+            store.recordAdd(t);
+            changed(t);
+            trim();
+            return t.getId();
+        });
+    }
+
+    /**
+     * Bulk add, e.g. for importing bank history: every row, or none if one is invalid.
+     * @return number of transactions added
+     */
+    public int addTransactions(Collection<Transaction> batch) {
+        Objects.requireNonNull(batch, "batch");
+        List<Transaction> added = new ArrayList<>(batch.size());
+        for (Transaction in : batch) {
+            Objects.requireNonNull(in, "transaction");
+            added.add(newTransaction(in.getType(), in.getDate(), in.getAmount(), in.getCategory(), in.getDescription()));
+        }
+        if (added.isEmpty()) return 0;
+        return writing(() -> addAll(added));
+    }
+
+    private int addAll(List<Transaction> added) {
+        for (Transaction t : added) {
+            t.setId(nextId++);
+            dayById.put(t.getId(), (int) t.getDate().toEpochDay());
+        }
+        added.sort(Transaction.LEDGER_ORDER);
+        int from = 0;
+        while (from < added.size()) {
+            YearMonth ym = YearMonth.from(added.get(from).getDate());
+            int to = from + 1;
+            while (to < added.size() && YearMonth.from(added.get(to).getDate()).equals(ym)) to++;
+            writableBucket(ym).mergeAll(added.subList(from, to));
+            from = to;
+        }
+        for (Transaction t : added) {
+            store.recordAdd(t);
+            changed(t);
+        }
+        trim();
+        return added.size();
+    }
+
+    private static Transaction newTransaction(TransactionType type, LocalDate date, BigDecimal amount, String category, String description) {
         Objects.requireNonNull(type, "type");
         Objects.requireNonNull(date, "date");
         Objects.requireNonNull(amount, "amount");
         if (amount.compareTo(BigDecimal.ZERO) <= 0) throw new IllegalArgumentException("Amount must be > 0");
+        checkScale(amount);
         if (type == TransactionType.EXPENSE && (category == null || category.isBlank())) {
             throw new IllegalArgumentException("Expense requires category");
         }
         if (type == TransactionType.INCOME) {
             category = "INCOME";
         }
-        var t = new Transaction(type, date, amount, category, description);
-        data.getTransactions().add(t);
-        data.getTransactions().sort(Comparator.comparing(Transaction::getDate));
+        return new Transaction(type, date, amount, category, description);
+    }
+
+    private static void checkScale(BigDecimal amount) {
+        if (amount.stripTrailingZeros().scale() > Money.SCALE) {
+            throw new IllegalArgumentException("Amount must have at most " + Money.SCALE + " decimal places");
+        }
+    }
+
+    /** @return a read-only view of the transaction with this id, or null */
+    public Transaction getTransaction(long id) {
+        long stamp = lock.readLock();
+        try {
+            int day = dayById.get(id);
+            if (day != LongIntMap.MISSING) {
+                YearMonth ym = YearMonth.from(LocalDate.ofEpochDay(day));
+                MonthBucket bucket = months.get(ym);
+                read(ym);
+                return bucket.get(bucket.find(day, id));
+            }
+            if (cold.isEmpty()) return null;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return writing(() -> {
+            Transaction t = find(id);
+            trim();
+            return t;
+        });
+    }
+
+    /** Like {@link #getTransaction} but leaves the month resident for a change that follows. */
+    private Transaction find(long id) {
+        int day = dayById.get(id);
+        if (day == LongIntMap.MISSING) day = findDay(id);
+        if (day == LongIntMap.MISSING) return null;
+        MonthBucket bucket = months.get(YearMonth.from(LocalDate.ofEpochDay(day)));
+        return bucket.get(bucket.find(day, id));
     }
 
     public List<Transaction> getTransactionsForMonth(YearMonth ym) {
-        return data.getTransactions().stream()
-                .filter(t -> YearMonth.from(t.getDate()).equals(ym))
-                .sorted(Comparator.comparing(Transaction::getDate))
-                .collect(Collectors.toList());
+        return readMonth(ym, bucket -> bucket == null ? new ArrayList<>() : new ArrayList<>(bucket.rows()));
+    }
+
+    /**
+     * Runs {@code read} on the month's bucket (null if it has no rows) under the read lock, or, if the month has to
+     * be brought into memory first, under the write lock.
+     */
+    private <T> T readMonth(YearMonth ym, Function<MonthBucket, T> read) {
+        long stamp = lock.readLock();
+        try {
+            MonthBucket bucket = months.get(ym);
+            if (bucket != null || !cold.containsKey(ym)) {
+                if (bucket != null) read(ym);
+                return read.apply(bucket);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return writing(() -> {
+            T result = read.apply(bucket(ym));
+            trim();
+            return result;
+        });
     }
 
+    /** Counts a read of a resident month under the read lock; only needed for the recency order when there is a limit. */
+    private void read(YearMonth ym) {
+        hits.increment();
+        if (residentLimit > 0) readSince.put(ym, readClock.incrementAndGet());
+    }
+
+    /** The rows of {@code from} to {@code to} as a {@link TransactionIndex}, paged when there is a resident month limit. */
+    public TransactionIndex getTransactionIndex(YearMonth from, YearMonth to) {
+        Objects.requireNonNull(from, "from");
+        Objects.requireNonNull(to, "to");
+        if (from.isAfter(to)) throw new IllegalArgumentException("Range starts after it ends: " + from + " > " + to);
+        LedgerSnapshot current = snapshot;
+        int limit = optimistic(() -> residentLimit);
+        boolean[] cold = {false};
+        current.allTotals().forEach(from, to, (ym, t) -> cold[0] |= !current.hasRows(ym));
+        if (cold[0] && limit > 0) {
+            Map<YearMonth, Integer> rows = new LinkedHashMap<>();
+            current.allTotals().forEach(from, to, (ym, t) -> rows.put(ym, t.rows()));
+            return TransactionIndex.paged(current.version(), rows, ym -> {
+                LedgerSnapshot snap = snapshotWith(ym);
+                return snap.changedIn(ym) <= current.version() ? snap.table(ym) : null;
+            }, limit);
+        }
+        LedgerSnapshot snap = !cold[0] ? current : writing(() -> {
+            snapshot.allTotals().forEach(from, to, (ym, t) -> bucket(ym));
+            publish();
+            // Taken before trim so that every month is still in it
+            LedgerSnapshot loaded = snapshot;
+            trim();
+            return loaded;
+        });
+        List<TransactionTable> tables = new ArrayList<>();
+        snap.tables().forEach(from, to, (ym, table) -> tables.add(table));
+        return TransactionIndex.of(snap.version(), tables);
+    }
+
+    /** Read from the published snapshot's month totals, without locking. */
     public int getMonthTransactionCount(YearMonth ym) {
-        return (int) data.getTransactions().stream()
-                .filter(t -> YearMonth.from(t.getDate()).equals(ym))
-                .count();
+        return snapshot.totals(ym).rows();
     }
 
+    /** Read from the published snapshot's month totals, without locking, whether or not the month is in memory. */
     public MonthlySummary getMonthlySummary(YearMonth ym) {
-        var txns = getTransactionsForMonth(ym);
-        BigDecimal income = txns.stream()
-                .filter(t -> t.getType() == TransactionType.INCOME)
-                .map(Transaction::getAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal expense = txns.stream()
-                .filter(t -> t.getType() == TransactionType.EXPENSE)
-                .map(Transaction::getAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        return new MonthlySummary(income, expense, income.subtract(expense));
-    }
-
-    public Map<String, BigDecimal> getSpentByCategory(YearMonth ym) {
-        var txns = getTransactionsForMonth(ym);
-        Map<String, BigDecimal> byCat = txns.stream()
-                .filter(t -> t.getType() == TransactionType.EXPENSE)
-                .collect(Collectors.groupingBy(Transaction::getCategory,
-                        Collectors.mapping(Transaction::getAmount,
-                                Collectors.reducing(BigDecimal.ZERO, BigDecimal::add))));
-        return new TreeMap<>(byCat);
+        return snapshot.summary(ym);
+    }
+
+    public Map<String, Money> getSpentByCategory(YearMonth ym) {
+        return aggregate(ym.atDay(1), ym.atEndOfMonth(), EnumSet.of(Aggregate.BY_CATEGORY)).spentByCategory();
+    }
+
+    /** The year's twelve month summaries; see {@link #getYearSummaries}. */
+    public YearSummary getYearSummary(int year) {
+        return getYearSummaries(year, year, false).get(0);
+    }
+
+    /** Month summaries for each year in the range from cached totals; only {@code byCategory} reads months not in memory. */
+    public List<YearSummary> getYearSummaries(int fromYear, int toYear, boolean byCategory) {
+        if (fromYear > toYear) throw new IllegalArgumentException("Years run backwards: " + fromYear + " > " + toYear);
+        // Without categories the snapshot has everything; with them, the read lock keeps the snapshot current
+        return byCategory ? reading(() -> yearSummaries(snapshot, fromYear, toYear, true)) : yearSummaries(snapshot, fromYear, toYear, false);
+    }
+
+    private List<YearSummary> yearSummaries(LedgerSnapshot snap, int fromYear, int toYear, boolean byCategory) {
+        List<YearSummary> years = new ArrayList<>(toYear - fromYear + 1);
+        for (int year = fromYear; year <= toYear; year++) {
+            List<MonthlySummary> summaries = new ArrayList<>(12);
+            List<Map<String, Money>> spent = new ArrayList<>(byCategory ? 12 : 0);
+            for (int m = 1; m <= 12; m++) {
+                YearMonth ym = YearMonth.of(year, m);
+                summaries.add(snap.summary(ym));
+                if (byCategory) {
+                    spent.add(snap.totals(ym).rows() == 0 ? new TreeMap<>()
+                            : collect(ym.atDay(1), ym.atEndOfMonth(), EnumSet.of(Aggregate.BY_CATEGORY)).spentByCategory());
+                }
+            }
+            years.add(new YearSummary(year, List.copyOf(summaries), List.copyOf(spent)));
+        }
+        return years;
+    }
+
+    /** A month's rows, totals, count and spend by category, from one read of the month. */
+    public MonthView getMonthView(YearMonth ym) {
+        return readMonth(ym, bucket -> {
+            List<Transaction> rows = bucket == null ? new ArrayList<>() : new ArrayList<>(bucket.rows());
+            Aggregates aggregates = collect(ym.atDay(1), ym.atEndOfMonth(), EnumSet.of(Aggregate.TOTALS, Aggregate.COUNT, Aggregate.BY_CATEGORY));
+            return new MonthView(ym, rows, aggregates);
+        });
+    }
+
+    /** The {@code wanted} aggregates over {@code from} to {@code to} inclusive in one pass; months not in memory ask the store. */
+    public Aggregates aggregate(LocalDate from, LocalDate to, Set<Aggregate> wanted) {
+        checkRange(from, to);
+        Objects.requireNonNull(wanted, "wanted");
+        return reading(() -> collect(from, to, wanted));
+    }
+
+    /** {@link #aggregate} for a caller that holds the lock; it walks the live months, so never call it unlocked. */
+    private Aggregates collect(LocalDate from, LocalDate to, Set<Aggregate> wanted) {
+        AggregateScan scan = new AggregateScan(wanted, from, to, categories);
+        if (!scan.needsRows() && !scan.wants(Aggregate.BY_CATEGORY)) {
+            MonthTotals resident = dayTotals.sum((int) from.toEpochDay(), (int) to.toEpochDay());
+            scan.addTotals(resident.rows(), resident.incomeMinor(), resident.expenseMinor());
+        } else {
+            List<Map.Entry<YearMonth, MonthBucket>> resident = new ArrayList<>(months.subMap(YearMonth.from(from), true, YearMonth.from(to), true).entrySet());
+            if (VERIFY_AGGREGATES) for (Map.Entry<YearMonth, MonthBucket> e : resident) e.getValue().verify(e.getKey());
+            MonthSpliterator parts = new MonthSpliterator(resident);
+            if (parts.rows() < parallelMinRows || resident.size() < 2) {
+                parts.forEachRemaining(scan::addMonth);
+            } else {
+                // The calling thread holds the lock until the pool is done, so no month changes while the workers read it
+                scan = StreamSupport.stream(parts, true)
+                        .collect(() -> new AggregateScan(wanted, from, to, categories), AggregateScan::addMonth, AggregateScan::merge);
+            }
+        }
+        try {
+            for (DateRange run : coldRuns(from, to)) {
+                if (scan.needsRows()) {
+                    for (Transaction t : store.loadRange(run.from(), run.to())) scan.add(t);
+                    continue;
+                }
+                for (YearMonth ym = YearMonth.from(run.from()); !ym.isAfter(YearMonth.from(run.to())); ym = ym.plusMonths(1)) {
+                    MonthTotals stored = covers(run.from(), run.to(), ym) ? cold.get(ym)
+                            : store.totals(max(run.from(), ym.atDay(1)), min(run.to(), ym.atEndOfMonth()));
+                    scan.addTotals(stored.rows(), stored.incomeMinor(), stored.expenseMinor());
+                }
+                if (scan.wants(Aggregate.BY_CATEGORY)) {
+                    for (Map.Entry<String, Long> e : store.spentByCategory(run.from(), run.to()).entrySet()) {
+                        scan.addSpent(e.getKey(), e.getValue());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not total " + from + " to " + to + " from " + store.getLocation(), e);
+        }
+        return scan.result();
+    }
+
+    /** {@link #aggregate} over every month the ledger holds; empty results when it holds none. */
+    public Aggregates aggregateAll(Set<Aggregate> wanted) {
+        Objects.requireNonNull(wanted, "wanted");
+        return reading(() -> {
+            YearMonth first = null, last = null;
+            if (!months.isEmpty()) {
+                first = months.firstKey();
+                last = months.lastKey();
+            }
+            if (!cold.isEmpty()) {
+                first = first == null || cold.firstKey().isBefore(first) ? cold.firstKey() : first;
+                last = last == null || cold.lastKey().isAfter(last) ? cold.lastKey() : last;
+            }
+            if (first == null) first = last = YearMonth.now();
+            return collect(first.atDay(1), last.atEndOfMonth(), wanted);
+        });
+    }
+
+    private static boolean covers(LocalDate from, LocalDate to, YearMonth ym) {
+        return !from.isAfter(ym.atDay(1)) && !to.isBefore(ym.atEndOfMonth());
+    }
+
+    private static LocalDate max(LocalDate a, LocalDate b) { return a.isAfter(b) ? a : b; }
+
+    private static LocalDate min(LocalDate a, LocalDate b) { return a.isBefore(b) ? a : b; }
+
+    /** Transactions of {@code from} to {@code to} inclusive in ledger order; months not in memory are read from the store and not kept. */
+    public List<Transaction> getTransactionsBetween(LocalDate from, LocalDate to) {
+        checkRange(from, to);
+        return reading(() -> transactionsBetween(from, to));
+    }
+
+    private List<Transaction> transactionsBetween(LocalDate from, LocalDate to) {
+        int fromDay = (int) from.toEpochDay(), toDay = (int) to.toEpochDay();
+        List<Transaction> rows = new ArrayList<>();
+        for (MonthBucket bucket : residentBetween(from, to)) {
+            TransactionTable table = bucket.table();
+            for (int i = 0; i < table.size(); i++) {
+                int day = table.epochDay(i);
+                if (day >= fromDay && day <= toDay) rows.add(table.view(i));
+            }
+        }
+        try {
+            for (DateRange run : coldRuns(from, to)) rows.addAll(store.loadRange(run.from(), run.to()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + from + " to " + to + " from " + store.getLocation(), e);
+        }
+        rows.sort(Transaction.LEDGER_ORDER);
+        return rows;
+    }
+
+    /** Income and expense totals of {@code from} to {@code to} inclusive. */
+    public MonthlySummary getSummary(LocalDate from, LocalDate to) {
+        return aggregate(from, to, EnumSet.of(Aggregate.TOTALS)).summary();
+    }
+
+    /** Expenses of {@code from} to {@code to} inclusive by category; months not in memory are grouped by the store. */
+    public Map<String, Money> getSpentByCategory(LocalDate from, LocalDate to) {
+        return aggregate(from, to, EnumSet.of(Aggregate.BY_CATEGORY)).spentByCategory();
+    }
+
+    private record DateRange(LocalDate from, LocalDate to) {}
+
+    private static void checkRange(LocalDate from, LocalDate to) {
+        Objects.requireNonNull(from, "from");
+        Objects.requireNonNull(to, "to");
+        if (from.isAfter(to)) throw new IllegalArgumentException("Range starts after it ends: " + from + " > " + to);
+    }
+
+    private Collection<MonthBucket> residentBetween(LocalDate from, LocalDate to) {
+        return months.subMap(YearMonth.from(from), true, YearMonth.from(to), true).values();
+    }
+
+    /** Runs of consecutive months in the range held only by the store; a month in memory or emptied since the last save ends a run. */
+    private List<DateRange> coldRuns(LocalDate from, LocalDate to) {
+        List<DateRange> runs = new ArrayList<>();
+        YearMonth first = null, last = null;
+        for (YearMonth ym : cold.subMap(YearMonth.from(from), true, YearMonth.from(to), true).keySet()) {
+            if (last != null && !ym.equals(last.plusMonths(1))) {
+                runs.add(clip(first, last, from, to));
+                first = null;
+            }
+            if (first == null) first = ym;
+            last = ym;
+        }
+        if (first != null) runs.add(clip(first, last, from, to));
+        return runs;
+    }
+
+    private static DateRange clip(YearMonth first, YearMonth last, LocalDate from, LocalDate to) {
+        LocalDate start = first.atDay(1), end = last.atEndOfMonth();
+        return new DateRange(start.isBefore(from) ? from : start, end.isAfter(to) ? to : end);
+    }
+
+    /**
+     * Debug aid: re-checks the id index, cached month totals and the published snapshot against the ledger.
+     * @throws IllegalStateException on a mismatch
+     */
+    public void verifyAggregates() {
+        reading(() -> {
+            checkAggregates();
+            return null;
+        });
+    }
+
+    private void checkAggregates() {
+        int rows = 0;
+        for (Map.Entry<YearMonth, MonthBucket> e : months.entrySet()) {
+            TransactionTable table = e.getValue().table();
+            if (table.size() == 0) throw new IllegalStateException("Empty bucket kept for " + e.getKey());
+            int first = (int) e.getKey().atDay(1).toEpochDay();
+            int last = (int) e.getKey().atEndOfMonth().toEpochDay();
+            for (int i = 0; i < table.size(); i++) {
+                int day = table.epochDay(i);
+                boolean ordered = i == 0 || table.epochDay(i - 1) < day
+                        || (table.epochDay(i - 1) == day && table.id(i - 1) < table.id(i));
+                if (dayById.get(table.id(i)) != day || day < first || day > last || !ordered) {
+                    throw new IllegalStateException("Month index for " + e.getKey() + " is out of step at row " + i);
+                }
+            }
+            rows += table.size();
+            e.getValue().verify(e.getKey());
+            if (!dayTotals.sum(first, last).equals(e.getValue().totals())) {
+                throw new IllegalStateException("Day index for " + e.getKey() + " is out of step with its totals");
+            }
+        }
+        if (rows != dayById.size()) throw new IllegalStateException("Month index holds " + rows + " rows, id index " + dayById.size());
+        if (dayTotals.sum(Integer.MIN_VALUE, Integer.MAX_VALUE).rows() != rows) {
+            throw new IllegalStateException("Day index holds rows outside the resident months");
+        }
+        LedgerSnapshot snap = snapshot;
+        if (snap.allTotals().size() != months.size() + cold.size() || snap.tables().size() != months.size()) {
+            throw new IllegalStateException("Snapshot holds " + snap.allTotals().size() + " months, the ledger " + (months.size() + cold.size()));
+        }
+        for (Map.Entry<YearMonth, MonthBucket> e : months.entrySet()) {
+            if (snap.table(e.getKey()) != e.getValue().table() || !snap.totals(e.getKey()).equals(e.getValue().totals())) {
+                throw new IllegalStateException("Snapshot of " + e.getKey() + " is out of step");
+            }
+        }
+        for (Map.Entry<YearMonth, MonthTotals> e : cold.entrySet()) {
+            if (!snap.totals(e.getKey()).equals(e.getValue())) throw new IllegalStateException("Snapshot of " + e.getKey() + " is out of step");
+        }
     }
 
     public Set<YearMonth> getAvailableMonths() {
-        return data.getTransactions().stream()
-                .map(t -> YearMonth.from(t.getDate()))
-                .sorted()
-                .collect(Collectors.toCollection(LinkedHashSet::new));
+        return snapshot.months();
     }
 
-    public boolean deleteTransactionAt(YearMonth ym, int oneBasedIndex) {
-        int idx = mapMonthIndexToGlobalIndex(ym, oneBasedIndex);
-        if (idx < 0) return false;
-        data.getTransactions().remove(idx);
+    public boolean deleteTransaction(long id) {
+        return writing(() -> delete(id));
+    }
+
+    private boolean delete(long id) {
+        Transaction removed = find(id);
+        if (removed == null) return false;
+        dayById.remove(id);
+        detach((int) removed.getDate().toEpochDay(), id);
+        store.recordDelete(removed);
+        changed(removed);
+        trim();
         return true;
     }
 
-    public boolean editTransactionAt(YearMonth ym, int oneBasedIndex, TransactionType newType, LocalDate newDate,
-                                     BigDecimal newAmount, String newCategory, String newDescription) {
-        int idx = mapMonthIndexToGlobalIndex(ym, oneBasedIndex);
-        if (idx < 0) return false;
-        Transaction t = data.getTransactions().get(idx);
-        if (newType != null) t.setType(newType);
-        if (newDate != null) t.setDate(newDate);
-        if (newAmount != null) t.setAmount(newAmount);
-        if (t.getType() == TransactionType.INCOME) {
-            t.setCategory("INCOME");
+    /**
+     * Edits a transaction; null arguments keep the current value.
+     * @return false if no transaction has this id
+     */
+    public boolean editTransaction(long id, TransactionType newType, LocalDate newDate,
+                                   BigDecimal newAmount, String newCategory, String newDescription) {
+        return writing(() -> edit(id, newType, newDate, newAmount, newCategory, newDescription));
+    }
+
+    private boolean edit(long id, TransactionType newType, LocalDate newDate,
+                         BigDecimal newAmount, String newCategory, String newDescription) {
+        Transaction t = find(id);
+        if (t == null) return false;
+        TransactionType type = newType != null ? newType : t.getType();
+        String category;
+        if (type == TransactionType.INCOME) {
+            category = "INCOME";
         } else {
             // For EXPENSEs: allow updating category when provided; otherwise keep existing
-            if (newCategory != null) {
-                if (newCategory.isBlank()) throw new IllegalArgumentException("Category required for expenses");
-                t.setCategory(newCategory);
-            }
+            if (newCategory != null && newCategory.isBlank()) throw new IllegalArgumentException("Category required for expenses");
+            category = newCategory != null ? newCategory : t.getCategory();
             // Validate we have a category for expenses
-            if (t.getCategory() == null || t.getCategory().isBlank()) {
+            if (category == null || category.isBlank()) {
                 throw new IllegalArgumentException("Category required for expenses");
             }
         }
-        if (newDescription != null) t.setDescription(newDescription);
-        data.getTransactions().sort(Comparator.comparing(Transaction::getDate));
+        if (newAmount != null) {
+            if (newAmount.compareTo(BigDecimal.ZERO) <= 0) throw new IllegalArgumentException("Amount must be > 0");
+            checkScale(newAmount);
+        }
+        // Rows are immutable column entries: swap the old row for the edited one once validation has passed
+        Transaction edited = new Transaction(id, type,
+                newDate != null ? newDate : t.getDate(),
+                newAmount != null ? newAmount : t.getAmount(),
+                category,
+                newDescription != null ? newDescription : t.getDescription());
+        detach((int) t.getDate().toEpochDay(), id);
+        dayById.put(id, (int) edited.getDate().toEpochDay());
+        writableBucket(YearMonth.from(edited.getDate())).insert(edited);
+        store.recordEdit(t, edited);
+        changed(t);
+        changed(edited);
+        trim();
         return true;
     }
 
-    private int mapMonthIndexToGlobalIndex(YearMonth ym, int oneBasedIndex) {
-        if (oneBasedIndex <= 0) return -1;
-        List<Integer> globalIdxs = new ArrayList<>();
-        for (int i = 0; i < data.getTransactions().size(); i++) {
-            Transaction t = data.getTransactions().get(i);
-            if (YearMonth.from(t.getDate()).equals(ym)) {
-                globalIdxs.add(i);
-            }
+    /** Legacy month-relative addressing; prefer {@link #deleteTransaction(long)}. */
+    public boolean deleteTransactionAt(YearMonth ym, int oneBasedIndex) {
+        return writing(() -> {
+            Transaction t = getAt(ym, oneBasedIndex);
+            return t != null && delete(t.getId());
+        });
+    }
+
+    /** Legacy month-relative addressing; prefer {@link #editTransaction}. */
+    public boolean editTransactionAt(YearMonth ym, int oneBasedIndex, TransactionType newType, LocalDate newDate,
+                                     BigDecimal newAmount, String newCategory, String newDescription) {
+        return writing(() -> {
+            Transaction t = getAt(ym, oneBasedIndex);
+            return t != null && edit(t.getId(), newType, newDate, newAmount, newCategory, newDescription);
+        });
+    }
+
+    private Transaction getAt(YearMonth ym, int oneBasedIndex) {
+        MonthBucket bucket = bucket(ym);
+        if (bucket == null || oneBasedIndex <= 0 || oneBasedIndex > bucket.size()) return null;
+        return bucket.get(oneBasedIndex - 1);
+    }
+
+    private void detach(int epochDay, long id) {
+        YearMonth ym = YearMonth.from(LocalDate.ofEpochDay(epochDay));
+        MonthBucket bucket = months.get(ym);
+        unpublished.add(ym);
+        bucket.remove(bucket.find(epochDay, id));
+        if (bucket.isEmpty()) {
+            months.remove(ym);
+            recency.remove(ym);
         }
-        if (oneBasedIndex > globalIdxs.size()) return -1;
-        return globalIdxs.get(oneBasedIndex - 1);
     }
 
+    /** Writes the month as it is in a snapshot, so edits made meanwhile neither wait for the export nor show in it. */
     public Path exportCsv(Path file, YearMonth ym) throws IOException {
+        List<Transaction> rows = snapshotWith(ym).transactions(ym);
         Path parent = file.getParent();
         if (parent != null) Files.createDirectories(parent);
         try (BufferedWriter bw = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
             bw.write("type,date,amount,category,description\n");
-            for (Transaction t : getTransactionsForMonth(ym)) {
+            for (Transaction t : rows) {
                 bw.write(csv(t.getType().name())); bw.write(',');
                 bw.write(csv(t.getDate().toString())); bw.write(',');
                 bw.write(csv(t.getAmount().toPlainString())); bw.write(',');
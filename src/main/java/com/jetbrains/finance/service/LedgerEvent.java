@@ -0,0 +1,28 @@
+package com.jetbrains.finance.service;
+
+import java.time.YearMonth;
+import java.util.Set;
+
+/**
+ * What a change to the {@link FinanceService} touched, so that a listener can redo only the views that depend on it;
+ * see {@link FinanceService#addChangeListener}. Sets are sorted and unmodifiable.
+ */
+public sealed interface LedgerEvent {
+    /** Version of the {@link LedgerSnapshot} that first holds the change. */
+    long version();
+
+    /**
+     * Transactions were added, edited or deleted. {@code months} holds every month a row left or entered, and
+     * {@code categories} the categories of those rows, before and after an edit.
+     */
+    record TransactionsChanged(long version, Set<YearMonth> months, Set<String> categories) implements LedgerEvent {
+        public boolean touches(YearMonth ym) { return months.contains(ym); }
+
+        public boolean touchesYear(int year) {
+            return months.stream().anyMatch(ym -> ym.getYear() == year);
+        }
+    }
+
+    /** Budgets were set or removed for {@code categories}. */
+    record BudgetsChanged(long version, Set<String> categories) implements LedgerEvent {}
+}
@@ -0,0 +1,101 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.Money;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionTable;
+import com.jetbrains.finance.store.MonthTotals;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One version of the ledger as {@link FinanceService#snapshot()} publishes it: budgets, the next id, every month's
+ * totals and the rows of the months that were in memory. It never changes, so it can be read from any thread
+ * without locking. Versions share structure: each change to the service copies only the months it touched and
+ * the O(log months) map nodes above them.
+ */
+public final class LedgerSnapshot {
+    static final LedgerSnapshot EMPTY = new LedgerSnapshot(0, PersistentSortedMap.empty(), PersistentSortedMap.empty(),
+            PersistentSortedMap.empty(), Map.of(), 1);
+
+    private final long version;
+    private final PersistentSortedMap<YearMonth, TransactionTable> tables;
+    private final PersistentSortedMap<YearMonth, MonthTotals> totals;
+    // Month -> version whose change last added, edited or removed its rows; reading a month in or out is not a change
+    private final PersistentSortedMap<YearMonth, Long> changedIn;
+    private final Map<String, BigDecimal> budgets;
+    private final long nextId;
+
+    LedgerSnapshot(long version, PersistentSortedMap<YearMonth, TransactionTable> tables, PersistentSortedMap<YearMonth, MonthTotals> totals,
+                   PersistentSortedMap<YearMonth, Long> changedIn, Map<String, BigDecimal> budgets, long nextId) {
+        this.version = version;
+        this.tables = tables;
+        this.totals = totals;
+        this.changedIn = changedIn;
+        this.budgets = budgets;
+        this.nextId = nextId;
+    }
+
+    /** Counts the changes published before this snapshot; a later snapshot has a higher version. */
+    public long version() { return version; }
+
+    /** Unmodifiable. */
+    public Map<String, BigDecimal> budgets() { return budgets; }
+
+    public long nextId() { return nextId; }
+
+    /** Every month with transactions, in order. */
+    public Set<YearMonth> months() {
+        Set<YearMonth> out = new LinkedHashSet<>();
+        totals.forEach((ym, t) -> out.add(ym));
+        return out;
+    }
+
+    /** The month's row count and totals, zero for a month without transactions. */
+    public MonthTotals totals(YearMonth ym) {
+        MonthTotals t = totals.get(ym);
+        return t != null ? t : new MonthTotals(0, 0, 0);
+    }
+
+    public MonthlySummary summary(YearMonth ym) {
+        MonthTotals t = totals(ym);
+        return new MonthlySummary(Money.ofMinor(t.incomeMinor()), Money.ofMinor(t.expenseMinor()),
+                Money.ofMinor(Math.subtractExact(t.incomeMinor(), t.expenseMinor())));
+    }
+
+    /** True if this snapshot holds the month's rows: it was in memory, or has no transactions. */
+    public boolean hasRows(YearMonth ym) {
+        return tables.containsKey(ym) || !totals.containsKey(ym);
+    }
+
+    /**
+     * The month's transactions in ledger order, as read-only views over the snapshot's columns; nothing is copied.
+     * @throws IllegalStateException if the month was only held by the store; see {@link #hasRows}
+     */
+    public List<Transaction> transactions(YearMonth ym) {
+        TransactionTable table = tables.get(ym);
+        if (table != null) return table.asList();
+        if (totals.containsKey(ym)) throw new IllegalStateException(ym + " was not in memory when the snapshot was taken");
+        return List.of();
+    }
+
+    TransactionTable table(YearMonth ym) {
+        return tables.get(ym);
+    }
+
+    PersistentSortedMap<YearMonth, TransactionTable> tables() { return tables; }
+
+    PersistentSortedMap<YearMonth, MonthTotals> allTotals() { return totals; }
+
+    PersistentSortedMap<YearMonth, Long> changedIn() { return changedIn; }
+
+    /** Version of the snapshot that first held the month's current rows; 0 if they have not changed since the service opened. */
+    long changedIn(YearMonth ym) {
+        Long v = changedIn.get(ym);
+        return v != null ? v : 0;
+    }
+}
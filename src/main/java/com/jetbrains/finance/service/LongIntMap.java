@@ -0,0 +1,87 @@
+package com.jetbrains.finance.service;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing long -> int hash map without boxing, used to find a transaction's epoch day by id.
+ * Keys must be non-zero (0 marks an empty slot); deletes use backward-shift so no tombstones build up.
+ */
+final class LongIntMap {
+    static final int MISSING = Integer.MIN_VALUE;
+
+    private long[] keys = new long[16];
+    private int[] values = new int[16];
+    private int size;
+
+    int size() { return size; }
+
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) return values[i];
+            if (k == 0) return MISSING;
+        }
+    }
+
+    void put(long key, int value) {
+        if (key == 0) throw new IllegalArgumentException("key must be non-zero");
+        if ((size + 1) * 4 > keys.length * 3) grow();
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) { values[i] = value; return; }
+            if (k == 0) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return;
+            }
+        }
+    }
+
+    int remove(long key) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == 0) return MISSING;
+            i = (i + 1) & mask;
+        }
+        int old = values[i];
+        // Backward-shift: pull later entries of the same probe run into the hole
+        int hole = i;
+        for (int j = (hole + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            boolean movable = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+            if (movable) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = 0;
+        size--;
+        return old;
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
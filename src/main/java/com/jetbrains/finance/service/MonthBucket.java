@@ -0,0 +1,129 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.CategoryDictionary;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionTable;
+import com.jetbrains.finance.store.MonthTotals;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One month's transactions as a columnar {@link TransactionTable} in ledger order, together with
+ * running totals in minor units that are adjusted by delta as rows come and go. Every row change is
+ * also passed on to the service's {@link DayIndex}.
+ */
+final class MonthBucket {
+    private TransactionTable table;
+    private final DayIndex days;
+
+    private long income;
+    private long expense;
+    // Indexed by category id
+    private long[] spentByCategory = new long[8];
+    private int[] expenseCountByCategory = new int[8];
+
+    MonthBucket(CategoryDictionary categories, DayIndex days) {
+        this.table = TransactionTable.empty(categories);
+        this.days = days;
+    }
+
+    TransactionTable table() { return table; }
+
+    int size() { return table.size(); }
+
+    boolean isEmpty() { return table.size() == 0; }
+
+    Transaction get(int index) { return table.view(index); }
+
+    List<Transaction> rows() {
+        List<Transaction> out = new ArrayList<>(table.size());
+        for (int i = 0; i < table.size(); i++) out.add(table.view(i));
+        return out;
+    }
+
+    /** Inserts at the row's place in ledger order. */
+    void insert(Transaction t) {
+        table = table.withInserted(t);
+        int row = table.find((int) t.getDate().toEpochDay(), t.getId());
+        account(table, row, 1);
+    }
+
+    /** Merges rows that are already in ledger order into the bucket in one pass. */
+    void mergeAll(List<Transaction> sorted) {
+        TransactionTable added = TransactionTable.of(table.categories(), sorted);
+        for (int i = 0; i < added.size(); i++) account(added, i, 1);
+        table = table.mergedWith(added);
+    }
+
+    /** Row index of the transaction with this key, or a negative value if absent. */
+    int find(int epochDay, long id) {
+        return table.find(epochDay, id);
+    }
+
+    void remove(int index) {
+        account(table, index, -1);
+        table = table.without(index);
+    }
+
+    /** Takes every row out of the day index, when the month is dropped from memory. */
+    void unindex() {
+        for (int i = 0; i < table.size(); i++) days.add(table.epochDay(i), table.isIncome(i), -table.amountMinor(i), -1);
+    }
+
+    MonthTotals totals() {
+        return new MonthTotals(table.size(), income, expense);
+    }
+
+    /** Adds the month's running totals to a scan whose range covers the whole month. */
+    void addTo(AggregateScan scan) {
+        scan.addTotals(table.size(), income, expense);
+        if (!scan.wants(Aggregate.BY_CATEGORY)) return;
+        for (int c = 0; c < expenseCountByCategory.length; c++) {
+            if (expenseCountByCategory[c] > 0) scan.addSpent(c, spentByCategory[c], expenseCountByCategory[c]);
+        }
+    }
+
+    private void account(TransactionTable t, int row, int sign) {
+        long amount = sign * t.amountMinor(row);
+        days.add(t.epochDay(row), t.isIncome(row), amount, sign);
+        if (t.isIncome(row)) {
+            income = Math.addExact(income, amount);
+        } else {
+            expense = Math.addExact(expense, amount);
+            int cat = t.categoryId(row);
+            if (cat >= spentByCategory.length) {
+                int n = Math.max(cat + 1, spentByCategory.length * 2);
+                spentByCategory = Arrays.copyOf(spentByCategory, n);
+                expenseCountByCategory = Arrays.copyOf(expenseCountByCategory, n);
+            }
+            spentByCategory[cat] = Math.addExact(spentByCategory[cat], amount);
+            expenseCountByCategory[cat] += sign;
+        }
+    }
+
+    /** Recomputes the totals with a primitive pass over the columns and fails if the running totals have drifted. */
+    void verify(YearMonth month) {
+        long in = 0, out = 0;
+        long[] byCat = new long[spentByCategory.length];
+        int[] counts = new int[spentByCategory.length];
+        for (int i = 0; i < table.size(); i++) {
+            long a = table.amountMinor(i);
+            if (table.isIncome(i)) {
+                in += a;
+            } else {
+                out += a;
+                int c = table.categoryId(i);
+                if (c >= byCat.length) throw new IllegalStateException("Category " + c + " missing from totals for " + month);
+                byCat[c] += a;
+                counts[c]++;
+            }
+        }
+        if (in != income || out != expense || !Arrays.equals(byCat, spentByCategory) || !Arrays.equals(counts, expenseCountByCategory)) {
+            throw new IllegalStateException("Cached totals for " + month + " drifted: cached income=" + income + " expense=" + expense
+                    + ", recomputed income=" + in + " expense=" + out + " (minor units)");
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.jetbrains.finance.service;
+
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splits a run of resident months for a parallel aggregation. Splits only ever fall between months, at the
+ * boundary nearest half of the remaining rows, so each part holds whole months of about equal work.
+ * {@link #estimateSize()} reports rows rather than months, which is what the fork-join framework should
+ * weigh when deciding to split further.
+ */
+final class MonthSpliterator implements Spliterator<Map.Entry<YearMonth, MonthBucket>> {
+    private final List<Map.Entry<YearMonth, MonthBucket>> months;
+    // rowsBefore[i] is the number of rows in months[0, i)
+    private final long[] rowsBefore;
+    private int lo;
+    private final int hi;
+
+    MonthSpliterator(List<Map.Entry<YearMonth, MonthBucket>> months) {
+        this.months = months;
+        this.rowsBefore = new long[months.size() + 1];
+        for (int i = 0; i < months.size(); i++) rowsBefore[i + 1] = rowsBefore[i] + months.get(i).getValue().size();
+        this.lo = 0;
+        this.hi = months.size();
+    }
+
+    private MonthSpliterator(List<Map.Entry<YearMonth, MonthBucket>> months, long[] rowsBefore, int lo, int hi) {
+        this.months = months;
+        this.rowsBefore = rowsBefore;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    long rows() {
+        return rowsBefore[hi] - rowsBefore[lo];
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map.Entry<YearMonth, MonthBucket>> action) {
+        if (lo >= hi) return false;
+        action.accept(months.get(lo++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Map.Entry<YearMonth, MonthBucket>> action) {
+        for (; lo < hi; lo++) action.accept(months.get(lo));
+    }
+
+    @Override
+    public Spliterator<Map.Entry<YearMonth, MonthBucket>> trySplit() {
+        if (hi - lo < 2) return null;
+        long half = rowsBefore[lo] + rows() / 2;
+        // First boundary at or past half of the rows, keeping at least one month on each side
+        int a = lo + 1, b = hi - 1;
+        while (a < b) {
+            int mid = (a + b) >>> 1;
+            if (rowsBefore[mid] < half) a = mid + 1;
+            else b = mid;
+        }
+        MonthSpliterator prefix = new MonthSpliterator(months, rowsBefore, lo, a);
+        lo = a;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return rows();
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+}
@@ -0,0 +1,13 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.Transaction;
+
+import java.time.YearMonth;
+import java.util.List;
+
+/** One month as {@link FinanceService#getMonthView} reads it: transactions in ledger order plus totals, count and spend by category. */
+public record MonthView(YearMonth month, List<Transaction> transactions, Aggregates aggregates) {
+    public MonthlySummary summary() { return aggregates.summary(); }
+
+    public int count() { return aggregates.count(); }
+}
@@ -1,6 +1,6 @@
 package com.jetbrains.finance.service;
 
-import java.math.BigDecimal;
+import com.jetbrains.finance.model.Money;
 
-public record MonthlySummary(BigDecimal totalIncome, BigDecimal totalExpense, BigDecimal net) {}
+public record MonthlySummary(Money totalIncome, Money totalExpense, Money net) {}
 
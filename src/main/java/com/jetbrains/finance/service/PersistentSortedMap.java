@@ -0,0 +1,114 @@
+package com.jetbrains.finance.service;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable sorted map whose versions share structure: {@link #with} and {@link #without} copy only the
+ * O(log n) nodes on the path to the key and leave every earlier version intact. A treap whose priorities are
+ * hashes of the keys, so its shape does not depend on the order keys were added in.
+ */
+final class PersistentSortedMap<K extends Comparable<? super K>, V> {
+    private record Node<K, V>(K key, V value, int priority, Node<K, V> left, Node<K, V> right) {}
+
+    private static final PersistentSortedMap<?, ?> EMPTY = new PersistentSortedMap<>(null, 0);
+
+    private final Node<K, V> root;
+    private final int size;
+
+    private PersistentSortedMap(Node<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> empty() {
+        return (PersistentSortedMap<K, V>) EMPTY;
+    }
+
+    int size() { return size; }
+
+    boolean isEmpty() { return size == 0; }
+
+    V get(K key) {
+        Node<K, V> n = root;
+        while (n != null) {
+            int c = key.compareTo(n.key);
+            if (c == 0) return n.value;
+            n = c < 0 ? n.left : n.right;
+        }
+        return null;
+    }
+
+    boolean containsKey(K key) {
+        Node<K, V> n = root;
+        while (n != null) {
+            int c = key.compareTo(n.key);
+            if (c == 0) return true;
+            n = c < 0 ? n.left : n.right;
+        }
+        return false;
+    }
+
+    PersistentSortedMap<K, V> with(K key, V value) {
+        return new PersistentSortedMap<>(insert(root, key, value), containsKey(key) ? size : size + 1);
+    }
+
+    PersistentSortedMap<K, V> without(K key) {
+        return containsKey(key) ? new PersistentSortedMap<>(delete(root, key), size - 1) : this;
+    }
+
+    /** Calls {@code action} for each key from {@code from} to {@code to} inclusive, in key order. */
+    void forEach(K from, K to, BiConsumer<? super K, ? super V> action) {
+        forEach(root, from, to, action);
+    }
+
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(root, null, null, action);
+    }
+
+    private static <K extends Comparable<? super K>, V> void forEach(Node<K, V> n, K from, K to, BiConsumer<? super K, ? super V> action) {
+        while (n != null) {
+            boolean aboveFrom = from == null || n.key.compareTo(from) >= 0;
+            boolean belowTo = to == null || n.key.compareTo(to) <= 0;
+            if (aboveFrom) forEach(n.left, from, to, action);
+            if (aboveFrom && belowTo) action.accept(n.key, n.value);
+            if (!belowTo) return;
+            n = n.right;
+        }
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> insert(Node<K, V> n, K key, V value) {
+        if (n == null) return new Node<>(key, value, priority(key), null, null);
+        int c = key.compareTo(n.key);
+        if (c == 0) return new Node<>(key, value, n.priority, n.left, n.right);
+        if (c < 0) {
+            Node<K, V> l = insert(n.left, key, value);
+            if (l.priority <= n.priority) return new Node<>(n.key, n.value, n.priority, l, n.right);
+            // Rotate right to keep the higher priority on top
+            return new Node<>(l.key, l.value, l.priority, l.left, new Node<>(n.key, n.value, n.priority, l.right, n.right));
+        }
+        Node<K, V> r = insert(n.right, key, value);
+        if (r.priority <= n.priority) return new Node<>(n.key, n.value, n.priority, n.left, r);
+        return new Node<>(r.key, r.value, r.priority, new Node<>(n.key, n.value, n.priority, n.left, r.left), r.right);
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> delete(Node<K, V> n, K key) {
+        int c = key.compareTo(n.key);
+        if (c == 0) return join(n.left, n.right);
+        return c < 0 ? new Node<>(n.key, n.value, n.priority, delete(n.left, key), n.right)
+                : new Node<>(n.key, n.value, n.priority, n.left, delete(n.right, key));
+    }
+
+    /** Joins two treaps where every key of {@code a} is below every key of {@code b}. */
+    private static <K, V> Node<K, V> join(Node<K, V> a, Node<K, V> b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) return new Node<>(a.key, a.value, a.priority, a.left, join(a.right, b));
+        return new Node<>(b.key, b.value, b.priority, join(a, b.left), b.right);
+    }
+
+    private static int priority(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,18 @@
+package com.jetbrains.finance.service;
+
+/**
+ * How well the months kept in memory serve reads; see {@link FinanceService#setResidentMonthLimit}.
+ * @param residentMonths months currently in memory
+ * @param storedMonths   months with rows, in memory or not
+ * @param limit          the resident month limit, 0 for none
+ * @param hits           month reads served from memory
+ * @param loads          month reads that had to go to the store
+ * @param evictions      months dropped from memory to stay within the limit
+ */
+public record ResidencyStats(int residentMonths, int storedMonths, int limit, long hits, long loads, long evictions) {
+    /** Share of month reads served from memory, 0..1; 1 before any read. */
+    public double hitRate() {
+        long reads = hits + loads;
+        return reads == 0 ? 1.0 : (double) hits / reads;
+    }
+}
@@ -0,0 +1,129 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.store.PendingSave;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Writes saves on a background thread. A request captures the changes on the caller's thread; requests
+ * that arrive while an earlier one is still waiting are folded into it, so a burst of edits costs a single
+ * write. Requests may come from any thread: each is captured and queued in one step, so saves are written
+ * in the order they were captured.
+ */
+public final class SaveScheduler implements AutoCloseable {
+    /** Outcome of one background write; {@code error} is null on success. */
+    public record SaveReport(int requests, long millis, IOException error) {}
+
+    private static final long DELAY_MS = 200;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final FinanceService service;
+    private final Consumer<SaveReport> listener;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "finance-save");
+        t.setDaemon(true);
+        return t;
+    });
+    // Guarded by this: saves not yet started, oldest first
+    private final Deque<Batch> queue = new ArrayDeque<>();
+    private boolean busy;
+    private boolean closed;
+    // Held while saves are written, so that an inline write after close() never overlaps a drain that outlived it
+    private final Object writing = new Object();
+
+    /** @param listener told about each completed write, on the writer thread */
+    public SaveScheduler(FinanceService service, Consumer<SaveReport> listener) {
+        this.service = service;
+        this.listener = listener;
+    }
+
+    /**
+     * Captures the current changes and queues them for writing. After {@link #close()} the write is done inline,
+     * after anything still queued.
+     */
+    public void requestSave() throws IOException {
+        PendingSave next;
+        synchronized (this) {
+            next = service.prepareSave();
+            if (!closed) {
+                Batch last = queue.peekLast();
+                PendingSave merged = last == null ? null : last.save.coalesce(next);
+                if (merged != null) {
+                    last.save = merged;
+                    last.requests++;
+                } else {
+                    queue.addLast(new Batch(next));
+                }
+                if (!busy) {
+                    busy = true;
+                    writer.schedule(this::drain, DELAY_MS, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        synchronized (writing) {
+            while (writeNext()) {
+                // Saves captured before this one go first
+            }
+            next.write();
+        }
+    }
+
+    /** Writes whatever is still queued and stops the writer thread. */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            synchronized (writing) {
+                if (!writeNext()) return;
+            }
+        }
+    }
+
+    /** Writes the oldest queued save and reports it; false if none was queued. Call holding {@link #writing}. */
+    private boolean writeNext() {
+        Batch batch;
+        synchronized (this) {
+            batch = queue.pollFirst();
+            if (batch == null) {
+                busy = false;
+                return false;
+            }
+        }
+        long start = System.nanoTime();
+        IOException error = null;
+        try {
+            batch.save.write();
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException(e.getMessage(), e);
+        }
+        listener.accept(new SaveReport(batch.requests, (System.nanoTime() - start) / 1_000_000, error));
+        return true;
+    }
+
+    private static final class Batch {
+        PendingSave save;
+        int requests = 1;
+
+        Batch(PendingSave save) { this.save = save; }
+    }
+}
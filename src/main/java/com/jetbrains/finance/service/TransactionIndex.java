@@ -0,0 +1,413 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.Money;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionTable;
+import com.jetbrains.finance.model.TransactionType;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Rows of one or more months, in an order chosen by {@link #query}, read straight from the months' column tables:
+ * a table model asks for a row's fields as it paints them, so opening a view copies no rows however many there
+ * are. Immutable; the tables come from one {@link LedgerSnapshot}, so nothing changes underneath a reader, and a
+ * paged index only takes a month it reads again if its rows are still those of that snapshot (see below).
+ * An index in ledger order holds nothing per row; a filtered or sorted one holds an int per row it keeps.
+ * <p>
+ * A {@link #paged} index holds only some of its months' tables, so an index over a long history does not keep
+ * every month in memory. Rows of the other months read as null until {@link #load} reads their months again;
+ * row reads never touch the store, so painting a table does not wait for it. A month that changed since the
+ * index was made stays null until the view asks for a new index, which the service's change events prompt it to do.
+ */
+public final class TransactionIndex {
+    /** A column to sort by. */
+    public enum Column { DATE, TYPE, AMOUNT, CATEGORY, DESCRIPTION }
+
+    /** One sort key; earlier keys take precedence, and rows equal on every key stay in ledger order. */
+    public record Sort(Column column, boolean descending) {}
+
+    private static final Comparator<String> TEXT_ORDER = Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER);
+    private static final TransactionIndex EMPTY = new TransactionIndex(0, new Pages(new TransactionTable[0]), new int[]{0}, null);
+    // Below this many rows a run is insertion sorted rather than merged
+    private static final int INSERTION_SORT_ROWS = 24;
+
+    private final long version;
+    private final Pages pages; // shared with the indexes that queries of this one make
+    private final int[] starts; // row i of page t is at position starts[t] + i; starts[pages] is the total
+    private final int[] order; // positions in view order, or null for every row in ledger order
+
+    private TransactionIndex(long version, Pages pages, int[] starts, int[] order) {
+        this.version = version;
+        this.pages = pages;
+        this.starts = starts;
+        this.order = order;
+    }
+
+    public static TransactionIndex empty() {
+        return EMPTY;
+    }
+
+    /** Every row of {@code tables}, which are in ledger order and come from the snapshot with {@code version}. */
+    static TransactionIndex of(long version, List<TransactionTable> tables) {
+        TransactionTable[] kept = tables.stream().filter(t -> t.size() > 0).toArray(TransactionTable[]::new);
+        int[] starts = new int[kept.length + 1];
+        for (int t = 0; t < kept.length; t++) starts[t + 1] = Math.addExact(starts[t], kept[t].size());
+        return new TransactionIndex(version, new Pages(kept), starts, null);
+    }
+
+    /**
+     * Every row of {@code months}, given in order, which had the given row counts in the snapshot with {@code version}.
+     * A month's table is asked of {@code loader} by {@link #query} and {@link #load}, and at most {@code limit} tables
+     * are kept beyond those a load asks for, dropping the least recently used; the loader returns null for a month
+     * whose rows changed after {@code version}.
+     */
+    static TransactionIndex paged(long version, Map<YearMonth, Integer> months, Function<YearMonth, TransactionTable> loader, int limit) {
+        if (limit < 1) throw new IllegalArgumentException("Limit must be >= 1");
+        List<YearMonth> kept = new ArrayList<>(months.size());
+        int[] starts = new int[months.size() + 1];
+        for (Map.Entry<YearMonth, Integer> e : months.entrySet()) {
+            if (e.getValue() == 0) continue;
+            starts[kept.size() + 1] = Math.addExact(starts[kept.size()], e.getValue());
+            kept.add(e.getKey());
+        }
+        return new TransactionIndex(version, new Pages(kept.toArray(new YearMonth[0]), loader, limit), Arrays.copyOf(starts, kept.size() + 1), null);
+    }
+
+    /** Version of the {@link LedgerSnapshot} the rows were read from. */
+    public long version() { return version; }
+
+    public int size() {
+        return order != null ? order.length : starts[pages.count()];
+    }
+
+    /** A read-only view of the row; see {@link TransactionTable#view}. Null if its month is not loaded or has changed; see above. */
+    public Transaction get(int row) {
+        int pos = position(row), t = pageAt(pos);
+        TransactionTable table = pages.table(t);
+        return table == null ? null : table.view(pos - starts[t]);
+    }
+
+    public LocalDate date(int row) {
+        int pos = position(row), t = pageAt(pos);
+        TransactionTable table = pages.table(t);
+        return table == null ? null : LocalDate.ofEpochDay(table.epochDay(pos - starts[t]));
+    }
+
+    public TransactionType type(int row) {
+        int pos = position(row), t = pageAt(pos);
+        TransactionTable table = pages.table(t);
+        return table == null ? null : table.type(pos - starts[t]);
+    }
+
+    public BigDecimal amount(int row) {
+        int pos = position(row), t = pageAt(pos);
+        TransactionTable table = pages.table(t);
+        return table == null ? null : Money.toBigDecimal(table.amountMinor(pos - starts[t]));
+    }
+
+    public String category(int row) {
+        int pos = position(row), t = pageAt(pos);
+        TransactionTable table = pages.table(t);
+        return table == null ? null : table.categories().name(table.categoryId(pos - starts[t]));
+    }
+
+    public String description(int row) {
+        int pos = position(row), t = pageAt(pos);
+        TransactionTable table = pages.table(t);
+        return table == null ? null : table.description(pos - starts[t]);
+    }
+
+    /** True if the rows {@code fromRow} to {@code toRow} inclusive can be read now; see {@link #load}. */
+    public boolean isLoaded(int fromRow, int toRow) {
+        for (int row = Math.max(0, fromRow); row <= Math.min(toRow, size() - 1); row++) {
+            if (!pages.has(pageAt(position(row)))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads in the months of the rows {@code fromRow} to {@code toRow} inclusive that a paged index does not hold,
+     * keeping them even past its limit. Reads the store, so call it off the event dispatch thread.
+     */
+    public void load(int fromRow, int toRow) {
+        Set<Integer> wanted = new LinkedHashSet<>();
+        for (int row = Math.max(0, fromRow); row <= Math.min(toRow, size() - 1); row++) wanted.add(pageAt(position(row)));
+        for (int t : wanted) pages.read(t, wanted);
+    }
+
+    /**
+     * The rows that contain {@code filter}, ignoring case, in their date, type, amount, category or description,
+     * ordered by {@code sorts}; a blank filter keeps every row and no sorts keep ledger order. Text columns are
+     * compared ignoring case. Reads every row, one month at a time, so call it off the event dispatch thread
+     * for large indexes.
+     */
+    public TransactionIndex query(String filter, List<Sort> sorts) {
+        String needle = filter == null ? "" : filter.trim().toLowerCase(Locale.ROOT);
+        int total = starts[pages.count()];
+        if (needle.isEmpty() && sorts.isEmpty()) return order == null ? this : new TransactionIndex(version, pages, starts, null);
+        RowMatcher matcher = needle.isEmpty() ? null : new RowMatcher(needle);
+        SortKey[] keys = new SortKey[sorts.size()];
+        for (int k = 0; k < keys.length; k++) {
+            keys[k] = switch (sorts.get(k).column()) {
+                case DATE -> new IntKey(total, (table, row) -> table.epochDay(row));
+                case TYPE -> new IntKey(total, (table, row) -> table.type(row).ordinal());
+                case AMOUNT -> new AmountKey(total);
+                case CATEGORY -> new CategoryKey(total);
+                case DESCRIPTION -> new TextKey(total);
+            };
+        }
+        // Filter and read every sort key in one pass, so that each month is read once
+        int[] kept = new int[total];
+        int n = 0;
+        for (int t = 0; t < pages.count(); t++) {
+            TransactionTable table = pages.read(t, Set.of());
+            if (table == null) continue;
+            for (int r = 0; r < table.size(); r++) {
+                if (matcher != null && !matcher.matches(table, r)) continue;
+                int pos = starts[t] + r;
+                kept[n++] = pos;
+                for (SortKey key : keys) key.read(table, r, pos);
+            }
+        }
+        if (n < total) kept = Arrays.copyOf(kept, n);
+        if (keys.length > 0) sort(kept, comparator(keys, sorts));
+        return new TransactionIndex(version, pages, starts, kept);
+    }
+
+    /** Case-insensitive substring test over a row's shown fields, remembering answers for repeated values. */
+    private static final class RowMatcher {
+        private final String needle;
+        private final Map<String, Boolean> categories = new HashMap<>();
+        private final boolean[] types = new boolean[TransactionType.values().length];
+        private int lastDay = Integer.MIN_VALUE;
+        private boolean lastDayMatched;
+
+        RowMatcher(String needle) {
+            this.needle = needle;
+            for (TransactionType type : TransactionType.values()) types[type.ordinal()] = contains(type.toString());
+        }
+
+        boolean matches(TransactionTable table, int row) {
+            int day = table.epochDay(row);
+            if (day != lastDay) {
+                lastDay = day;
+                lastDayMatched = contains(LocalDate.ofEpochDay(day).toString());
+            }
+            return lastDayMatched
+                    || types[table.type(row).ordinal()]
+                    || categories.computeIfAbsent(table.categories().name(table.categoryId(row)), this::contains)
+                    || contains(Money.toBigDecimal(table.amountMinor(row)).toString())
+                    || contains(table.description(row));
+        }
+
+        private boolean contains(String value) {
+            return value != null && value.toLowerCase(Locale.ROOT).contains(needle);
+        }
+    }
+
+    /** Compares positions, not view rows. */
+    @FunctionalInterface
+    private interface PositionComparator {
+        int compare(int a, int b);
+    }
+
+    private static PositionComparator comparator(SortKey[] keys, List<Sort> sorts) {
+        PositionComparator[] order = new PositionComparator[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            PositionComparator key = keys[k].comparator();
+            order[k] = sorts.get(k).descending() ? (a, b) -> key.compare(b, a) : key;
+        }
+        return (a, b) -> {
+            for (PositionComparator key : order) {
+                int c = key.compare(a, b);
+                if (c != 0) return c;
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * A sort key read into an array by position as the rows are scanned, so that comparing two rows is two array
+     * reads and sorting reads no month again.
+     */
+    private interface SortKey {
+        void read(TransactionTable table, int row, int pos);
+
+        PositionComparator comparator();
+    }
+
+    /** Reads an int column of a table row. */
+    @FunctionalInterface
+    private interface IntColumn {
+        int get(TransactionTable table, int row);
+    }
+
+    private static final class IntKey implements SortKey {
+        private final int[] key;
+        private final IntColumn column;
+
+        IntKey(int positions, IntColumn column) {
+            this.key = new int[positions];
+            this.column = column;
+        }
+
+        @Override public void read(TransactionTable table, int row, int pos) { key[pos] = column.get(table, row); }
+
+        @Override public PositionComparator comparator() { return (a, b) -> Integer.compare(key[a], key[b]); }
+    }
+
+    private static final class AmountKey implements SortKey {
+        private final long[] key;
+
+        AmountKey(int positions) { this.key = new long[positions]; }
+
+        @Override public void read(TransactionTable table, int row, int pos) { key[pos] = table.amountMinor(row); }
+
+        @Override public PositionComparator comparator() { return (a, b) -> Long.compare(key[a], key[b]); }
+    }
+
+    /** Numbers category names as they are first seen, then ranks the names ignoring case, once per name. */
+    private static final class CategoryKey implements SortKey {
+        private final int[] key;
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        CategoryKey(int positions) { this.key = new int[positions]; }
+
+        @Override public void read(TransactionTable table, int row, int pos) {
+            key[pos] = ids.computeIfAbsent(table.categories().name(table.categoryId(row)), name -> ids.size());
+        }
+
+        @Override public PositionComparator comparator() {
+            String[] names = new String[ids.size()];
+            ids.forEach((name, id) -> names[id] = name);
+            Integer[] byName = new Integer[names.length];
+            for (int i = 0; i < byName.length; i++) byName[i] = i;
+            Arrays.sort(byName, (a, b) -> TEXT_ORDER.compare(names[a], names[b]));
+            int[] rank = new int[names.length];
+            for (int i = 0; i < byName.length; i++) {
+                // Names equal but for case share a rank
+                rank[byName[i]] = i > 0 && TEXT_ORDER.compare(names[byName[i - 1]], names[byName[i]]) == 0 ? rank[byName[i - 1]] : i;
+            }
+            return (a, b) -> Integer.compare(rank[key[a]], rank[key[b]]);
+        }
+    }
+
+    private static final class TextKey implements SortKey {
+        private final String[] key;
+
+        TextKey(int positions) { this.key = new String[positions]; }
+
+        @Override public void read(TransactionTable table, int row, int pos) { key[pos] = table.description(row); }
+
+        @Override public PositionComparator comparator() { return (a, b) -> TEXT_ORDER.compare(key[a], key[b]); }
+    }
+
+    /** Stable merge sort, so rows equal on every key keep ledger order as {@code TableRowSorter} did. */
+    private static void sort(int[] a, PositionComparator cmp) {
+        mergeSort(a, a.clone(), 0, a.length, cmp);
+    }
+
+    // Sorts a[from, to) using tmp, which holds the same values on entry
+    private static void mergeSort(int[] a, int[] tmp, int from, int to, PositionComparator cmp) {
+        if (to - from <= INSERTION_SORT_ROWS) {
+            for (int i = from + 1; i < to; i++) {
+                int v = a[i], j = i - 1;
+                while (j >= from && cmp.compare(a[j], v) > 0) a[j + 1] = a[j--];
+                a[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        // Sort each half into tmp, then merge back into a
+        mergeSort(tmp, a, from, mid, cmp);
+        mergeSort(tmp, a, mid, to, cmp);
+        if (cmp.compare(tmp[mid - 1], tmp[mid]) <= 0) {
+            System.arraycopy(tmp, from, a, from, to - from);
+            return;
+        }
+        for (int i = from, l = from, r = mid; i < to; i++) {
+            a[i] = r >= to || (l < mid && cmp.compare(tmp[l], tmp[r]) <= 0) ? tmp[l++] : tmp[r++];
+        }
+    }
+
+    private int position(int row) {
+        if (row < 0 || row >= size()) throw new IndexOutOfBoundsException(row);
+        return order != null ? order[row] : row;
+    }
+
+    private int pageAt(int pos) {
+        int t = Arrays.binarySearch(starts, pos);
+        // Pages are never empty, so starts are distinct and an exact hit is the page that begins there
+        return t >= 0 ? t : -t - 2;
+    }
+
+    /** The month tables of an index: all held, or read on demand and kept up to a limit. */
+    private static final class Pages {
+        private final TransactionTable[] held; // every table, or null when they are read on demand
+        private final YearMonth[] months;
+        private final Function<YearMonth, TransactionTable> loader;
+        private final int limit;
+        // Tables read on demand by page, least recently used first; null for a month that changed since the index was made
+        private final Map<Integer, TransactionTable> loaded;
+
+        Pages(TransactionTable[] held) {
+            this.held = held;
+            this.months = null;
+            this.loader = null;
+            this.limit = 0;
+            this.loaded = null;
+        }
+
+        Pages(YearMonth[] months, Function<YearMonth, TransactionTable> loader, int limit) {
+            this.held = null;
+            this.months = months;
+            this.loader = loader;
+            this.limit = limit;
+            this.loaded = new LinkedHashMap<>(16, 0.75f, true);
+        }
+
+        int count() {
+            return held != null ? held.length : months.length;
+        }
+
+        // Called from the event dispatch thread as rows are painted, so it never reads a month
+        synchronized TransactionTable table(int t) {
+            return held != null ? held[t] : loaded.get(t);
+        }
+
+        synchronized boolean has(int t) {
+            return held != null || loaded.containsKey(t);
+        }
+
+        /** The page's table, reading its month if it is not held and dropping least recently used pages not in {@code keep} down to the limit. */
+        TransactionTable read(int t, Set<Integer> keep) {
+            if (held != null) return held[t];
+            synchronized (this) {
+                if (loaded.containsKey(t)) return loaded.get(t);
+            }
+            // Read without holding the lock, so that rows painted meanwhile do not wait for the store
+            TransactionTable table = loader.apply(months[t]);
+            synchronized (this) {
+                for (Iterator<Integer> it = loaded.keySet().iterator(); it.hasNext() && loaded.size() >= limit; ) {
+                    if (!keep.contains(it.next())) it.remove();
+                }
+                loaded.put(t, table);
+                return table;
+            }
+        }
+    }
+}
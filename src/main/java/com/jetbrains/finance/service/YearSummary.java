@@ -0,0 +1,26 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.Money;
+
+import java.time.Month;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One year of month summaries, January first. {@code spentByCategory} holds each month's spend by category
+ * in the same order, or is empty when categories were not requested.
+ */
+public record YearSummary(int year, List<MonthlySummary> months, List<Map<String, Money>> spentByCategory) {
+    public MonthlySummary month(Month month) {
+        return months.get(month.getValue() - 1);
+    }
+
+    public MonthlySummary total() {
+        Money income = Money.ZERO, expense = Money.ZERO;
+        for (MonthlySummary m : months) {
+            income = income.plus(m.totalIncome());
+            expense = expense.plus(m.totalExpense());
+        }
+        return new MonthlySummary(income, expense, income.minus(expense));
+    }
+}
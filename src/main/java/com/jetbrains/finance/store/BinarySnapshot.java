@@ -0,0 +1,240 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.Money;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary form of a set of transactions (and optionally budgets), stored column by column:
+ * <pre>
+ * int     magic "FINB", short version, short reserved
+ * varint  budget count, then (string category, string limit) pairs
+ * varint  category count, then the category strings; rows refer to them by index
+ * varint  row count n, then n entries of each column in turn:
+ *         epoch day (zigzag delta from the previous row), id (zigzag delta), category index &lt;&lt; 1 | income,
+ *         amount in minor units (zigzag), description length + 1 (0 for none)
+ * varint  description block length, then every description's UTF-8 bytes back to back
+ * int     CRC32C of everything before it
+ * </pre>
+ * Strings are a varint byte length followed by UTF-8 bytes. Rows in ledger order make the day and id
+ * deltas small, so most fields take one byte; decoding is a few varint loops plus one copy of the
+ * description block.
+ */
+final class BinarySnapshot {
+    static final int MAGIC = 0x46494E42; // "FINB"
+    static final short VERSION = 1;
+
+    private BinarySnapshot() {}
+
+    /** True when the buffer (from its position) starts like a binary snapshot. */
+    static boolean isBinary(ByteBuffer buf) {
+        return buf.remaining() >= 4 && buf.getInt(buf.position()) == MAGIC;
+    }
+
+    static ByteBuffer encode(Map<String, BigDecimal> budgets, List<? extends Transaction> rows) {
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> categories = new ArrayList<>();
+        int[] categoryIndex = new int[rows.size()];
+        byte[][] descriptions = new byte[rows.size()][];
+        int descriptionBytes = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            Transaction t = rows.get(i);
+            String category = t.getCategory() == null ? "" : t.getCategory();
+            Integer idx = dictionary.get(category);
+            if (idx == null) {
+                idx = categories.size();
+                dictionary.put(category, idx);
+                categories.add(category);
+            }
+            categoryIndex[i] = idx;
+            if (t.getDescription() != null) {
+                descriptions[i] = t.getDescription().getBytes(StandardCharsets.UTF_8);
+                descriptionBytes += descriptions[i].length;
+            }
+        }
+
+        Sink out = new Sink(64 + rows.size() * 12 + descriptionBytes);
+        out.buf.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+        out.varint(budgets.size());
+        for (Map.Entry<String, BigDecimal> e : budgets.entrySet()) {
+            out.string(e.getKey());
+            out.string(e.getValue().toPlainString());
+        }
+        out.varint(categories.size());
+        for (String c : categories) out.string(c);
+        out.varint(rows.size());
+        long prev = 0;
+        for (Transaction t : rows) {
+            long day = t.getDate().toEpochDay();
+            out.varlong(zigzag(day - prev));
+            prev = day;
+        }
+        prev = 0;
+        for (Transaction t : rows) {
+            out.varlong(zigzag(t.getId() - prev));
+            prev = t.getId();
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            out.varint(categoryIndex[i] << 1 | (rows.get(i).getType() == TransactionType.INCOME ? 1 : 0));
+        }
+        for (Transaction t : rows) out.varlong(zigzag(Money.toMinor(t.getAmount())));
+        for (byte[] d : descriptions) out.varint(d == null ? 0 : d.length + 1);
+        out.varint(descriptionBytes);
+        out.ensure(descriptionBytes + 4);
+        for (byte[] d : descriptions) if (d != null) out.buf.put(d);
+
+        CRC32C crc = new CRC32C();
+        crc.update(out.buf.array(), 0, out.buf.position());
+        out.buf.putInt((int) crc.getValue());
+        return out.buf.flip();
+    }
+
+    /**
+     * Decodes a snapshot written by {@link #encode}, from the buffer's position to its limit.
+     * @param budgets receives the budgets, or null to skip them
+     * @throws IOException if the data is not a binary snapshot of a known version or fails its checksum
+     */
+    static List<Transaction> decode(ByteBuffer in, Map<String, BigDecimal> budgets) throws IOException {
+        ByteBuffer buf = in.slice();
+        if (!buf.hasArray()) buf = ByteBuffer.allocate(buf.remaining()).put(buf).flip();
+        if (buf.remaining() < 12 || buf.getInt() != MAGIC) throw new IOException("Not a binary finance snapshot");
+        short version = buf.getShort();
+        if (version != VERSION) throw new IOException("Unsupported binary snapshot version " + version);
+        buf.getShort();
+        int end = buf.limit() - 4;
+        CRC32C crc = new CRC32C();
+        crc.update(buf.duplicate().position(0).limit(end));
+        if ((int) crc.getValue() != buf.getInt(end)) throw new IOException("Binary snapshot failed its checksum");
+        buf.limit(end);
+        try {
+            int budgetCount = count(buf);
+            for (int i = 0; i < budgetCount; i++) {
+                String category = string(buf);
+                BigDecimal limit = new BigDecimal(string(buf));
+                if (budgets != null) budgets.put(category, limit);
+            }
+            String[] categories = new String[count(buf)];
+            for (int i = 0; i < categories.length; i++) categories[i] = string(buf);
+
+            int n = count(buf);
+            long[] days = new long[n];
+            long prev = 0;
+            for (int i = 0; i < n; i++) days[i] = prev += unzigzag(varlong(buf));
+            long[] ids = new long[n];
+            prev = 0;
+            for (int i = 0; i < n; i++) ids[i] = prev += unzigzag(varlong(buf));
+            int[] typeCategory = new int[n];
+            for (int i = 0; i < n; i++) typeCategory[i] = varint(buf);
+            long[] amounts = new long[n];
+            for (int i = 0; i < n; i++) amounts[i] = unzigzag(varlong(buf));
+            int[] descriptionLengths = new int[n];
+            for (int i = 0; i < n; i++) descriptionLengths[i] = varint(buf);
+            byte[] block = new byte[count(buf)];
+            buf.get(block);
+            if (buf.hasRemaining()) throw new IOException("Binary snapshot has trailing data");
+
+            List<Transaction> rows = new ArrayList<>(n);
+            LocalDate date = null;
+            int offset = 0;
+            for (int i = 0; i < n; i++) {
+                if (date == null || date.toEpochDay() != days[i]) date = LocalDate.ofEpochDay(days[i]);
+                int tc = typeCategory[i];
+                String description = null;
+                if (descriptionLengths[i] > 0) {
+                    int len = descriptionLengths[i] - 1;
+                    description = new String(block, offset, len, StandardCharsets.UTF_8);
+                    offset += len;
+                }
+                rows.add(new Transaction(ids[i], (tc & 1) != 0 ? TransactionType.INCOME : TransactionType.EXPENSE,
+                        date, Money.toBigDecimal(amounts[i]), categories[tc >>> 1], description));
+            }
+            if (offset != block.length) throw new IOException("Binary snapshot description block does not match its lengths");
+            return rows;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | DateTimeException e) {
+            throw new IOException("Corrupt binary snapshot", e);
+        }
+    }
+
+    private static long zigzag(long v) { return (v << 1) ^ (v >> 63); }
+
+    private static long unzigzag(long v) { return (v >>> 1) ^ -(v & 1); }
+
+    /** A varint that sizes something in the buffer, so it can be checked against what is left. */
+    private static int count(ByteBuffer buf) throws IOException {
+        int n = varint(buf);
+        if (n < 0 || n > buf.remaining()) throw new IOException("Corrupt binary snapshot: count " + n);
+        return n;
+    }
+
+    private static String string(ByteBuffer buf) throws IOException {
+        int len = count(buf);
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return s;
+    }
+
+    private static int varint(ByteBuffer buf) throws IOException {
+        long v = varlong(buf);
+        if (v != (int) v) throw new IOException("Corrupt binary snapshot: value out of range");
+        return (int) v;
+    }
+
+    private static long varlong(ByteBuffer buf) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+        throw new IOException("Corrupt binary snapshot: varint too long");
+    }
+
+    /** A heap buffer that grows as varints are appended. */
+    private static final class Sink {
+        ByteBuffer buf;
+
+        Sink(int capacity) {
+            buf = ByteBuffer.allocate(capacity);
+        }
+
+        void ensure(int bytes) {
+            if (buf.remaining() >= bytes) return;
+            int size = Math.max(buf.capacity() * 2, buf.position() + bytes);
+            buf = ByteBuffer.wrap(Arrays.copyOf(buf.array(), size)).position(buf.position());
+        }
+
+        void varint(int v) {
+            varlong(v & 0xFFFFFFFFL);
+        }
+
+        void varlong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf.put((byte) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            buf.put((byte) v);
+        }
+
+        void string(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            ensure(bytes.length);
+            buf.put(bytes);
+        }
+    }
+}
@@ -0,0 +1,592 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.FinanceData;
+import com.jetbrains.finance.model.Transaction;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps the ledger in a single file of compressed blocks with an index at the end:
+ * <pre>
+ * header   int magic "FBLK", short version, short reserved
+ * blocks   each a Deflater-compressed {@link BinarySnapshot} of up to {@link #BLOCK_ROWS} rows of one month
+ * footer   long next id, int budget count, then (string category, string limit) pairs,
+ *          int block count, then per block: long offset, int length, int raw length, int CRC32C of the
+ *          compressed bytes, int rows, int first and last epoch day, long income and expense in minor units
+ * trailer  long footer offset, int footer length, int footer CRC32C, int magic
+ * </pre>
+ * Strings are an int byte length followed by UTF-8 bytes. Month totals come from the footer, so opening
+ * and month summaries never decompress anything; loading a month or a date range decompresses only the
+ * blocks that overlap it. A block that fails its checksum or does not decompress is skipped and counted
+ * (see {@link #getUnreadableRecords()}); the rest of the ledger still loads. Saves never drop such a block: it is
+ * kept in the file, listed with no rows and zero totals so month totals agree with what can be loaded, and
+ * is not read again.
+ * <p>
+ * A save appends the blocks of the months that changed plus a new footer and trailer, forcing the blocks
+ * to disk before the footer that refers to them. Earlier blocks are never overwritten, so if a save is
+ * interrupted, the previous footer still describes a complete ledger; on open the last trailer that checks
+ * out is used. Replaced blocks become dead space, and the file is rewritten once dead space outweighs live data.
+ */
+public class BlockStore implements StorageBackend {
+    static final int MAGIC = 0x46424C4B; // "FBLK"
+    static final short VERSION = 1;
+    /** Rows per block; a month with more rows spans several blocks. */
+    static final int BLOCK_ROWS = 4096;
+    private static final int HEADER_BYTES = 8;
+    private static final int TRAILER_BYTES = 20;
+    private static final int BLOCK_ENTRY_BYTES = 48;
+    private static final long COMPACT_MIN_BYTES = 1 << 20;
+
+    /** A block as listed in the footer. A block listed with no rows is one that could not be read; its bytes are kept as they were. */
+    record Block(long offset, int length, int rawLength, int crc, int rows, int firstDay, int lastDay,
+                 long incomeMinor, long expenseMinor) {
+        boolean overlaps(int fromDay, int toDay) {
+            return firstDay <= toDay && lastDay >= fromDay;
+        }
+
+        boolean unreadable() {
+            return rows == 0;
+        }
+
+        Block at(long pos) {
+            return new Block(pos, length, rawLength, crc, rows, firstDay, lastDay, incomeMinor, expenseMinor);
+        }
+
+        Block asUnreadable() {
+            return new Block(offset, length, rawLength, crc, 0, firstDay, lastDay, 0, 0);
+        }
+    }
+
+    /** One footer's worth of state. Replaced as a whole after each write; {@code end} is where the next write goes. */
+    private record Index(Map<String, BigDecimal> budgets, long nextId, NavigableMap<YearMonth, List<Block>> months,
+                         long end, long liveBytes) {}
+
+    private static final Index EMPTY = new Index(Map.of(), 1, new TreeMap<>(), 0, 0);
+
+    private final Path file;
+    private final DirtyMonths changes = new DirtyMonths();
+    // Appends never move existing blocks, so readers only need to keep a compaction from replacing the file under them
+    private final ReadWriteLock fileLock = new ReentrantReadWriteLock();
+    private volatile Index index = EMPTY;
+    // Blocks found unreadable since the last save; the next save lists them as unreadable
+    private final Set<Block> damaged = ConcurrentHashMap.newKeySet();
+
+    public BlockStore(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public boolean exists() {
+        return Files.exists(file);
+    }
+
+    @Override
+    public Path getLocation() { return file; }
+
+    /** Blocks in the file that failed their checksum or could not be decoded, as far as they have been read. */
+    @Override
+    public int getUnreadableRecords() {
+        int count = damaged.size();
+        for (List<Block> blocks : index.months().values()) for (Block b : blocks) if (b.unreadable()) count++;
+        return count;
+    }
+
+    @Override
+    public LedgerManifest open() throws IOException {
+        Index idx = EMPTY;
+        boolean recovered = false;
+        if (Files.exists(file)) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                idx = readIndex(ch, ch.size());
+                if (idx == null) {
+                    idx = recoverIndex(ch);
+                    recovered = true;
+                }
+            }
+        }
+        index = idx;
+        damaged.clear();
+        // A recovered footer is rewritten by the next save, dropping the torn tail
+        changes.reset(recovered);
+        NavigableMap<YearMonth, MonthTotals> months = new TreeMap<>();
+        for (Map.Entry<YearMonth, List<Block>> e : idx.months().entrySet()) {
+            MonthTotals totals = totals(e.getValue());
+            // A month left with only unreadable blocks has nothing to show
+            if (totals.rows() > 0) months.put(e.getKey(), totals);
+        }
+        return new LedgerManifest(new HashMap<>(idx.budgets()), idx.nextId(), months);
+    }
+
+    @Override
+    public List<Transaction> loadMonth(YearMonth month) throws IOException {
+        List<Block> blocks = index.months().get(month);
+        if (blocks == null) return List.of();
+        return readBlocks(blocks, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /** Transactions dated {@code from} to {@code to} inclusive, in ledger order; only overlapping blocks are read. */
+    @Override
+    public List<Transaction> loadRange(LocalDate from, LocalDate to) throws IOException {
+        int fromDay = (int) from.toEpochDay(), toDay = (int) to.toEpochDay();
+        List<Block> blocks = new ArrayList<>();
+        for (List<Block> month : index.months().subMap(YearMonth.from(from), true, YearMonth.from(to), true).values()) {
+            for (Block b : month) if (b.overlaps(fromDay, toDay)) blocks.add(b);
+        }
+        List<Transaction> rows = readBlocks(blocks, fromDay, toDay);
+        rows.sort(Transaction.LEDGER_ORDER);
+        return rows;
+    }
+
+    /**
+     * Row count and totals for {@code from} to {@code to} inclusive, as last saved. Blocks wholly inside the range are answered
+     * from the footer; only blocks straddling an end of the range are decompressed.
+     */
+    @Override
+    public MonthTotals totals(LocalDate from, LocalDate to) throws IOException {
+        int fromDay = (int) from.toEpochDay(), toDay = (int) to.toEpochDay();
+        int rows = 0;
+        long income = 0, expense = 0;
+        List<Block> partial = new ArrayList<>();
+        for (List<Block> month : index.months().subMap(YearMonth.from(from), true, YearMonth.from(to), true).values()) {
+            for (Block b : month) {
+                if (!b.overlaps(fromDay, toDay) || damaged.contains(b)) continue;
+                if (b.firstDay() >= fromDay && b.lastDay() <= toDay) {
+                    rows += b.rows();
+                    income = Math.addExact(income, b.incomeMinor());
+                    expense = Math.addExact(expense, b.expenseMinor());
+                } else {
+                    partial.add(b);
+                }
+            }
+        }
+        MonthTotals rest = MonthTotals.of(readBlocks(partial, fromDay, toDay));
+        return new MonthTotals(rows + rest.rows(), Math.addExact(income, rest.incomeMinor()), Math.addExact(expense, rest.expenseMinor()));
+    }
+
+    /** Writes a whole ledger into the file, replacing whatever it held. */
+    @Override
+    public void importData(FinanceData data) throws IOException {
+        Map<YearMonth, List<Transaction>> byMonth = new HashMap<>();
+        long nextId = 1;
+        for (Transaction t : data.getTransactions()) {
+            byMonth.computeIfAbsent(YearMonth.from(t.getDate()), k -> new ArrayList<>()).add(t);
+            nextId = Math.max(nextId, t.getId() + 1);
+        }
+        for (List<Transaction> rows : byMonth.values()) rows.sort(Transaction.LEDGER_ORDER);
+        // Nothing of the old file is kept, not even its unreadable blocks
+        index = rewriteFile(EMPTY, new BlockSave(0, new HashMap<>(data.getBudgets()), nextId, byMonth, true));
+        damaged.clear();
+    }
+
+    @Override
+    public boolean canReload(YearMonth month) {
+        return changes.canReload(month);
+    }
+
+    @Override
+    public void recordAdd(Transaction t) {
+        changes.month(YearMonth.from(t.getDate()));
+    }
+
+    @Override
+    public void recordEdit(Transaction before, Transaction after) {
+        changes.month(YearMonth.from(before.getDate()));
+        changes.month(YearMonth.from(after.getDate()));
+    }
+
+    @Override
+    public void recordDelete(Transaction removed) {
+        changes.month(YearMonth.from(removed.getDate()));
+    }
+
+    @Override
+    public void recordBudget(String category, BigDecimal limit) {
+        changes.index();
+    }
+
+    @Override
+    public void recordBudgetRemoved(String category) {
+        changes.index();
+    }
+
+    @Override
+    public PendingSave prepareSave(Ledger ledger) {
+        if (changes.isEmpty()) return PendingSave.NONE;
+        return capture(ledger, changes.take(), false);
+    }
+
+    @Override
+    public PendingSave prepareRewrite(Ledger ledger) {
+        changes.take();
+        Set<YearMonth> all = new TreeSet<>(ledger.months().keySet());
+        all.addAll(index.months().keySet());
+        return capture(ledger, all, true);
+    }
+
+    private PendingSave capture(Ledger ledger, Set<YearMonth> dirty, boolean rewrite) {
+        Map<YearMonth, List<Transaction>> months = new HashMap<>();
+        for (YearMonth ym : dirty) months.put(ym, ledger.rows(ym));
+        long seq = changes.captured(dirty);
+        return new BlockSave(seq, new HashMap<>(ledger.budgets()), ledger.nextId(), months, rewrite);
+    }
+
+    /** The budgets and the changed months, in the state they had when the save was prepared. */
+    private final class BlockSave implements PendingSave {
+        private final long seq;
+        private final Map<String, BigDecimal> budgets;
+        private final long nextId;
+        // Month -> its rows in ledger order; an empty list drops the month
+        private final Map<YearMonth, List<Transaction>> months;
+        private final boolean rewrite;
+
+        BlockSave(long seq, Map<String, BigDecimal> budgets, long nextId, Map<YearMonth, List<Transaction>> months, boolean rewrite) {
+            this.seq = seq;
+            this.budgets = budgets;
+            this.nextId = nextId;
+            this.months = months;
+            this.rewrite = rewrite;
+        }
+
+        @Override
+        public PendingSave coalesce(PendingSave later) {
+            if (later.isEmpty()) return this;
+            if (!(later instanceof BlockSave next) || next.owner() != owner()) return null;
+            Map<YearMonth, List<Transaction>> both = new HashMap<>(months);
+            both.putAll(next.months);
+            return new BlockSave(next.seq, next.budgets, next.nextId, both, rewrite || next.rewrite);
+        }
+
+        @Override
+        public void write() throws IOException {
+            try {
+                Index current = index;
+                boolean compact = current.end() > COMPACT_MIN_BYTES && current.end() - current.liveBytes() > current.liveBytes();
+                if (rewrite || compact || current.end() == 0) {
+                    index = rewriteFile(current, this);
+                } else {
+                    index = append(current, this);
+                }
+                for (List<Block> blocks : current.months().values()) blocks.forEach(damaged::remove);
+                changes.written(seq);
+            } catch (IOException | RuntimeException e) {
+                changes.restore(months.keySet());
+                throw e;
+            }
+        }
+
+        private BlockStore owner() { return BlockStore.this; }
+    }
+
+    private Index append(Index current, BlockSave save) throws IOException {
+        NavigableMap<YearMonth, List<Block>> months = new TreeMap<>(current.months());
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            long pos = current.end();
+            months.replaceAll((ym, blocks) -> marked(blocks));
+            for (Map.Entry<YearMonth, List<Transaction>> e : new TreeMap<>(save.months).entrySet()) {
+                List<Block> blocks = new ArrayList<>();
+                pos = writeBlocks(ch, pos, e.getValue(), blocks);
+                // Unreadable blocks stay where they are, since an append never overwrites them
+                for (Block b : months.getOrDefault(e.getKey(), List.of())) if (b.unreadable()) blocks.add(b);
+                if (blocks.isEmpty()) {
+                    months.remove(e.getKey());
+                } else {
+                    months.put(e.getKey(), blocks);
+                }
+            }
+            ch.force(false);
+            Index next = new Index(save.budgets, save.nextId, months, 0, liveBytes(months));
+            long end = writeFooter(ch, pos, next);
+            // Drops whatever an earlier failed save left past the old end
+            ch.truncate(end);
+            ch.force(true);
+            return new Index(next.budgets(), next.nextId(), months, end, next.liveBytes());
+        }
+    }
+
+    /** Writes a fresh file holding the saved months plus the current blocks of every other month, copied as they are. */
+    private Index rewriteFile(Index current, BlockSave save) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Path parent = file.getParent();
+        if (parent != null) Files.createDirectories(parent);
+        NavigableMap<YearMonth, List<Block>> months = new TreeMap<>();
+        long end;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putShort(VERSION).putShort((short) 0).flip();
+            long pos = writeFully(out, header, 0);
+            Set<YearMonth> all = new TreeSet<>(save.months.keySet());
+            if (!save.rewrite) all.addAll(current.months().keySet());
+            try (FileChannel in = current.end() == 0 ? null : FileChannel.open(file, StandardOpenOption.READ)) {
+                for (YearMonth ym : all) {
+                    List<Block> blocks = new ArrayList<>();
+                    List<Transaction> rows = save.months.get(ym);
+                    if (rows != null) pos = writeBlocks(out, pos, rows, blocks);
+                    // A saved month keeps its unreadable blocks; every other month is copied whole
+                    for (Block b : marked(current.months().getOrDefault(ym, List.of()))) {
+                        if (rows != null && !b.unreadable()) continue;
+                        ByteBuffer raw = ByteBuffer.allocate(b.length());
+                        readFully(in, raw, b.offset());
+                        blocks.add(b.at(pos));
+                        pos = writeFully(out, raw.flip(), pos);
+                    }
+                    if (!blocks.isEmpty()) months.put(ym, blocks);
+                }
+            }
+            Index next = new Index(save.budgets, save.nextId, months, 0, liveBytes(months));
+            end = writeFooter(out, pos, next);
+            out.force(true);
+        }
+        fileLock.writeLock().lock();
+        try {
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+        return new Index(save.budgets, save.nextId, months, end, liveBytes(months));
+    }
+
+    /** The blocks with any found unreadable since the last save listed as unreadable. */
+    private List<Block> marked(List<Block> blocks) {
+        List<Block> out = new ArrayList<>(blocks.size());
+        for (Block b : blocks) out.add(damaged.contains(b) ? b.asUnreadable() : b);
+        return out;
+    }
+
+    /** Compresses a month's rows into blocks written from {@code pos}; adds their footer entries to {@code out}. */
+    private static long writeBlocks(FileChannel ch, long pos, List<Transaction> rows, List<Block> out) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            for (int from = 0; from < rows.size(); from += BLOCK_ROWS) {
+                List<Transaction> chunk = rows.subList(from, Math.min(rows.size(), from + BLOCK_ROWS));
+                ByteBuffer raw = BinarySnapshot.encode(Map.of(), chunk);
+                int rawLength = raw.remaining();
+                deflater.reset();
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteBuffer packed = ByteBuffer.allocate(rawLength + rawLength / 100 + 64);
+                while (!deflater.finished()) {
+                    if (!packed.hasRemaining()) packed = ByteBuffer.allocate(packed.capacity() * 2).put(packed.flip());
+                    deflater.deflate(packed);
+                }
+                packed.flip();
+                CRC32C crc = new CRC32C();
+                crc.update(packed.duplicate());
+                MonthTotals totals = MonthTotals.of(chunk);
+                out.add(new Block(pos, packed.remaining(), rawLength, (int) crc.getValue(), totals.rows(),
+                        (int) chunk.get(0).getDate().toEpochDay(), (int) chunk.get(chunk.size() - 1).getDate().toEpochDay(),
+                        totals.incomeMinor(), totals.expenseMinor()));
+                pos = writeFully(ch, packed, pos);
+            }
+        } finally {
+            deflater.end();
+        }
+        return pos;
+    }
+
+    /**
+     * Reads and decodes the given blocks, keeping rows dated within the day range. Blocks that do not check out are skipped
+     * and remembered, so the next save lists them as unreadable.
+     */
+    private List<Transaction> readBlocks(List<Block> blocks, int fromDay, int toDay) throws IOException {
+        List<Transaction> rows = new ArrayList<>();
+        if (blocks.isEmpty()) return rows;
+        fileLock.readLock().lock();
+        Inflater inflater = new Inflater();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (Block b : blocks) {
+                if (b.unreadable() || damaged.contains(b)) continue;
+                ByteBuffer packed = ByteBuffer.allocate(b.length());
+                readFully(ch, packed, b.offset());
+                packed.flip();
+                CRC32C crc = new CRC32C();
+                crc.update(packed.duplicate());
+                if ((int) crc.getValue() != b.crc()) {
+                    damaged(b);
+                    continue;
+                }
+                try {
+                    inflater.reset();
+                    inflater.setInput(packed);
+                    ByteBuffer raw = ByteBuffer.allocate(b.rawLength());
+                    while (!inflater.finished() && raw.hasRemaining()) {
+                        if (inflater.inflate(raw) == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    }
+                    if (!inflater.finished() || raw.hasRemaining()) throw new IOException("Block at " + b.offset() + " is truncated");
+                    for (Transaction t : BinarySnapshot.decode(raw.flip(), null)) {
+                        long day = t.getDate().toEpochDay();
+                        if (day >= fromDay && day <= toDay) rows.add(t);
+                    }
+                } catch (DataFormatException | IOException e) {
+                    damaged(b);
+                }
+            }
+        } finally {
+            inflater.end();
+            fileLock.readLock().unlock();
+        }
+        return rows;
+    }
+
+    private void damaged(Block b) {
+        if (damaged.add(b)) changes.index();
+    }
+
+    private static long writeFooter(FileChannel ch, long pos, Index idx) throws IOException {
+        List<byte[]> strings = new ArrayList<>();
+        int size = 8 + 4 + 4;
+        for (Map.Entry<String, BigDecimal> e : new TreeMap<>(idx.budgets()).entrySet()) {
+            byte[] k = e.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] v = e.getValue().toPlainString().getBytes(StandardCharsets.UTF_8);
+            strings.add(k);
+            strings.add(v);
+            size += 8 + k.length + v.length;
+        }
+        int blockCount = 0;
+        for (List<Block> blocks : idx.months().values()) blockCount += blocks.size();
+        size += blockCount * BLOCK_ENTRY_BYTES;
+
+        ByteBuffer footer = ByteBuffer.allocate(size);
+        footer.putLong(idx.nextId());
+        footer.putInt(strings.size() / 2);
+        for (byte[] s : strings) footer.putInt(s.length).put(s);
+        footer.putInt(blockCount);
+        for (List<Block> blocks : idx.months().values()) {
+            for (Block b : blocks) {
+                footer.putLong(b.offset()).putInt(b.length()).putInt(b.rawLength()).putInt(b.crc()).putInt(b.rows())
+                        .putInt(b.firstDay()).putInt(b.lastDay()).putLong(b.incomeMinor()).putLong(b.expenseMinor());
+            }
+        }
+        footer.flip();
+        CRC32C crc = new CRC32C();
+        crc.update(footer.duplicate());
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES)
+                .putLong(pos).putInt(size).putInt((int) crc.getValue()).putInt(MAGIC).flip();
+        pos = writeFully(ch, footer, pos);
+        return writeFully(ch, trailer, pos);
+    }
+
+    /** The index described by a trailer ending at {@code end}, or null if there is no intact trailer and footer there. */
+    private static Index readIndex(FileChannel ch, long end) throws IOException {
+        if (end < HEADER_BYTES + TRAILER_BYTES) return null;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(ch, header, 0);
+        if (header.getInt(0) != MAGIC) throw new IOException("Not a finance block file");
+        if (header.getShort(4) != VERSION) throw new IOException("Unsupported block file version " + header.getShort(4));
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+        readFully(ch, trailer, end - TRAILER_BYTES);
+        trailer.flip();
+        long footerOffset = trailer.getLong();
+        int footerLength = trailer.getInt();
+        int footerCrc = trailer.getInt();
+        if (trailer.getInt() != MAGIC || footerOffset < HEADER_BYTES || footerLength < 16
+                || footerOffset + footerLength != end - TRAILER_BYTES) {
+            return null;
+        }
+        ByteBuffer footer = ByteBuffer.allocate(footerLength);
+        readFully(ch, footer, footerOffset);
+        footer.flip();
+        CRC32C crc = new CRC32C();
+        crc.update(footer.duplicate());
+        if ((int) crc.getValue() != footerCrc) return null;
+        try {
+            long nextId = footer.getLong();
+            Map<String, BigDecimal> budgets = new HashMap<>();
+            int budgetCount = footer.getInt();
+            for (int i = 0; i < budgetCount; i++) budgets.put(string(footer), new BigDecimal(string(footer)));
+            int blockCount = footer.getInt();
+            NavigableMap<YearMonth, List<Block>> months = new TreeMap<>();
+            for (int i = 0; i < blockCount; i++) {
+                Block b = new Block(footer.getLong(), footer.getInt(), footer.getInt(), footer.getInt(), footer.getInt(),
+                        footer.getInt(), footer.getInt(), footer.getLong(), footer.getLong());
+                months.computeIfAbsent(YearMonth.from(LocalDate.ofEpochDay(b.firstDay())), k -> new ArrayList<>()).add(b);
+            }
+            return new Index(budgets, nextId, months, end, liveBytes(months));
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt block file index", e);
+        }
+    }
+
+    /** Looks back from the end of the file for the last trailer whose footer checks out, e.g. after a save was cut short. */
+    private static Index recoverIndex(FileChannel ch) throws IOException {
+        long size = ch.size();
+        if (size < HEADER_BYTES + TRAILER_BYTES) throw new IOException("Block file is truncated");
+        ByteBuffer window = ByteBuffer.allocate((int) Math.min(size, 1 << 20));
+        long windowStart = size;
+        while (windowStart > 0) {
+            windowStart = Math.max(0, windowStart - window.capacity() + 3);
+            window.clear().limit((int) Math.min(window.capacity(), size - windowStart));
+            readFully(ch, window, windowStart);
+            for (int i = window.limit() - 4; i >= 0; i--) {
+                if (window.getInt(i) != MAGIC) continue;
+                Index idx = readIndex(ch, windowStart + i + 4);
+                if (idx != null) return idx;
+            }
+        }
+        throw new IOException("No readable index in " + ch);
+    }
+
+    private static String string(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static MonthTotals totals(List<Block> blocks) {
+        int rows = 0;
+        long income = 0, expense = 0;
+        for (Block b : blocks) {
+            rows += b.rows();
+            income = Math.addExact(income, b.incomeMinor());
+            expense = Math.addExact(expense, b.expenseMinor());
+        }
+        return new MonthTotals(rows, income, expense);
+    }
+
+    private static long liveBytes(NavigableMap<YearMonth, List<Block>> months) {
+        long live = 0;
+        for (List<Block> blocks : months.values()) for (Block b : blocks) live += b.length();
+        return live;
+    }
+
+    private static long writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) pos += ch.write(buf, pos);
+        return pos;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) throw new IOException("Unexpected end of block file");
+            pos += n;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.jetbrains.finance.store;
+
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Change tracking for stores that save month by month: which months (and whether the index) changed since
+ * the last prepared save, and which months have been captured by a save that is not written yet. Saves are
+ * numbered as they are captured and written in that order, so a month is safe to read back once the save
+ * that last captured it has been written. Thread-safe; the writing thread reports back through
+ * {@link #written} and {@link #restore}.
+ */
+final class DirtyMonths {
+    private final Set<YearMonth> dirty = new HashSet<>();
+    private boolean indexDirty;
+    private final Map<YearMonth, Long> capturedBy = new HashMap<>();
+    private long lastCaptured;
+    private long lastWritten;
+
+    synchronized void month(YearMonth month) {
+        dirty.add(month);
+        indexDirty = true;
+    }
+
+    synchronized void index() {
+        indexDirty = true;
+    }
+
+    synchronized boolean isEmpty() {
+        return dirty.isEmpty() && !indexDirty;
+    }
+
+    /** Hands over the changed months and resets the tracking; the caller captures them under the returned save number. */
+    synchronized Set<YearMonth> take() {
+        Set<YearMonth> out = new HashSet<>(dirty);
+        dirty.clear();
+        indexDirty = false;
+        return out;
+    }
+
+    /** @return the number of a new save that captures these months */
+    synchronized long captured(Set<YearMonth> months) {
+        long seq = ++lastCaptured;
+        for (YearMonth ym : months) capturedBy.put(ym, seq);
+        return seq;
+    }
+
+    synchronized void written(long seq) {
+        lastWritten = Math.max(lastWritten, seq);
+    }
+
+    /** Puts changes captured by a save that failed back, so the next save writes them again. */
+    synchronized void restore(Set<YearMonth> months) {
+        dirty.addAll(months);
+        indexDirty = true;
+    }
+
+    /** Forgets every change, e.g. after the store has been (re)opened; a rebuilt index can be flagged for saving. */
+    synchronized void reset(boolean indexDirty) {
+        dirty.clear();
+        this.indexDirty = indexDirty;
+    }
+
+    synchronized boolean canReload(YearMonth month) {
+        return !dirty.contains(month) && capturedBy.getOrDefault(month, 0L) <= lastWritten;
+    }
+}
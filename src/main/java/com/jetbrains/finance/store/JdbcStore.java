@@ -0,0 +1,401 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.FinanceData;
+import com.jetbrains.finance.model.Money;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Keeps the ledger in a SQL database reached through plain JDBC, typically an embedded file-based one such
+ * as H2 or SQLite. The app ships with H2 for its default database; another driver put on the classpath can be
+ * named with a JDBC URL.
+ * <pre>
+ * ledger_meta    name, num                    the next free transaction id
+ * ledger_budget  category, amount             amount as a plain decimal string
+ * ledger_txn     txn_id, ym, epoch_day, is_income, amount_minor, category, description
+ *                ym is year * 100 + month; indexed on ym, on epoch_day and on (category, epoch_day)
+ * </pre>
+ * Opening runs one grouped query for the month totals; months, date ranges and spend by category are
+ * answered by indexed queries, so nothing but the months in use has to fit in memory. A save replaces the
+ * changed months' rows, the budgets and the next id in one database transaction; if it fails, the database
+ * keeps the previous save and the next save writes the months again.
+ * <p>
+ * The store uses a single connection, opened on first use; calls from the UI and the saving thread take
+ * turns on it.
+ */
+public class JdbcStore implements StorageBackend {
+    /** Longest description the schema holds; a longer one fails the save rather than being cut short. */
+    static final int MAX_DESCRIPTION = 4000;
+    private static final String NEXT_ID = "next-id";
+    private static final String COLUMNS = "txn_id, epoch_day, is_income, amount_minor, category, description";
+    private static final String SUM_INCOME = "SUM(CASE WHEN is_income = 1 THEN amount_minor ELSE 0 END)";
+    private static final String SUM_EXPENSE = "SUM(CASE WHEN is_income = 0 THEN amount_minor ELSE 0 END)";
+    private static final String[] SCHEMA = {
+            "CREATE TABLE ledger_meta (name VARCHAR(32) NOT NULL PRIMARY KEY, num BIGINT NOT NULL)",
+            "CREATE TABLE ledger_budget (category VARCHAR(255) NOT NULL PRIMARY KEY, amount VARCHAR(64) NOT NULL)",
+            "CREATE TABLE ledger_txn (txn_id BIGINT NOT NULL PRIMARY KEY, ym INT NOT NULL, epoch_day INT NOT NULL,"
+                    + " is_income SMALLINT NOT NULL, amount_minor BIGINT NOT NULL, category VARCHAR(255),"
+                    + " description VARCHAR(" + MAX_DESCRIPTION + "))",
+            "CREATE INDEX ledger_txn_ym ON ledger_txn (ym)",
+            "CREATE INDEX ledger_txn_day ON ledger_txn (epoch_day)",
+            "CREATE INDEX ledger_txn_category ON ledger_txn (category, epoch_day)",
+    };
+
+    private final String url;
+    private final Path location;
+    private final DirtyMonths changes = new DirtyMonths();
+    // Guarded by this
+    private Connection connection;
+
+    /**
+     * @param url      JDBC URL of the database, e.g. {@code jdbc:h2:file:/path/to/ledger-db}
+     * @param location where the database lives, for display
+     */
+    public JdbcStore(String url, Path location) {
+        this.url = url;
+        this.location = location;
+    }
+
+    @Override
+    public Path getLocation() { return location; }
+
+    /** True when the database can be reached and holds a ledger; false as well when the driver is missing. */
+    @Override
+    public synchronized boolean exists() {
+        try {
+            return hasTable(connection(), "ledger_txn");
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized LedgerManifest open() throws IOException {
+        try {
+            Connection c = connection();
+            createSchema(c);
+            Map<String, BigDecimal> budgets = new HashMap<>();
+            try (Statement st = c.createStatement()) {
+                try (ResultSet rs = st.executeQuery("SELECT category, amount FROM ledger_budget")) {
+                    while (rs.next()) budgets.put(rs.getString(1), new BigDecimal(rs.getString(2)));
+                }
+                long nextId = 1;
+                try (ResultSet rs = st.executeQuery("SELECT num FROM ledger_meta WHERE name = '" + NEXT_ID + "'")) {
+                    if (rs.next()) nextId = rs.getLong(1);
+                }
+                try (ResultSet rs = st.executeQuery("SELECT MAX(txn_id) FROM ledger_txn")) {
+                    if (rs.next()) nextId = Math.max(nextId, rs.getLong(1) + 1);
+                }
+                NavigableMap<YearMonth, MonthTotals> months = new TreeMap<>();
+                try (ResultSet rs = st.executeQuery("SELECT ym, COUNT(*), " + SUM_INCOME + ", " + SUM_EXPENSE
+                        + " FROM ledger_txn GROUP BY ym")) {
+                    while (rs.next()) {
+                        int ym = rs.getInt(1);
+                        months.put(YearMonth.of(Math.floorDiv(ym, 100), Math.floorMod(ym, 100)),
+                                new MonthTotals(rs.getInt(2), rs.getLong(3), rs.getLong(4)));
+                    }
+                }
+                changes.reset(false);
+                return new LedgerManifest(budgets, nextId, months);
+            }
+        } catch (SQLException | RuntimeException e) {
+            throw failure("open", e);
+        }
+    }
+
+    @Override
+    public synchronized List<Transaction> loadMonth(YearMonth month) throws IOException {
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT " + COLUMNS + " FROM ledger_txn WHERE ym = ? ORDER BY epoch_day, txn_id")) {
+            ps.setInt(1, ym(month));
+            return rows(ps);
+        } catch (SQLException | RuntimeException e) {
+            throw failure("read " + month, e);
+        }
+    }
+
+    @Override
+    public synchronized List<Transaction> loadRange(LocalDate from, LocalDate to) throws IOException {
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT " + COLUMNS + " FROM ledger_txn WHERE epoch_day BETWEEN ? AND ? ORDER BY epoch_day, txn_id")) {
+            ps.setInt(1, (int) from.toEpochDay());
+            ps.setInt(2, (int) to.toEpochDay());
+            return rows(ps);
+        } catch (SQLException | RuntimeException e) {
+            throw failure("read " + from + " to " + to, e);
+        }
+    }
+
+    @Override
+    public synchronized MonthTotals totals(LocalDate from, LocalDate to) throws IOException {
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT COUNT(*), " + SUM_INCOME + ", " + SUM_EXPENSE + " FROM ledger_txn WHERE epoch_day BETWEEN ? AND ?")) {
+            ps.setInt(1, (int) from.toEpochDay());
+            ps.setInt(2, (int) to.toEpochDay());
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                // SUM over no rows is NULL, which getLong reads as 0
+                return new MonthTotals(rs.getInt(1), rs.getLong(2), rs.getLong(3));
+            }
+        } catch (SQLException | RuntimeException e) {
+            throw failure("total " + from + " to " + to, e);
+        }
+    }
+
+    @Override
+    public synchronized Map<String, Long> spentByCategory(LocalDate from, LocalDate to) throws IOException {
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT category, SUM(amount_minor) FROM ledger_txn WHERE is_income = 0 AND epoch_day BETWEEN ? AND ?"
+                        + " GROUP BY category")) {
+            ps.setInt(1, (int) from.toEpochDay());
+            ps.setInt(2, (int) to.toEpochDay());
+            Map<String, Long> spent = new HashMap<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) spent.put(rs.getString(1), rs.getLong(2));
+            }
+            return spent;
+        } catch (SQLException | RuntimeException e) {
+            throw failure("total " + from + " to " + to, e);
+        }
+    }
+
+    /** Writes a whole ledger into the database, replacing whatever it held. */
+    @Override
+    public void importData(FinanceData data) throws IOException {
+        Map<YearMonth, List<Transaction>> byMonth = new HashMap<>();
+        long nextId = 1;
+        for (Transaction t : data.getTransactions()) {
+            byMonth.computeIfAbsent(YearMonth.from(t.getDate()), k -> new ArrayList<>()).add(t);
+            nextId = Math.max(nextId, t.getId() + 1);
+        }
+        new JdbcSave(0, new HashMap<>(data.getBudgets()), nextId, byMonth, true).write();
+    }
+
+    @Override
+    public boolean canReload(YearMonth month) {
+        return changes.canReload(month);
+    }
+
+    @Override
+    public void recordAdd(Transaction t) {
+        changes.month(YearMonth.from(t.getDate()));
+    }
+
+    @Override
+    public void recordEdit(Transaction before, Transaction after) {
+        changes.month(YearMonth.from(before.getDate()));
+        changes.month(YearMonth.from(after.getDate()));
+    }
+
+    @Override
+    public void recordDelete(Transaction removed) {
+        changes.month(YearMonth.from(removed.getDate()));
+    }
+
+    @Override
+    public void recordBudget(String category, BigDecimal limit) {
+        changes.index();
+    }
+
+    @Override
+    public void recordBudgetRemoved(String category) {
+        changes.index();
+    }
+
+    @Override
+    public PendingSave prepareSave(Ledger ledger) {
+        if (changes.isEmpty()) return PendingSave.NONE;
+        return capture(ledger, changes.take(), false);
+    }
+
+    @Override
+    public PendingSave prepareRewrite(Ledger ledger) {
+        changes.take();
+        return capture(ledger, new TreeSet<>(ledger.months().keySet()), true);
+    }
+
+    private PendingSave capture(Ledger ledger, Set<YearMonth> dirty, boolean rewrite) {
+        Map<YearMonth, List<Transaction>> months = new HashMap<>();
+        for (YearMonth ym : dirty) months.put(ym, ledger.rows(ym));
+        long seq = changes.captured(dirty);
+        return new JdbcSave(seq, new HashMap<>(ledger.budgets()), ledger.nextId(), months, rewrite);
+    }
+
+    /** The budgets and the changed months, in the state they had when the save was prepared. */
+    private final class JdbcSave implements PendingSave {
+        private final long seq;
+        private final Map<String, BigDecimal> budgets;
+        private final long nextId;
+        // Month -> its rows; an empty list drops the month
+        private final Map<YearMonth, List<Transaction>> months;
+        private final boolean rewrite;
+
+        JdbcSave(long seq, Map<String, BigDecimal> budgets, long nextId, Map<YearMonth, List<Transaction>> months, boolean rewrite) {
+            this.seq = seq;
+            this.budgets = budgets;
+            this.nextId = nextId;
+            this.months = months;
+            this.rewrite = rewrite;
+        }
+
+        @Override
+        public PendingSave coalesce(PendingSave later) {
+            if (later.isEmpty()) return this;
+            if (!(later instanceof JdbcSave next) || next.owner() != owner()) return null;
+            Map<YearMonth, List<Transaction>> both = new HashMap<>(months);
+            both.putAll(next.months);
+            return new JdbcSave(next.seq, next.budgets, next.nextId, both, rewrite || next.rewrite);
+        }
+
+        @Override
+        public void write() throws IOException {
+            try {
+                writeSave(this);
+                changes.written(seq);
+            } catch (IOException | RuntimeException e) {
+                changes.restore(months.keySet());
+                throw e;
+            }
+        }
+
+        private JdbcStore owner() { return JdbcStore.this; }
+    }
+
+    private synchronized void writeSave(JdbcSave save) throws IOException {
+        Connection c;
+        try {
+            c = connection();
+            createSchema(c);
+            c.setAutoCommit(false);
+        } catch (SQLException e) {
+            throw failure("save", e);
+        }
+        try {
+            try (Statement st = c.createStatement()) {
+                if (save.rewrite) st.executeUpdate("DELETE FROM ledger_txn");
+                st.executeUpdate("DELETE FROM ledger_budget");
+                st.executeUpdate("DELETE FROM ledger_meta WHERE name = '" + NEXT_ID + "'");
+            }
+            // Every changed month is cleared before any row goes in, so a row that moved month keeps its id
+            if (!save.rewrite) {
+                try (PreparedStatement ps = c.prepareStatement("DELETE FROM ledger_txn WHERE ym = ?")) {
+                    for (YearMonth ym : save.months.keySet()) {
+                        ps.setInt(1, ym(ym));
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO ledger_txn (ym, " + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+                for (Map.Entry<YearMonth, List<Transaction>> e : save.months.entrySet()) {
+                    for (Transaction t : e.getValue()) {
+                        ps.setInt(1, ym(e.getKey()));
+                        ps.setLong(2, t.getId());
+                        ps.setInt(3, (int) t.getDate().toEpochDay());
+                        ps.setInt(4, t.getType() == TransactionType.INCOME ? 1 : 0);
+                        ps.setLong(5, Money.toMinor(t.getAmount()));
+                        ps.setString(6, t.getCategory());
+                        ps.setString(7, t.getDescription());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO ledger_budget (category, amount) VALUES (?, ?)")) {
+                for (Map.Entry<String, BigDecimal> e : save.budgets.entrySet()) {
+                    ps.setString(1, e.getKey());
+                    ps.setString(2, e.getValue().toPlainString());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO ledger_meta (name, num) VALUES (?, ?)")) {
+                ps.setString(1, NEXT_ID);
+                ps.setLong(2, save.nextId);
+                ps.executeUpdate();
+            }
+            c.commit();
+        } catch (SQLException | RuntimeException e) {
+            try {
+                c.rollback();
+            } catch (SQLException rollback) {
+                e.addSuppressed(rollback);
+            }
+            throw failure("save", e);
+        } finally {
+            try {
+                c.setAutoCommit(true);
+            } catch (SQLException ignored) {
+                // The next use of the connection reports a broken connection itself
+            }
+        }
+    }
+
+    private List<Transaction> rows(PreparedStatement ps) throws SQLException {
+        List<Transaction> rows = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            LocalDate date = null;
+            while (rs.next()) {
+                long day = rs.getLong(2);
+                if (date == null || date.toEpochDay() != day) date = LocalDate.ofEpochDay(day);
+                rows.add(new Transaction(rs.getLong(1), rs.getInt(3) != 0 ? TransactionType.INCOME : TransactionType.EXPENSE,
+                        date, Money.toBigDecimal(rs.getLong(4)), rs.getString(5), rs.getString(6)));
+            }
+        }
+        return rows;
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection == null || connection.isClosed()) connection = DriverManager.getConnection(url);
+        return connection;
+    }
+
+    private static void createSchema(Connection c) throws SQLException {
+        if (hasTable(c, "ledger_txn")) return;
+        try (Statement st = c.createStatement()) {
+            for (String ddl : SCHEMA) st.executeUpdate(ddl);
+        }
+    }
+
+    /** Table names are matched ignoring case, since databases differ in how they store unquoted names. */
+    private static boolean hasTable(Connection c, String name) throws SQLException {
+        DatabaseMetaData meta = c.getMetaData();
+        try (ResultSet rs = meta.getTables(null, null, null, new String[] {"TABLE"})) {
+            while (rs.next()) {
+                if (name.equalsIgnoreCase(rs.getString("TABLE_NAME"))) return true;
+            }
+        }
+        return false;
+    }
+
+    private static int ym(YearMonth month) {
+        return month.getYear() * 100 + month.getMonthValue();
+    }
+
+    private IOException failure(String what, Exception e) {
+        // The URL may carry credentials, so the message names the location instead
+        return new IOException("Could not " + what + " in " + location + ": " + e.getMessage(), e);
+    }
+}
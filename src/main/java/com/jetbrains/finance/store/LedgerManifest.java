@@ -0,0 +1,12 @@
+package com.jetbrains.finance.store;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * What a {@link StorageBackend} reports when opened: the budgets, the next free transaction id and
+ * the totals of every month that has rows. Transactions themselves are read per month.
+ */
+public record LedgerManifest(Map<String, BigDecimal> budgets, long nextId, NavigableMap<YearMonth, MonthTotals> months) {}
@@ -0,0 +1,20 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.Money;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+
+import java.util.Collection;
+
+/** Row count and income/expense totals (in minor units) of one month, as kept in a store's index. */
+public record MonthTotals(int rows, long incomeMinor, long expenseMinor) {
+    public static MonthTotals of(Collection<? extends Transaction> rows) {
+        long income = 0, expense = 0;
+        for (Transaction t : rows) {
+            long minor = Money.toMinor(t.getAmount());
+            if (t.getType() == TransactionType.INCOME) income = Math.addExact(income, minor);
+            else expense = Math.addExact(expense, minor);
+        }
+        return new MonthTotals(rows.size(), income, expense);
+    }
+}
@@ -0,0 +1,337 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.FinanceData;
+import com.jetbrains.finance.model.Transaction;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Keeps the ledger in a folder with one file per month plus a small index, so opening reads only
+ * the index and a save rewrites only the months that changed.
+ * <pre>
+ * manifest.txt   # finance-ledger v1
+ *                next-id|N
+ *                [budgets]      category|limit
+ *                [months]       YYYY-MM|rows|incomeMinor|expenseMinor   (or YYYY-MM|? while being rewritten)
+ * YYYY-MM.bin    the month's rows in the {@link BinarySnapshot} format, in ledger order
+ * </pre>
+ * A save first marks the months it rewrites as pending in the index, then replaces their files, then writes
+ * the final index. A month still pending on open, or a month file missing from the index, is re-read to
+ * rebuild its totals, so an interrupted save never leaves the index describing rows that are not on disk.
+ */
+public class PartitionedStore implements StorageBackend {
+    static final String MANIFEST = "manifest.txt";
+    private static final String MANIFEST_HEADER = "# finance-ledger v1";
+    private static final String NEXT_ID = "next-id|";
+    private static final String PENDING = "?";
+    private static final String PARTITION_SUFFIX = ".bin";
+
+    private final Path dir;
+    private final DirtyMonths changes = new DirtyMonths();
+
+    public PartitionedStore(Path dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public boolean exists() {
+        if (Files.exists(dir.resolve(MANIFEST))) return true;
+        try {
+            return !partitionFiles().isEmpty();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Path getLocation() { return dir; }
+
+    @Override
+    public LedgerManifest open() throws IOException {
+        Map<String, BigDecimal> budgets = new HashMap<>();
+        NavigableMap<YearMonth, MonthTotals> months = new TreeMap<>();
+        Set<YearMonth> pending = new HashSet<>();
+        long nextId = 1;
+        Path manifest = dir.resolve(MANIFEST);
+        boolean rebuild = !Files.exists(manifest);
+        if (!rebuild) nextId = readManifest(manifest, budgets, months, pending);
+
+        NavigableMap<YearMonth, Path> files = partitionFiles();
+        for (Map.Entry<YearMonth, Path> e : files.entrySet()) {
+            YearMonth ym = e.getKey();
+            if (months.containsKey(ym) && !pending.contains(ym)) continue;
+            List<Transaction> rows = readPartition(e.getValue(), ym);
+            for (Transaction t : rows) nextId = Math.max(nextId, t.getId() + 1);
+            if (rows.isEmpty()) months.remove(ym); else months.put(ym, MonthTotals.of(rows));
+            rebuild = true;
+        }
+        // Indexed months whose file is gone have no rows left
+        if (months.keySet().retainAll(files.keySet()) || !pending.isEmpty()) rebuild = true;
+        changes.reset(rebuild && !files.isEmpty());
+        return new LedgerManifest(budgets, nextId, months);
+    }
+
+    @Override
+    public List<Transaction> loadMonth(YearMonth month) throws IOException {
+        Path file = partitionFile(month);
+        return Files.exists(file) ? readPartition(file, month) : List.of();
+    }
+
+    /**
+     * Writes a whole ledger into the folder, replacing whatever it held. A ledger that does not exist yet is
+     * written to a sibling folder and moved into place, so an interrupted import leaves no ledger behind.
+     */
+    @Override
+    public void importData(FinanceData data) throws IOException {
+        if (exists()) {
+            writeAll(data);
+            return;
+        }
+        Path staging = dir.resolveSibling(dir.getFileName() + ".import");
+        if (Files.isDirectory(staging)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(staging)) {
+                for (Path p : ds) Files.delete(p);
+            }
+        }
+        new PartitionedStore(staging).writeAll(data);
+        // An empty folder is replaced; one holding anything else makes the move fail rather than lose it
+        Files.deleteIfExists(dir);
+        Files.move(staging, dir, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeAll(FinanceData data) throws IOException {
+        NavigableMap<YearMonth, List<Transaction>> byMonth = new TreeMap<>();
+        long nextId = 1;
+        for (Transaction t : data.getTransactions()) {
+            byMonth.computeIfAbsent(YearMonth.from(t.getDate()), k -> new ArrayList<>()).add(t);
+            nextId = Math.max(nextId, t.getId() + 1);
+        }
+        NavigableMap<YearMonth, MonthTotals> totals = new TreeMap<>();
+        Map<YearMonth, List<Transaction>> partitions = new HashMap<>();
+        for (Map.Entry<YearMonth, List<Transaction>> e : byMonth.entrySet()) {
+            List<Transaction> rows = e.getValue();
+            rows.sort(Transaction.LEDGER_ORDER);
+            totals.put(e.getKey(), MonthTotals.of(rows));
+            partitions.put(e.getKey(), rows);
+        }
+        for (YearMonth stale : partitionFiles().keySet()) partitions.putIfAbsent(stale, List.of());
+        new PartitionSave(0, new HashMap<>(data.getBudgets()), nextId, totals, partitions).write();
+    }
+
+    @Override
+    public boolean canReload(YearMonth month) {
+        return changes.canReload(month);
+    }
+
+    @Override
+    public void recordAdd(Transaction t) {
+        changes.month(YearMonth.from(t.getDate()));
+    }
+
+    @Override
+    public void recordEdit(Transaction before, Transaction after) {
+        changes.month(YearMonth.from(before.getDate()));
+        changes.month(YearMonth.from(after.getDate()));
+    }
+
+    @Override
+    public void recordDelete(Transaction removed) {
+        changes.month(YearMonth.from(removed.getDate()));
+    }
+
+    @Override
+    public void recordBudget(String category, BigDecimal limit) {
+        changes.index();
+    }
+
+    @Override
+    public void recordBudgetRemoved(String category) {
+        changes.index();
+    }
+
+    @Override
+    public PendingSave prepareSave(Ledger ledger) {
+        if (changes.isEmpty()) return PendingSave.NONE;
+        return capture(ledger, changes.take());
+    }
+
+    @Override
+    public PendingSave prepareRewrite(Ledger ledger) throws IOException {
+        Set<YearMonth> all = new HashSet<>(ledger.months().keySet());
+        all.addAll(partitionFiles().keySet());
+        changes.take();
+        return capture(ledger, all);
+    }
+
+    private PendingSave capture(Ledger ledger, Set<YearMonth> dirty) {
+        Map<YearMonth, List<Transaction>> partitions = new HashMap<>();
+        for (YearMonth ym : dirty) partitions.put(ym, ledger.rows(ym));
+        long seq = changes.captured(dirty);
+        return new PartitionSave(seq, new HashMap<>(ledger.budgets()), ledger.nextId(), ledger.months(), partitions);
+    }
+
+    /** The index plus the month files that changed, in the state they had when the save was prepared. */
+    private final class PartitionSave implements PendingSave {
+        private final long seq;
+        private final Map<String, BigDecimal> budgets;
+        private final long nextId;
+        private final NavigableMap<YearMonth, MonthTotals> totals;
+        // Month -> its rows in ledger order; an empty list deletes the month's file
+        private final Map<YearMonth, List<Transaction>> partitions;
+
+        PartitionSave(long seq, Map<String, BigDecimal> budgets, long nextId, NavigableMap<YearMonth, MonthTotals> totals,
+                      Map<YearMonth, List<Transaction>> partitions) {
+            this.seq = seq;
+            this.budgets = budgets;
+            this.nextId = nextId;
+            this.totals = totals;
+            this.partitions = partitions;
+        }
+
+        @Override
+        public PendingSave coalesce(PendingSave later) {
+            if (later.isEmpty()) return this;
+            if (!(later instanceof PartitionSave next) || next.owner() != owner()) return null;
+            Map<YearMonth, List<Transaction>> both = new HashMap<>(partitions);
+            both.putAll(next.partitions);
+            return new PartitionSave(next.seq, next.budgets, next.nextId, next.totals, both);
+        }
+
+        @Override
+        public void write() throws IOException {
+            try {
+                if (!partitions.isEmpty()) writeManifest(partitions.keySet());
+                for (Map.Entry<YearMonth, List<Transaction>> e : new TreeMap<>(partitions).entrySet()) {
+                    Path file = partitionFile(e.getKey());
+                    if (e.getValue().isEmpty()) {
+                        Files.deleteIfExists(file);
+                    } else {
+                        TextFiles.replace(file, BinarySnapshot.encode(Map.of(), e.getValue()));
+                    }
+                }
+                writeManifest(Set.of());
+                changes.written(seq);
+            } catch (IOException | RuntimeException e) {
+                changes.restore(partitions.keySet());
+                throw e;
+            }
+        }
+
+        private void writeManifest(Set<YearMonth> pending) throws IOException {
+            TextFiles.replace(dir.resolve(MANIFEST), w -> {
+                w.write(MANIFEST_HEADER + "\n");
+                w.write(NEXT_ID + nextId + "\n");
+                w.write("[budgets]\n");
+                for (Map.Entry<String, BigDecimal> e : new TreeMap<>(budgets).entrySet()) {
+                    w.write(TextFiles.escape(e.getKey()));
+                    w.write('|');
+                    w.write(e.getValue().toPlainString());
+                    w.write('\n');
+                }
+                w.write("[months]\n");
+                Set<YearMonth> listed = new TreeSet<>(totals.keySet());
+                listed.addAll(pending);
+                for (YearMonth ym : listed) writeMonth(w, ym, pending.contains(ym) ? null : totals.get(ym));
+            });
+        }
+
+        private PartitionedStore owner() { return PartitionedStore.this; }
+    }
+
+    private static void writeMonth(Writer w, YearMonth ym, MonthTotals t) throws IOException {
+        w.write(ym.toString());
+        w.write('|');
+        if (t == null) {
+            w.write(PENDING);
+        } else {
+            w.write(t.rows() + "|" + t.incomeMinor() + "|" + t.expenseMinor());
+        }
+        w.write('\n');
+    }
+
+    /** @return the next free id recorded in the index */
+    private static long readManifest(Path file, Map<String, BigDecimal> budgets, NavigableMap<YearMonth, MonthTotals> months,
+                                     Set<YearMonth> pending) throws IOException {
+        long nextId = 1;
+        String section = "";
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) continue;
+                if (line.startsWith("[")) {
+                    section = line.trim();
+                    continue;
+                }
+                try {
+                    if (line.startsWith(NEXT_ID)) {
+                        nextId = Long.parseLong(line.substring(NEXT_ID.length()).trim());
+                    } else if (section.equals("[budgets]")) {
+                        String[] parts = TextFiles.splitEscaped(line, '|', 2);
+                        if (parts.length == 2) budgets.put(parts[0], new BigDecimal(parts[1]));
+                    } else if (section.equals("[months]")) {
+                        String[] parts = line.split("\\|");
+                        YearMonth ym = YearMonth.parse(parts[0]);
+                        if (parts.length == 4) {
+                            months.put(ym, new MonthTotals(Integer.parseInt(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3])));
+                        } else {
+                            pending.add(ym);
+                        }
+                    }
+                } catch (NumberFormatException | DateTimeParseException e) {
+                    // Unreadable index line: a month it described is rebuilt from its file
+                }
+            }
+        }
+        return nextId;
+    }
+
+    private static List<Transaction> readPartition(Path file, YearMonth month) throws IOException {
+        List<Transaction> rows = BinarySnapshot.decode(ByteBuffer.wrap(Files.readAllBytes(file)), null);
+        for (Transaction t : rows) {
+            if (!YearMonth.from(t.getDate()).equals(month)) {
+                throw new IOException(file.getFileName() + " holds a transaction dated " + t.getDate());
+            }
+        }
+        return rows;
+    }
+
+    private Path partitionFile(YearMonth month) {
+        return dir.resolve(month + PARTITION_SUFFIX);
+    }
+
+    private NavigableMap<YearMonth, Path> partitionFiles() throws IOException {
+        NavigableMap<YearMonth, Path> out = new TreeMap<>();
+        if (!Files.isDirectory(dir)) return out;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "????-??" + PARTITION_SUFFIX)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                try {
+                    out.put(YearMonth.parse(name.substring(0, name.length() - PARTITION_SUFFIX.length())), p);
+                } catch (DateTimeParseException ignored) {
+                    // Not a month file
+                }
+            }
+        }
+        return out;
+    }
+}
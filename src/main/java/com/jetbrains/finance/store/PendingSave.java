@@ -0,0 +1,28 @@
+package com.jetbrains.finance.store;
+
+import java.io.IOException;
+
+/**
+ * A save captured by {@link StorageBackend#prepareSave}. Capturing happens on the thread that changes
+ * the data; {@link #write()} may then run on any other thread. Saves must be written in the order they
+ * were prepared.
+ */
+public interface PendingSave {
+    /** Nothing to write. */
+    PendingSave NONE = new PendingSave() {
+        @Override public boolean isEmpty() { return true; }
+        @Override public PendingSave coalesce(PendingSave later) { return later; }
+        @Override public void write() {}
+    };
+
+    default boolean isEmpty() { return false; }
+
+    /**
+     * Folds a later save into this one, which must not have been written yet.
+     * @return a single save equivalent to writing this then {@code later}, or null if they have to be written separately
+     */
+    PendingSave coalesce(PendingSave later);
+
+    /** Writes and forces the save to disk. After a failure the store's next save rewrites what may have been lost. */
+    void write() throws IOException;
+}
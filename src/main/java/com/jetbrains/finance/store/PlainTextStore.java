@@ -5,16 +5,24 @@ import com.jetbrains.finance.model.Transaction;
 import com.jetbrains.finance.model.TransactionType;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Supplier;
 
 /**
  * Dependency-free plain-text store (INI-like) for FinanceData.
@@ -23,124 +31,420 @@ import java.util.Map;
  *   category|amount
  *   ...
  *   [transactions]
- *   type|date|amount|category|description
+ *   type|date|amount|category|description|id
  *   ...
  * Strings escape: '\\' -> '\\\\', '|' -> '\\|'
+ * The trailing id is optional on read (older files have none); rows without one are numbered
+ * after the highest id in the file, in file order.
+ *
+ * Journaled mode: instead of rewriting the snapshot on every save, mutations are appended to
+ * a sibling "<file>.journal" and replayed over the snapshot on load. Once the journal grows past
+ * half the snapshot size it is compacted into a fresh snapshot. The snapshot carries a
+ * "# generation N" comment and the journal header names the generation it applies to, so a
+ * journal left behind by an interrupted compaction is ignored rather than applied twice.
+ * Snapshots are written to "<file>.tmp", forced to disk and moved over the data file, so an
+ * interrupted write never leaves a truncated data file behind.
+ * Journal records (v2, rows addressed by id):
+ *   ADD|id|type|date|amount|category|description
+ *   EDIT|id|type|date|amount|category|description
+ *   DEL|id
+ *   BUDGET|category|amount
+ *   UNBUDGET|category
+ * A journal record that cannot be read is skipped and counted (see {@link #getUnreadableRecords()}),
+ * and the next save folds the journal into a fresh snapshot rather than appending after it.
  */
-public class PlainTextStore {
+public class PlainTextStore implements StorageBackend {
+    private static final String JOURNAL_HEADER = "# finance-journal v2 base=";
+    private static final String GENERATION_PREFIX = "# generation ";
+    private static final long COMPACT_MIN_BYTES = 64 * 1024;
+
     private final Path file;
+    private final boolean journaled;
+    private final List<String> pendingJournal = new ArrayList<>();
+    private long generation;
+    private long journalBytes;
+    private boolean journalMatchesSnapshot;
+    private boolean journalDamaged;
+    private int skippedLines;
+    // Rows read by open(), by month, until the service loads them
+    private final Map<YearMonth, List<Transaction>> unclaimed = new HashMap<>();
+    // Set by the writing thread when a write fails, cleared by the next successful snapshot
+    private volatile boolean writeFailed;
 
     public PlainTextStore(Path file) {
+        this(file, false);
+    }
+
+    public PlainTextStore(Path file, boolean journaled) {
         this.file = file;
+        this.journaled = journaled;
     }
 
+    /**
+     * Reads the data file and replays its journal.
+     * @throws UncheckedIOException if the data file exists but cannot be read; starting empty instead would
+     *                              let the next save overwrite the file
+     */
     public FinanceData load() {
         FinanceData data = new FinanceData();
+        generation = 0;
+        journalBytes = 0;
+        journalMatchesSnapshot = false;
+        journalDamaged = false;
+        skippedLines = 0;
         if (file == null || !Files.exists(file)) return data;
-        String section = "";
-        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty() || line.startsWith("#")) continue;
-                if (line.startsWith("[") && line.endsWith("]")) {
-                    section = line;
-                    continue;
-                }
-                if ("[budgets]".equals(section)) {
-                    String[] parts = splitEscaped(line, '|', 2);
-                    if (parts.length == 2) {
-                        String cat = unescape(parts[0]);
-                        BigDecimal amt = new BigDecimal(parts[1]);
-                        data.getBudgets().put(cat, amt);
-                    }
-                } else if ("[transactions]".equals(section)) {
-                    String[] parts = splitEscaped(line, '|', 5);
-                    if (parts.length >= 5) {
-                        TransactionType type = TransactionType.valueOf(parts[0]);
-                        LocalDate date = LocalDate.parse(parts[1]);
-                        BigDecimal amount = new BigDecimal(parts[2]);
-                        String category = unescape(parts[3]);
-                        String description = unescape(parts[4]);
-                        data.getTransactions().add(new Transaction(type, date, amount, category, description));
-                    }
-                }
-            }
-        } catch (Exception ignored) {
-            // On any parse error, return what we have (best effort)
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            SnapshotParser parser = new SnapshotParser(ByteBuffer.wrap(bytes));
+            if (bytes.length >= SnapshotParser.PARALLEL_MIN_BYTES) parser.parseParallel(data);
+            else parser.parse(data);
+            generation = parser.generation();
+            skippedLines = parser.skippedLines();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + file, e);
         }
+        assignMissingIds(data.getTransactions());
+        replayJournal(data);
+        data.getTransactions().sort(Transaction.LEDGER_ORDER);
         return data;
     }
 
     public void save(FinanceData data) throws IOException {
-        if (file == null) return;
-        Path parent = file.getParent();
-        if (parent != null) Files.createDirectories(parent);
-        try (BufferedWriter bw = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+        prepareSave(() -> data).write();
+    }
+
+    @Override
+    public boolean exists() {
+        return file != null && Files.exists(file);
+    }
+
+    @Override
+    public void importData(FinanceData data) throws IOException {
+        compact(data);
+    }
+
+    /** Folds everything into a fresh snapshot and drops the journal. */
+    public void compact(FinanceData data) throws IOException {
+        prepareCompact(data).write();
+    }
+
+    /**
+     * Reads the whole file (see {@link #load}) and keeps the rows, grouped by month, until the service
+     * asks for them with {@link #loadMonth}.
+     */
+    @Override
+    public LedgerManifest open() throws IOException {
+        FinanceData data;
+        try {
+            data = load();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        unclaimed.clear();
+        long nextId = 1;
+        for (Transaction t : data.getTransactions()) {
+            unclaimed.computeIfAbsent(YearMonth.from(t.getDate()), k -> new ArrayList<>()).add(t);
+            nextId = Math.max(nextId, t.getId() + 1);
+        }
+        NavigableMap<YearMonth, MonthTotals> months = new TreeMap<>();
+        for (Map.Entry<YearMonth, List<Transaction>> e : unclaimed.entrySet()) months.put(e.getKey(), MonthTotals.of(e.getValue()));
+        return new LedgerManifest(data.getBudgets(), nextId, months);
+    }
+
+    /** Hands over a month read by {@link #open}; each month is handed over once. */
+    @Override
+    public List<Transaction> loadMonth(YearMonth month) {
+        List<Transaction> rows = unclaimed.remove(month);
+        return rows == null ? List.of() : rows;
+    }
+
+    /** Reads the months {@link #open} still holds without handing them over, so a later {@link #loadMonth} gets them. */
+    @Override
+    public List<Transaction> loadRange(LocalDate from, LocalDate to) {
+        List<Transaction> rows = new ArrayList<>();
+        for (Map.Entry<YearMonth, List<Transaction>> e : unclaimed.entrySet()) {
+            if (e.getKey().isBefore(YearMonth.from(from)) || e.getKey().isAfter(YearMonth.from(to))) continue;
+            for (Transaction t : e.getValue()) {
+                if (!t.getDate().isBefore(from) && !t.getDate().isAfter(to)) rows.add(t);
+            }
+        }
+        rows.sort(Transaction.LEDGER_ORDER);
+        return rows;
+    }
+
+    @Override
+    public PendingSave prepareSave(Ledger ledger) throws IOException {
+        return prepareSave(() -> toData(ledger));
+    }
+
+    @Override
+    public PendingSave prepareRewrite(Ledger ledger) {
+        return prepareCompact(toData(ledger));
+    }
+
+    private static FinanceData toData(Ledger ledger) {
+        FinanceData data = new FinanceData();
+        data.setBudgets(new HashMap<>(ledger.budgets()));
+        List<Transaction> all = new ArrayList<>();
+        for (YearMonth ym : ledger.months().keySet()) all.addAll(ledger.rows(ym));
+        data.setTransactions(all);
+        return data;
+    }
+
+    /**
+     * Captures what the next save has to write, on the caller's thread, so that {@link PendingSave#write()}
+     * can run on another thread while the caller keeps recording changes.
+     * @param data supplies the complete data; only called when a full snapshot is due
+     */
+    public PendingSave prepareSave(Supplier<FinanceData> data) throws IOException {
+        if (file == null) return PendingSave.NONE;
+        if (needsSnapshot()) return prepareCompact(data.get());
+        if (pendingJournal.isEmpty()) return PendingSave.NONE;
+        StringBuilder sb = new StringBuilder();
+        boolean fresh = !journalMatchesSnapshot;
+        // A fresh journal is started for the current snapshot generation
+        if (fresh) sb.append(JOURNAL_HEADER).append(generation).append('\n');
+        for (String rec : pendingJournal) sb.append(rec).append('\n');
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        journalBytes += bytes.length;
+        journalMatchesSnapshot = true;
+        pendingJournal.clear();
+        return new TextSave(null, 0, bytes, fresh);
+    }
+
+    public PendingSave prepareCompact(FinanceData data) {
+        if (file == null) return PendingSave.NONE;
+        generation++;
+        journalBytes = 0;
+        journalMatchesSnapshot = false;
+        journalDamaged = false;
+        pendingJournal.clear();
+        return new TextSave(data, generation, null, false);
+    }
+
+    private void writeSnapshot(FinanceData data, long gen) throws IOException {
+        TextFiles.replace(file, bw -> {
             bw.write("# finance-data v1\n");
+            bw.write(GENERATION_PREFIX + gen + "\n");
             bw.write("[budgets]\n");
             for (Map.Entry<String, BigDecimal> e : data.getBudgets().entrySet()) {
-                bw.write(escape(e.getKey()));
+                bw.write(TextFiles.escape(e.getKey()));
                 bw.write('|');
                 bw.write(e.getValue().toPlainString());
                 bw.write('\n');
             }
             bw.write("[transactions]\n");
-            for (Transaction t : data.getTransactions()) {
-                bw.write(t.getType().name()); bw.write('|');
-                bw.write(t.getDate().toString()); bw.write('|');
-                bw.write(t.getAmount().toPlainString()); bw.write('|');
-                bw.write(escape(nullToEmpty(t.getCategory()))); bw.write('|');
-                bw.write(escape(nullToEmpty(t.getDescription()))); bw.write('\n');
+            for (Transaction t : data.getTransactions()) TextFiles.writeRow(bw, t);
+        });
+        // Any journal on disk now refers to an older generation and would be skipped anyway
+        Files.deleteIfExists(getJournalFile());
+        writeFailed = false;
+    }
+
+    private void writeJournal(byte[] bytes, boolean fresh) throws IOException {
+        // After a failed write the journal may have a gap; only a full snapshot can repair that
+        if (writeFailed) throw new IOException("An earlier save failed; the next save rewrites the whole file");
+        StandardOpenOption mode = fresh ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND;
+        try (FileChannel ch = FileChannel.open(getJournalFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(false);
+        }
+    }
+
+    /** Either a full snapshot or a batch of journal records. */
+    private final class TextSave implements PendingSave {
+        private final FinanceData snapshot; // full rewrite, or null for a journal append
+        private final long generation;
+        private final byte[] journal;
+        private final boolean freshJournal;
+
+        TextSave(FinanceData snapshot, long generation, byte[] journal, boolean freshJournal) {
+            this.snapshot = snapshot;
+            this.generation = generation;
+            this.journal = journal;
+            this.freshJournal = freshJournal;
+        }
+
+        @Override
+        public PendingSave coalesce(PendingSave later) {
+            if (later.isEmpty()) return this;
+            if (!(later instanceof TextSave next) || next.owner() != owner()) return null;
+            // A snapshot holds everything recorded before it
+            if (next.snapshot != null) return next;
+            // Journal records prepared after a snapshot belong to the new generation and must follow it
+            if (snapshot != null || next.freshJournal) return null;
+            byte[] both = new byte[journal.length + next.journal.length];
+            System.arraycopy(journal, 0, both, 0, journal.length);
+            System.arraycopy(next.journal, 0, both, journal.length, next.journal.length);
+            return new TextSave(null, 0, both, freshJournal);
+        }
+
+        @Override
+        public void write() throws IOException {
+            try {
+                if (snapshot != null) writeSnapshot(snapshot, generation);
+                else writeJournal(journal, freshJournal);
+            } catch (IOException | RuntimeException e) {
+                writeFailed = true;
+                throw e;
             }
         }
+
+        private PlainTextStore owner() { return PlainTextStore.this; }
     }
 
     public Path getFile() { return file; }
 
-    private static String nullToEmpty(String s) { return s == null ? "" : s; }
+    @Override
+    public Path getLocation() { return file; }
+
+    public Path getJournalFile() {
+        return file.resolveSibling(file.getFileName() + ".journal");
+    }
+
+    public boolean isJournaled() { return journaled; }
+
+    /** Snapshot lines and journal records the last {@link #load} could not parse and left out. */
+    public int getSkippedLines() { return skippedLines; }
+
+    @Override
+    public int getUnreadableRecords() { return skippedLines; }
+
+    /**
+     * True when the next {@link #save} rewrites the snapshot, i.e. needs the complete transaction list.
+     * An append-only journal save only writes what was recorded since the previous save.
+     */
+    public boolean needsSnapshot() throws IOException {
+        return file != null && (!journaled || journalDamaged || writeFailed || !Files.exists(file) || shouldCompact());
+    }
+
+    @Override
+    public void recordAdd(Transaction t) {
+        if (!journaled) return;
+        StringBuilder sb = new StringBuilder("ADD|").append(t.getId()).append('|');
+        TextFiles.appendTransaction(sb, t);
+        pendingJournal.add(sb.toString());
+    }
+
+    @Override
+    public void recordEdit(Transaction before, Transaction after) {
+        if (!journaled) return;
+        StringBuilder sb = new StringBuilder("EDIT|").append(after.getId()).append('|');
+        TextFiles.appendTransaction(sb, after);
+        pendingJournal.add(sb.toString());
+    }
 
-    private static String escape(String s) {
-        return s.replace("\\", "\\\\").replace("|", "\\|");
+    @Override
+    public void recordDelete(Transaction removed) {
+        if (!journaled) return;
+        pendingJournal.add("DEL|" + removed.getId());
     }
 
-    private static String unescape(String s) {
-        StringBuilder out = new StringBuilder();
-        boolean esc = false;
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (esc) {
-                out.append(c);
-                esc = false;
-            } else if (c == '\\') {
-                esc = true;
-            } else {
-                out.append(c);
+    @Override
+    public void recordBudget(String category, BigDecimal limit) {
+        if (!journaled) return;
+        pendingJournal.add("BUDGET|" + TextFiles.escape(category) + "|" + limit.toPlainString());
+    }
+
+    @Override
+    public void recordBudgetRemoved(String category) {
+        if (!journaled) return;
+        pendingJournal.add("UNBUDGET|" + TextFiles.escape(category));
+    }
+
+    private boolean shouldCompact() throws IOException {
+        long snapshotBytes = Files.size(file);
+        return journalBytes > Math.max(COMPACT_MIN_BYTES, snapshotBytes / 2);
+    }
+
+    private void replayJournal(FinanceData data) {
+        Path journal = getJournalFile();
+        if (!Files.exists(journal)) return;
+        try (BufferedReader br = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String header = br.readLine();
+            if (header == null || !header.startsWith(JOURNAL_HEADER)) return;
+            long base;
+            try {
+                base = Long.parseLong(header.substring(JOURNAL_HEADER.length()).trim());
+            } catch (NumberFormatException e) {
+                journalDamaged = true;
+                skippedLines++;
+                return;
             }
+            if (base != generation) return; // stale journal from before the last compaction
+            journalMatchesSnapshot = true;
+            journalBytes = Files.size(journal);
+            int skipped = replayById(br, data);
+            skippedLines += skipped;
+            journalDamaged = skipped > 0;
+        } catch (IOException e) {
+            // Records read before the failure stay applied
+            journalDamaged = true;
+            skippedLines++;
         }
-        return out.toString();
-    }
-
-    private static String[] splitEscaped(String s, char sep, int expectedParts) {
-        List<String> parts = new ArrayList<>(expectedParts);
-        StringBuilder cur = new StringBuilder();
-        boolean esc = false;
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (esc) {
-                cur.append(c);
-                esc = false;
-            } else if (c == '\\') {
-                esc = true;
-            } else if (c == sep) {
-                parts.add(cur.toString());
-                cur.setLength(0);
-            } else {
-                cur.append(c);
+    }
+
+    /** Applies the journal's records in order and returns how many could not be read. */
+    private static int replayById(BufferedReader br, FinanceData data) throws IOException {
+        Map<Long, Transaction> byId = new HashMap<>();
+        for (Transaction t : data.getTransactions()) byId.put(t.getId(), t);
+        int skipped = 0;
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                try {
+                    String[] parts = TextFiles.splitEscaped(line, '|', 7);
+                    switch (parts[0]) {
+                        case "ADD" -> {
+                            Transaction t = parseTransaction(parts, 2);
+                            t.setId(Long.parseLong(parts[1]));
+                            byId.put(t.getId(), t);
+                        }
+                        case "EDIT" -> {
+                            Transaction t = byId.get(Long.parseLong(parts[1]));
+                            if (t != null) copyFields(parseTransaction(parts, 2), t);
+                        }
+                        case "DEL" -> byId.remove(Long.parseLong(parts[1]));
+                        case "BUDGET" -> data.getBudgets().put(parts[1], new BigDecimal(parts[2]));
+                        case "UNBUDGET" -> data.getBudgets().remove(parts[1]);
+                        default -> skipped++;
+                    }
+                } catch (RuntimeException e) {
+                    // A torn record (e.g. crash mid-append) or damaged line
+                    skipped++;
+                }
             }
+        } finally {
+            data.setTransactions(new ArrayList<>(byId.values()));
         }
-        parts.add(cur.toString());
-        return parts.toArray(new String[0]);
+        return skipped;
+    }
+
+    private static void copyFields(Transaction from, Transaction to) {
+        to.setType(from.getType());
+        to.setDate(from.getDate());
+        to.setAmount(from.getAmount());
+        to.setCategory(from.getCategory());
+        to.setDescription(from.getDescription());
     }
-}
 
+    /** Numbers rows that have no id yet after the highest id present, keeping their order. */
+    private static void assignMissingIds(List<Transaction> txns) {
+        long nextId = 1;
+        for (Transaction t : txns) nextId = Math.max(nextId, t.getId() + 1);
+        for (Transaction t : txns) {
+            if (t.getId() <= 0) t.setId(nextId++);
+        }
+    }
+
+    private static Transaction parseTransaction(String[] parts, int offset) {
+        TransactionType type = TransactionType.valueOf(parts[offset]);
+        LocalDate date = LocalDate.parse(parts[offset + 1]);
+        BigDecimal amount = new BigDecimal(parts[offset + 2]);
+        String category = parts[offset + 3];
+        String description = parts[offset + 4];
+        return new Transaction(type, date, amount, category, description);
+    }
+}
@@ -0,0 +1,385 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.FinanceData;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Single-pass parser for finance-data v1 snapshots (see {@link PlainTextStore}).
+ * Works on the UTF-8 bytes directly: every structural character of the format is ASCII, so fields
+ * are located without decoding the file, and only description (and first-seen category) strings
+ * are materialized. Dates and plain decimal amounts take hand-rolled fast paths and fall back to
+ * {@link LocalDate#parse} / {@link BigDecimal#BigDecimal(String)} for anything unusual.
+ * A line that fails to parse is skipped and counted; the rest of the file still loads.
+ */
+final class SnapshotParser {
+    private static final byte[] GENERATION = "# generation ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BUDGETS = "[budgets]".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSACTIONS = "[transactions]".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INCOME = "INCOME".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXPENSE = "EXPENSE".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_FIELDS = 6;
+
+    private static final int OTHER = 0, IN_BUDGETS = 1, IN_TRANSACTIONS = 2;
+
+    /** Snapshots at least this large are worth splitting across threads. */
+    static final int PARALLEL_MIN_BYTES = 4 << 20;
+    private static final int MIN_CHUNK_BYTES = 1 << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final ByteBuffer buf;
+    private final int limit;
+
+    // Field bounds of the current line; reused for every line
+    private final int[] fieldStart = new int[MAX_FIELDS];
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+    private final boolean[] fieldEscaped = new boolean[MAX_FIELDS];
+    private byte[] scratch = new byte[256];
+
+    private final Interner categories = new Interner();
+    private int lastDateStart = -1;
+    private LocalDate lastDate;
+
+    private int section = OTHER;
+    private boolean sawSectionHeader;
+    private long generation;
+    private int skippedLines;
+
+    SnapshotParser(ByteBuffer buf) {
+        this.buf = buf;
+        this.limit = buf.limit();
+    }
+
+    long generation() { return generation; }
+
+    int skippedLines() { return skippedLines; }
+
+    void parse(FinanceData data) {
+        parseLines(buf.position(), limit, data, false);
+    }
+
+    /**
+     * Parses the header (everything up to the {@code [transactions]} line) on the calling thread, then
+     * splits the rest into newline-aligned chunks that are parsed in parallel on the common fork-join
+     * pool and appended in file order. A chunk that fails outright is dropped and its lines counted as
+     * skipped; the other chunks still load. If a chunk runs into another section header the chunk
+     * boundaries cannot know which section they start in, so the body is re-parsed sequentially.
+     */
+    void parseParallel(FinanceData data) {
+        int body = parseLines(buf.position(), limit, data, true);
+        if (body >= limit) return;
+        int parallelism = Math.max(1, ForkJoinPool.getCommonPoolParallelism() + 1);
+        int chunkBytes = Math.max(MIN_CHUNK_BYTES, (limit - body) / (parallelism * CHUNKS_PER_THREAD) + 1);
+        List<ChunkTask> chunks = new ArrayList<>();
+        for (int from = body; from < limit; ) {
+            int to = Math.min(limit, from + chunkBytes);
+            while (to < limit && buf.get(to - 1) != '\n') to++;
+            chunks.add(new ChunkTask(buf.duplicate(), from, to));
+            from = to;
+        }
+        ForkJoinTask.invokeAll(chunks.stream().map(ForkJoinTask::adapt).toList());
+
+        for (ChunkTask chunk : chunks) {
+            if (chunk.sawSectionHeader) {
+                parseLines(body, limit, data, false);
+                return;
+            }
+        }
+        for (ChunkTask chunk : chunks) {
+            if (chunk.rows == null) {
+                skippedLines += countLines(chunk.from, chunk.to);
+            } else {
+                data.getTransactions().addAll(chunk.rows);
+                skippedLines += chunk.skipped;
+            }
+        }
+    }
+
+    /**
+     * Parses lines in [from, to) in the current section.
+     * @return where parsing stopped: {@code to}, or just past the {@code [transactions]} line if asked to stop there
+     */
+    private int parseLines(int from, int to, FinanceData data, boolean stopAtTransactions) {
+        int pos = from;
+        while (pos < to) {
+            int end = pos;
+            while (end < to && buf.get(end) != '\n') end++;
+            int next = end + 1;
+            if (end > pos && buf.get(end - 1) == '\r') end--;
+            while (pos < end && isBlank(buf.get(pos))) pos++;
+            if (pos < end) {
+                try {
+                    byte first = buf.get(pos);
+                    if (first == '#') {
+                        if (startsWith(pos, end, GENERATION)) generation = parseLong(pos + GENERATION.length, trimEnd(pos, end));
+                    } else if (first == '[') {
+                        int e = trimEnd(pos, end);
+                        section = equalsAscii(pos, e, BUDGETS) ? IN_BUDGETS : equalsAscii(pos, e, TRANSACTIONS) ? IN_TRANSACTIONS : OTHER;
+                        sawSectionHeader = true;
+                        if (stopAtTransactions && section == IN_TRANSACTIONS) return Math.min(next, to);
+                    } else if (section == IN_TRANSACTIONS) {
+                        data.getTransactions().add(parseTransaction(pos, end));
+                    } else if (section == IN_BUDGETS) {
+                        if (split(pos, end) != 2) throw new IllegalArgumentException("Budget line needs 2 fields");
+                        data.getBudgets().put(string(0), amount(1));
+                    }
+                } catch (RuntimeException e) {
+                    skippedLines++;
+                }
+            }
+            pos = next;
+        }
+        return to;
+    }
+
+    private int countLines(int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) if (buf.get(i) == '\n') n++;
+        return to > from && buf.get(to - 1) != '\n' ? n + 1 : n;
+    }
+
+    /** Parses one chunk of the transaction section with its own parser state. */
+    private static final class ChunkTask implements Runnable {
+        private final ByteBuffer buf;
+        final int from, to;
+        List<Transaction> rows; // null if the chunk failed as a whole
+        int skipped;
+        boolean sawSectionHeader;
+
+        ChunkTask(ByteBuffer buf, int from, int to) {
+            this.buf = buf;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void run() {
+            try {
+                SnapshotParser parser = new SnapshotParser(buf);
+                parser.section = IN_TRANSACTIONS;
+                FinanceData part = new FinanceData();
+                part.setTransactions(new ArrayList<>((to - from) / 48 + 1));
+                parser.parseLines(from, to, part, false);
+                sawSectionHeader = parser.sawSectionHeader;
+                skipped = parser.skippedLines;
+                rows = part.getTransactions();
+            } catch (RuntimeException e) {
+                rows = null;
+            }
+        }
+    }
+
+    private Transaction parseTransaction(int from, int to) {
+        int n = split(from, to);
+        if (n < 5) throw new IllegalArgumentException("Transaction line needs at least 5 fields");
+        TransactionType type = type(0);
+        LocalDate date = date(1);
+        BigDecimal amount = amount(2);
+        String category = category(3);
+        String description = string(4);
+        Transaction t = new Transaction(type, date, amount, category, description);
+        if (n >= 6 && fieldEnd[5] > fieldStart[5]) t.setId(parseLong(fieldStart[5], fieldEnd[5]));
+        return t;
+    }
+
+    /** Locates up to {@link #MAX_FIELDS} '|'-separated fields; returns how many there are (capped). */
+    private int split(int from, int to) {
+        int n = 0;
+        fieldStart[0] = from;
+        fieldEscaped[0] = false;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b == '\\') {
+                fieldEscaped[n] = true;
+                i++;
+            } else if (b == '|') {
+                fieldEnd[n] = i;
+                if (++n == MAX_FIELDS) return n; // extra fields are ignored
+                fieldStart[n] = i + 1;
+                fieldEscaped[n] = false;
+            }
+        }
+        fieldEnd[n] = to;
+        return n + 1;
+    }
+
+    private TransactionType type(int f) {
+        int s = fieldStart[f], e = fieldEnd[f];
+        if (equalsAscii(s, e, EXPENSE)) return TransactionType.EXPENSE;
+        if (equalsAscii(s, e, INCOME)) return TransactionType.INCOME;
+        return TransactionType.valueOf(string(f));
+    }
+
+    /** yyyy-MM-dd directly from the digits; consecutive rows on the same date share one instance. */
+    private LocalDate date(int f) {
+        int s = fieldStart[f], e = fieldEnd[f];
+        if (e - s != 10 || buf.get(s + 4) != '-' || buf.get(s + 7) != '-') return LocalDate.parse(string(f));
+        if (lastDateStart >= 0 && sameBytes(lastDateStart, s, 10)) return lastDate;
+        int y = digits(s, s + 4), m = digits(s + 5, s + 7), d = digits(s + 8, s + 10);
+        LocalDate date = y < 0 || m < 0 || d < 0 ? LocalDate.parse(string(f)) : LocalDate.of(y, m, d);
+        lastDateStart = s;
+        lastDate = date;
+        return date;
+    }
+
+    /** Plain [-]digits[.digits] with up to 18 digits as an unscaled long; anything else via BigDecimal(String). */
+    private BigDecimal amount(int f) {
+        int s = fieldStart[f], e = fieldEnd[f];
+        int i = s;
+        boolean negative = i < e && buf.get(i) == '-';
+        if (negative) i++;
+        long unscaled = 0;
+        int digitCount = 0, scale = -1;
+        for (; i < e; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                unscaled = unscaled * 10 + (b - '0');
+                digitCount++;
+                if (scale >= 0) scale++;
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                digitCount = -1;
+                break;
+            }
+        }
+        if (digitCount <= 0 || digitCount > 18) return new BigDecimal(string(f));
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, Math.max(scale, 0));
+    }
+
+    private String category(int f) {
+        if (fieldEscaped[f]) return string(f);
+        return categories.intern(fieldStart[f], fieldEnd[f]);
+    }
+
+    /** Materializes field {@code f}, unescaping in the same pass. */
+    private String string(int f) {
+        int s = fieldStart[f], e = fieldEnd[f];
+        if (s == e) return "";
+        if (!fieldEscaped[f] && buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + s, e - s, StandardCharsets.UTF_8);
+        }
+        if (scratch.length < e - s) scratch = new byte[Math.max(e - s, scratch.length * 2)];
+        int n = 0;
+        for (int i = s; i < e; i++) {
+            byte b = buf.get(i);
+            if (b == '\\' && i + 1 < e) b = buf.get(++i);
+            scratch[n++] = b;
+        }
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private long parseLong(int s, int e) {
+        if (e - s > 0 && e - s <= 18) {
+            long v = 0;
+            int i = s;
+            for (; i < e; i++) {
+                byte b = buf.get(i);
+                if (b < '0' || b > '9') break;
+                v = v * 10 + (b - '0');
+            }
+            if (i == e) return v;
+        }
+        return Long.parseLong(ascii(s, e).trim());
+    }
+
+    private int digits(int s, int e) {
+        int v = 0;
+        for (int i = s; i < e; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9') return -1;
+            v = v * 10 + (b - '0');
+        }
+        return v;
+    }
+
+    private String ascii(int s, int e) {
+        byte[] b = new byte[e - s];
+        buf.get(s, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private int trimEnd(int s, int e) {
+        while (e > s && isBlank(buf.get(e - 1))) e--;
+        return e;
+    }
+
+    private boolean startsWith(int s, int e, byte[] prefix) {
+        if (e - s < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) if (buf.get(s + i) != prefix[i]) return false;
+        return true;
+    }
+
+    private boolean equalsAscii(int s, int e, byte[] word) {
+        return e - s == word.length && startsWith(s, e, word);
+    }
+
+    private boolean sameBytes(int a, int b, int len) {
+        for (int i = 0; i < len; i++) if (buf.get(a + i) != buf.get(b + i)) return false;
+        return true;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    /** Open-addressing table from raw category bytes to one shared String, so repeats allocate nothing. */
+    private final class Interner {
+        private byte[][] keys = new byte[64][];
+        private String[] values = new String[64];
+        private int size;
+
+        String intern(int s, int e) {
+            int h = 1;
+            for (int i = s; i < e; i++) h = 31 * h + buf.get(i);
+            int mask = keys.length - 1;
+            for (int i = mix(h) & mask; ; i = (i + 1) & mask) {
+                byte[] k = keys[i];
+                if (k == null) {
+                    byte[] key = new byte[e - s];
+                    buf.get(s, key);
+                    String value = new String(key, StandardCharsets.UTF_8);
+                    keys[i] = key;
+                    values[i] = value;
+                    if (++size * 2 > keys.length) grow();
+                    return value;
+                }
+                if (k.length == e - s && matches(k, s)) return values[i];
+            }
+        }
+
+        private boolean matches(byte[] k, int s) {
+            for (int j = 0; j < k.length; j++) if (k[j] != buf.get(s + j)) return false;
+            return true;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == null) continue;
+                int i = mix(Arrays.hashCode(oldKeys[j])) & mask;
+                while (keys[i] != null) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        private static int mix(int h) {
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.FinanceData;
+import com.jetbrains.finance.model.Money;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Where the ledger is kept. The service opens it once for budgets and month totals and then reads
+ * months as they are needed. Changes are reported through the {@code record*} calls as they happen
+ * and written by {@link #prepareSave}.
+ * <p>
+ * The range queries answer from what was last saved, so the service only asks them about months it
+ * does not hold. Their defaults read month by month; stores with an index on date or category override them.
+ */
+public interface StorageBackend {
+    /** True when there is a stored ledger to open. */
+    boolean exists();
+
+    LedgerManifest open() throws IOException;
+
+    /** Replaces the stored ledger with {@code data}, e.g. to migrate from another store. */
+    void importData(FinanceData data) throws IOException;
+
+    /** The stored transactions of one month, in any order. */
+    List<Transaction> loadMonth(YearMonth month) throws IOException;
+
+    /** Stored transactions dated {@code from} to {@code to} inclusive, in ledger order. */
+    default List<Transaction> loadRange(LocalDate from, LocalDate to) throws IOException {
+        List<Transaction> rows = new ArrayList<>();
+        for (YearMonth ym = YearMonth.from(from); !ym.isAfter(YearMonth.from(to)); ym = ym.plusMonths(1)) {
+            for (Transaction t : loadMonth(ym)) {
+                if (!t.getDate().isBefore(from) && !t.getDate().isAfter(to)) rows.add(t);
+            }
+        }
+        rows.sort(Transaction.LEDGER_ORDER);
+        return rows;
+    }
+
+    /** Row count and totals of the stored transactions dated {@code from} to {@code to} inclusive. */
+    default MonthTotals totals(LocalDate from, LocalDate to) throws IOException {
+        return MonthTotals.of(loadRange(from, to));
+    }
+
+    /** Stored expenses dated {@code from} to {@code to} inclusive, summed by category in minor units. */
+    default Map<String, Long> spentByCategory(LocalDate from, LocalDate to) throws IOException {
+        Map<String, Long> spent = new HashMap<>();
+        for (Transaction t : loadRange(from, to)) {
+            if (t.getType() == TransactionType.EXPENSE) spent.merge(t.getCategory(), Money.toMinor(t.getAmount()), Math::addExact);
+        }
+        return spent;
+    }
+
+    /**
+     * True when {@link #loadMonth} would return the month exactly as the service holds it, i.e. every change
+     * to the month has been written. The service only drops months it can read back.
+     */
+    default boolean canReload(YearMonth month) { return false; }
+
+    void recordAdd(Transaction t);
+
+    void recordEdit(Transaction before, Transaction after);
+
+    void recordDelete(Transaction removed);
+
+    void recordBudget(String category, BigDecimal limit);
+
+    void recordBudgetRemoved(String category);
+
+    /** Captures the changes recorded since the last save; see {@link PendingSave}. */
+    PendingSave prepareSave(Ledger ledger) throws IOException;
+
+    /** Captures a full rewrite of the stored ledger. */
+    PendingSave prepareRewrite(Ledger ledger) throws IOException;
+
+    /** Records (lines, blocks) that could not be read and were skipped, so far; 0 when everything read cleanly. */
+    default int getUnreadableRecords() { return 0; }
+
+    /** The file or folder the ledger is kept in, for display. */
+    Path getLocation();
+
+    /** The service's current state, read on the thread that prepares a save. */
+    interface Ledger {
+        Map<String, BigDecimal> budgets();
+
+        long nextId();
+
+        /** Totals of every month that has rows, resident or not. */
+        NavigableMap<YearMonth, MonthTotals> months();
+
+        /** A month's rows in ledger order, loading the month first if needed. */
+        List<Transaction> rows(YearMonth month);
+    }
+}
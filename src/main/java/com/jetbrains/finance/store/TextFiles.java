@@ -0,0 +1,119 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.Transaction;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Shared pieces of the finance-data text format and crash-safe file replacement. */
+final class TextFiles {
+    private TextFiles() {}
+
+    interface Body {
+        void writeTo(Writer out) throws IOException;
+    }
+
+    /**
+     * Writes {@code file} via a sibling temp file that is forced to disk and then moved into place,
+     * so a crash mid-write leaves the previous contents intact.
+     */
+    static void replace(Path file, Body body) throws IOException {
+        Path parent = file.getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             BufferedWriter bw = new BufferedWriter(Channels.newWriter(ch, StandardCharsets.UTF_8), 1 << 16)) {
+            body.writeTo(bw);
+            bw.flush();
+            ch.force(true);
+        }
+        moveIntoPlace(tmp, file);
+    }
+
+    /** Like {@link #replace(Path, Body)} for binary content. */
+    static void replace(Path file, ByteBuffer content) throws IOException {
+        Path parent = file.getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = content.duplicate();
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        }
+        moveIntoPlace(tmp, file);
+    }
+
+    private static void moveIntoPlace(Path tmp, Path file) throws IOException {
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Writes type|date|amount|category|description (no id, no line end). */
+    static void writeTransaction(Writer w, Transaction t) throws IOException {
+        w.write(t.getType().name()); w.write('|');
+        w.write(t.getDate().toString()); w.write('|');
+        w.write(t.getAmount().toPlainString()); w.write('|');
+        w.write(escape(nullToEmpty(t.getCategory()))); w.write('|');
+        w.write(escape(nullToEmpty(t.getDescription())));
+    }
+
+    /** Writes a snapshot row: the transaction fields, its id and a line end. */
+    static void writeRow(Writer w, Transaction t) throws IOException {
+        writeTransaction(w, t);
+        w.write('|');
+        w.write(Long.toString(t.getId()));
+        w.write('\n');
+    }
+
+    static void appendTransaction(StringBuilder sb, Transaction t) {
+        sb.append(t.getType().name()).append('|')
+          .append(t.getDate()).append('|')
+          .append(t.getAmount().toPlainString()).append('|')
+          .append(escape(nullToEmpty(t.getCategory()))).append('|')
+          .append(escape(nullToEmpty(t.getDescription())));
+    }
+
+    static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("|", "\\|");
+    }
+
+    /** Splits on unescaped separators; the returned fields are already unescaped. */
+    static String[] splitEscaped(String s, char sep, int expectedParts) {
+        List<String> parts = new ArrayList<>(expectedParts);
+        StringBuilder cur = new StringBuilder();
+        boolean esc = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (esc) {
+                cur.append(c);
+                esc = false;
+            } else if (c == '\\') {
+                esc = true;
+            } else if (c == sep) {
+                parts.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        parts.add(cur.toString());
+        return parts.toArray(new String[0]);
+    }
+
+    private static String nullToEmpty(String s) { return s == null ? "" : s; }
+}
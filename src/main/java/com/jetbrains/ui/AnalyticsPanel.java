@@ -1,7 +1,10 @@
 package com.jetbrains.ui;
 
+import com.jetbrains.finance.model.Money;
 import com.jetbrains.finance.service.FinanceService;
+import com.jetbrains.finance.service.LedgerEvent;
 import com.jetbrains.finance.service.MonthlySummary;
+import com.jetbrains.finance.service.YearSummary;
 
 import javax.swing.*;
 import java.awt.*;
@@ -11,7 +14,6 @@ import java.time.Month;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -23,6 +25,7 @@ import java.util.function.Supplier;
  */
 public class AnalyticsPanel extends JPanel {
     private final FinanceService service;
+    private final RefreshScheduler refresher;
     private final Supplier<YearMonth> monthSupplier;
     private final Consumer<YearMonth> onMonthSelected;
 
@@ -30,10 +33,25 @@ public class AnalyticsPanel extends JPanel {
     private final JLabel momLabel = new JLabel();
     private final YearBarChart yearChart = new YearBarChart();
     private final JComboBox<Integer> yearBox = new JComboBox<>();
-
-    public AnalyticsPanel(FinanceService service, Supplier<YearMonth> monthSupplier, Consumer<YearMonth> onMonthSelected) {
+    // Set while the year list is rebuilt, so the selection changes it makes do not each redraw the chart
+    private boolean fillingYears;
+    // Set when a change left the donut or the year chart out of date, until fresh data is drawn
+    private boolean monthStale;
+    private boolean chartStale;
+    // The year to select on the next reload, if the user or a month switch asked for one; null keeps the selection
+    private Integer wantedYear;
+
+    /**
+     * What the panel shows, read off the event dispatch thread. A null {@code summary} leaves the donut and
+     * comparison as they are, and a null {@code chart} the year chart; {@code year} is the one to select.
+     */
+    private record Model(MonthlySummary summary, MonthlySummary previous, List<Integer> years, Integer year, List<YearSummary> chart) {}
+
+    public AnalyticsPanel(FinanceService service, RefreshScheduler refresher, Supplier<YearMonth> monthSupplier,
+                          Consumer<YearMonth> onMonthSelected) {
         super(new BorderLayout(10,10));
         this.service = service;
+        this.refresher = refresher;
         this.monthSupplier = monthSupplier;
         this.onMonthSelected = onMonthSelected == null ? ym -> {} : onMonthSelected;
 
@@ -92,7 +110,13 @@ public class AnalyticsPanel extends JPanel {
 
         add(center, BorderLayout.CENTER);
 
-        yearBox.addActionListener(e -> updateYearChart());
+        yearBox.addActionListener(e -> {
+            Integer y = (Integer) yearBox.getSelectedItem();
+            if (fillingYears || y == null) return;
+            wantedYear = y;
+            chartStale = true;
+            refresher.whenShowing(this, this::reload);
+        });
         yearChart.setOnBarClicked(idx -> {
             Integer y = (Integer) yearBox.getSelectedItem();
             if (y == null) return;
@@ -101,75 +125,127 @@ public class AnalyticsPanel extends JPanel {
         });
 
         refresh();
+        service.addChangeListener(UIUtils.onEdt(this::onLedgerChanged));
     }
 
+    /** Redraws everything for the current month and selects its year, once the panel is shown. */
     public void refresh() {
+        wantedYear = monthSupplier.get().getYear();
+        monthStale = true;
+        chartStale = true;
+        refresher.whenShowing(this, this::reload);
+    }
+
+    /**
+     * Redoes the donut and comparison only if the change touched the shown month or the one before it, and the
+     * year chart only if it touched the selected year or the year it is compared with. Flags pile up until drawn,
+     * so a reload that supersedes another, or waits for the tab to be shown, still does what both needed.
+     */
+    private void onLedgerChanged(LedgerEvent event) {
+        if (!(event instanceof LedgerEvent.TransactionsChanged change)) return;
+        YearMonth ym = monthSupplier.get();
+        int year = yearToShow(ym);
+        monthStale |= change.touches(ym) || change.touches(ym.minusMonths(1));
+        chartStale |= change.touchesYear(year) || change.touchesYear(year - 1);
+        refresher.whenShowing(this, this::reload);
+    }
+
+    private int yearToShow(YearMonth ym) {
+        Integer selected = (Integer) yearBox.getSelectedItem();
+        return wantedYear != null ? wantedYear : selected != null ? selected : ym.getYear();
+    }
+
+    private void reload() {
         YearMonth ym = monthSupplier.get();
+        int year = yearToShow(ym);
+        boolean month = monthStale, chart = chartStale;
+        refresher.submit(this, () -> load(ym, month ? service.getMonthlySummary(ym) : null, year, chart), this::show);
+    }
+
+    /**
+     * The model for {@code ym}, selecting {@code preferYear} if it has data. {@code summary} is the month's, or
+     * null to leave the donut alone; the year chart is read if {@code chart} is set or another year gets selected.
+     * Called off the event dispatch thread.
+     */
+    private Model load(YearMonth ym, MonthlySummary summary, int preferYear, boolean chart) {
+        MonthlySummary previous = summary == null ? null : service.getMonthlySummary(ym.minusMonths(1));
+        List<Integer> years = new ArrayList<>();
+        for (YearMonth m : service.getAvailableMonths()) if (!years.contains(m.getYear())) years.add(m.getYear());
+        years.sort(Comparator.naturalOrder());
+        Integer year = years.contains(preferYear) ? Integer.valueOf(preferYear) : years.isEmpty() ? null : years.get(years.size()-1);
+        List<YearSummary> summaries = year != null && (chart || year != preferYear) ? service.getYearSummaries(year - 1, year, false) : null;
+        return new Model(summary, previous, years, year, summaries);
+    }
+
+    private void show(Model model) {
+        wantedYear = null;
+        if (model.summary() != null) {
+            showMonth(model.summary(), model.previous());
+            monthStale = false;
+        }
+        showYears(model.years(), model.year());
+        if (model.chart() != null) {
+            showYearChart(model.year(), model.chart());
+            chartStale = false;
+        }
+    }
+
+    private void showMonth(MonthlySummary ms, MonthlySummary prevMs) {
         // Donut
-        MonthlySummary ms = service.getMonthlySummary(ym);
-        donut.setData(ms.totalIncome(), ms.totalExpense(), UIUtils.CURRENCY.format(ms.net()));
+        donut.setData(ms.totalIncome().toBigDecimal(), ms.totalExpense().toBigDecimal(), UIUtils.CURRENCY.format(ms.net().toBigDecimal()));
         // MoM comparison
-        YearMonth prev = ym.minusMonths(1);
-        MonthlySummary prevMs = service.getMonthlySummary(prev);
-        BigDecimal currExp = ms.totalExpense();
-        BigDecimal prevExp = prevMs.totalExpense();
+        Money currExp = ms.totalExpense();
+        Money prevExp = prevMs.totalExpense();
         String momText;
         int cmp = currExp.compareTo(prevExp);
-        BigDecimal diff = currExp.subtract(prevExp).abs();
-        if (prevExp.compareTo(BigDecimal.ZERO) == 0) {
-            momText = String.format("Compared to last month: spent %s (no prior baseline)", UIUtils.CURRENCY.format(currExp));
+        Money diff = currExp.minus(prevExp).abs();
+        if (prevExp.isZero()) {
+            momText = String.format("Compared to last month: spent %s (no prior baseline)", UIUtils.CURRENCY.format(currExp.toBigDecimal()));
         } else if (cmp > 0) {
-            double pct = safePct(currExp, prevExp);
-            momText = String.format("You spent %s more than last month (%1.0f%% ↑)", UIUtils.CURRENCY.format(diff), pct);
+            double pct = diff.percentOf(prevExp);
+            momText = String.format("You spent %s more than last month (%1.0f%% ↑)", UIUtils.CURRENCY.format(diff.toBigDecimal()), pct);
         } else if (cmp < 0) {
-            double pct = safePct(currExp, prevExp);
-            momText = String.format("Nice! You spent %s less than last month (%1.0f%% ↓)", UIUtils.CURRENCY.format(diff), pct);
+            double pct = diff.percentOf(prevExp);
+            momText = String.format("Nice! You spent %s less than last month (%1.0f%% ↓)", UIUtils.CURRENCY.format(diff.toBigDecimal()), pct);
         } else {
             momText = "You spent exactly the same as last month.";
         }
         momLabel.setText(momText);
-
-        // Year selector and chart
-        populateYearBox(ym.getYear());
-        updateYearChart();
-        // highlight the current month if the same year is selected
-        Integer y = (Integer) yearBox.getSelectedItem();
-        if (y != null && y == ym.getYear()) {
-            yearChart.setSelectedIndex(ym.getMonthValue() - 1);
-        } else {
-            yearChart.setSelectedIndex(-1);
-        }
     }
 
-    private static double safePct(BigDecimal a, BigDecimal b) {
-        if (b.compareTo(BigDecimal.ZERO) == 0) return 100.0;
-        try { return a.subtract(b).abs().multiply(new BigDecimal("100")).divide(b, 0, java.math.RoundingMode.HALF_UP).doubleValue(); }
-        catch (Exception ex) { return 0.0; }
-    }
-
-    private void populateYearBox(int preferYear) {
-        Set<YearMonth> months = service.getAvailableMonths();
-        List<Integer> years = new ArrayList<>();
-        for (YearMonth m : months) if (!years.contains(m.getYear())) years.add(m.getYear());
-        years.sort(Comparator.naturalOrder());
-        DefaultComboBoxModel<Integer> model = new DefaultComboBoxModel<>(years.toArray(new Integer[0]));
-        yearBox.setModel(model);
-        if (years.contains(preferYear)) yearBox.setSelectedItem(preferYear);
-        else if (!years.isEmpty()) yearBox.setSelectedIndex(years.size()-1);
+    /** Fills the year selector if its list changed and selects {@code year}. */
+    private void showYears(List<Integer> years, Integer year) {
+        List<Integer> shown = new ArrayList<>();
+        for (int i = 0; i < yearBox.getItemCount(); i++) shown.add(yearBox.getItemAt(i));
+        fillingYears = true;
+        try {
+            if (!years.equals(shown)) yearBox.setModel(new DefaultComboBoxModel<>(years.toArray(new Integer[0])));
+            if (year != null) yearBox.setSelectedItem(year);
+        } finally {
+            fillingYears = false;
+        }
     }
 
-    private void updateYearChart() {
-        Integer y = (Integer) yearBox.getSelectedItem();
-        if (y == null) return;
+    private void showYearChart(int y, List<YearSummary> years) {
         String[] labels = new String[12];
         BigDecimal[] vals = new BigDecimal[12];
+        YearSummary year = years.get(1);
         for (int i = 0; i < 12; i++) {
             labels[i] = Month.of(i+1).name().substring(0,3);
-            YearMonth ym = YearMonth.of(y, i+1);
-            MonthlySummary s = service.getMonthlySummary(ym);
-            vals[i] = s.totalExpense();
+            vals[i] = year.months().get(i).totalExpense().toBigDecimal();
+        }
+        // Year over year: compare with the previous year's spending when there is any
+        Money spent = year.total().totalExpense(), before = years.get(0).total().totalExpense();
+        String yoy = "";
+        if (!before.isZero()) {
+            int cmp = spent.compareTo(before);
+            yoy = cmp == 0 ? " (same as " + (y - 1) + ")"
+                    : String.format(" (%1.0f%% %s than %d)", spent.minus(before).abs().percentOf(before), cmp > 0 ? "more" : "less", y - 1);
         }
-        yearChart.setData(labels, vals, "Expenses in " + y);
+        yearChart.setData(labels, vals, "Expenses in " + y + yoy);
+        // highlight the current month if the same year is selected
+        YearMonth ym = monthSupplier.get();
+        yearChart.setSelectedIndex(y == ym.getYear() ? ym.getMonthValue() - 1 : -1);
         repaint();
     }
 }
@@ -2,10 +2,14 @@ package com.jetbrains.ui;
 
 import com.jetbrains.finance.model.TransactionType;
 import com.jetbrains.finance.service.FinanceService;
+import com.jetbrains.finance.service.LedgerEvent;
+import com.jetbrains.finance.service.SaveScheduler;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Files;
@@ -13,6 +17,8 @@ import java.time.YearMonth;
 
 public class AppFrame extends JFrame {
     private final FinanceService service;
+    private final SaveScheduler saver;
+    private final RefreshScheduler refresher;
     private YearMonth currentMonth;
 
     private final JLabel monthLabel = new JLabel();
@@ -31,8 +37,17 @@ public class AppFrame extends JFrame {
         super("Personal Finance");
         this.service = service;
         this.currentMonth = startMonth;
+        this.saver = new SaveScheduler(service, report -> SwingUtilities.invokeLater(() -> onSaved(report)));
+        this.refresher = new RefreshScheduler(ex -> statusLabel.setText("Refresh failed: " + ex.getMessage()));
 
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // Let queued saves reach the disk before the JVM exits
+        addWindowListener(new WindowAdapter() {
+            @Override public void windowClosing(WindowEvent e) {
+                refresher.close();
+                saver.close();
+            }
+        });
         setSize(1000, 680);
         setLocationRelativeTo(null);
 
@@ -40,10 +55,10 @@ public class AppFrame extends JFrame {
 
         // Tabs (init panels early so listeners can reference them)
         tabs = new JTabbedPane();
-        summaryPanel = new SummaryPanel(service, () -> currentMonth);
-        transactionsPanel = new TransactionsPanel(service, () -> currentMonth, this::doSave, this::refreshAll);
-        budgetsPanel = new BudgetsPanel(service, this::doSave, this::refreshAll);
-        analyticsPanel = new AnalyticsPanel(service, () -> currentMonth, ym -> { this.currentMonth = ym; refreshAll(); });
+        summaryPanel = new SummaryPanel(service, refresher, () -> currentMonth);
+        transactionsPanel = new TransactionsPanel(service, refresher, () -> currentMonth, this::doSave);
+        budgetsPanel = new BudgetsPanel(service, refresher, this::doSave);
+        analyticsPanel = new AnalyticsPanel(service, refresher, () -> currentMonth, ym -> { this.currentMonth = ym; showMonth(); });
         tabs.addTab("Summary", summaryPanel);
         tabs.addTab("Transactions", transactionsPanel);
         tabs.addTab("Budgets", budgetsPanel);
@@ -87,8 +102,8 @@ public class AppFrame extends JFrame {
         topBar.add(Box.createHorizontalStrut(20));
         topBar.add(exportBtn); topBar.add(saveBtn);
 
-        prevBtn.addActionListener(e -> { currentMonth = currentMonth.minusMonths(1); refreshAll(); });
-        nextBtn.addActionListener(e -> { currentMonth = currentMonth.plusMonths(1); refreshAll(); });
+        prevBtn.addActionListener(e -> { currentMonth = currentMonth.minusMonths(1); showMonth(); });
+        nextBtn.addActionListener(e -> { currentMonth = currentMonth.plusMonths(1); showMonth(); });
         selectBtn.addActionListener(this::onSelectMonth);
         exportBtn.addActionListener(this::onExportCsv);
         addIncomeBtn.addActionListener(e -> transactionsPanel.addTransactionDialog(TransactionType.INCOME));
@@ -112,7 +127,14 @@ public class AppFrame extends JFrame {
         getContentPane().add(tabs, BorderLayout.CENTER);
         getContentPane().add(status, BorderLayout.SOUTH);
 
-        refreshAll();
+        showMonth();
+        // Each panel redraws what a change touches; only the status line is left here
+        service.addChangeListener(UIUtils.onEdt(event -> {
+            if (event instanceof LedgerEvent.TransactionsChanged change && change.touches(currentMonth)) {
+                YearMonth ym = currentMonth;
+                refresher.submit(statusLabel, () -> service.getMonthTransactionCount(ym), this::showStatus);
+            }
+        }));
     }
 
     private JMenuBar buildMenu() {
@@ -121,7 +143,7 @@ public class AppFrame extends JFrame {
         JMenuItem miSave = new JMenuItem("Save"); miSave.addActionListener(e -> doSave());
         JMenuItem miExport = new JMenuItem("Export CSV..."); miExport.addActionListener(this::onExportCsv);
         JMenuItem miOpenFolder = new JMenuItem("Open Data Folder"); miOpenFolder.addActionListener(e -> openDataFolder());
-        JMenuItem miExit = new JMenuItem("Exit"); miExit.addActionListener(e -> dispose());
+        JMenuItem miExit = new JMenuItem("Exit"); miExit.addActionListener(e -> dispatchEvent(new WindowEvent(this, WindowEvent.WINDOW_CLOSING)));
         file.add(miSave); file.add(miExport); file.addSeparator(); file.add(miOpenFolder); file.addSeparator(); file.add(miExit);
 
         JMenu view = new JMenu("View");
@@ -130,7 +152,8 @@ public class AppFrame extends JFrame {
             UIUtils.clearTableState("transactions");
             UIUtils.clearTableState("budgets");
             UIUtils.clearTableState("summary");
-            refreshAll();
+            showMonth();
+            budgetsPanel.refresh();
             JOptionPane.showMessageDialog(this, "Table layouts reset. Column widths and sorting will revert to defaults.");
         });
         view.add(miResetTables);
@@ -234,11 +257,23 @@ public class AppFrame extends JFrame {
     }
 
     private void showAbout() {
+        var stats = service.getResidencyStats();
         JOptionPane.showMessageDialog(this,
-                "Personal Finance App\nData file: " + service.getDataFile().toAbsolutePath(),
+                "Personal Finance App\nData file: " + service.getDataFile().toAbsolutePath()
+                        + String.format("\nMonths in memory: %d of %d%s\nEvictions: %d, hit rate: %.0f%%",
+                        stats.residentMonths(), stats.storedMonths(),
+                        stats.limit() == 0 ? "" : " (limit " + stats.limit() + ")",
+                        stats.evictions(), stats.hitRate() * 100)
+                        + refreshStats(),
                 "About", JOptionPane.INFORMATION_MESSAGE);
     }
 
+    private String refreshStats() {
+        RefreshScheduler.Stats stats = refresher.stats();
+        return String.format("\nRefreshes: %d drawn, %d superseded, %d held for hidden tabs; UI thread time per refresh: mean %.1f ms, max %.1f ms",
+                stats.applied(), stats.superseded(), stats.deferred(), stats.meanEdtMicros() / 1000, stats.maxEdtMicros() / 1000.0);
+    }
+
     private void openDataFolder() {
         try {
             Path p = service.getDataFile();
@@ -253,7 +288,7 @@ public class AppFrame extends JFrame {
         if (in == null || in.isBlank()) return;
         try {
             currentMonth = YearMonth.parse(in.trim());
-            refreshAll();
+            showMonth();
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Invalid year-month.", "Error", JOptionPane.ERROR_MESSAGE);
         }
@@ -291,20 +326,40 @@ public class AppFrame extends JFrame {
 
     private void doSave() {
         try {
-            service.save();
-            statusLabel.setText("Saved " + currentMonth + " ");
+            saver.requestSave();
         } catch (IOException ex) {
             JOptionPane.showMessageDialog(this, "Save failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
-    private void refreshAll() {
-        monthLabel.setText("  " + currentMonth + "  ");
+    private void onSaved(SaveScheduler.SaveReport report) {
+        if (report.error() != null) {
+            statusLabel.setText("Save failed");
+            JOptionPane.showMessageDialog(this, "Save failed: " + report.error().getMessage()
+                    + "\nYour changes are kept in memory; Save again to retry.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        String changes = report.requests() == 1 ? "" : " (" + report.requests() + " changes)";
+        statusLabel.setText("Saved in " + report.millis() + " ms" + changes);
+    }
+
+    /**
+     * Redraws the tabs that depend on the month after switching to another; budgets do not, and are left alone.
+     * Only the tab in view reads the month now; the others wait until they are shown, so clicking through months
+     * on one tab costs that tab's queries alone.
+     */
+    private void showMonth() {
+        YearMonth ym = currentMonth;
+        monthLabel.setText("  " + ym + "  ");
         summaryPanel.refresh();
         transactionsPanel.refresh();
-        budgetsPanel.refresh();
         analyticsPanel.refresh();
-        int count = service.getMonthTransactionCount(currentMonth);
-        statusLabel.setText("Showing " + currentMonth + " - " + count + " transaction" + (count==1?"":"s"));
+        refresher.submit(statusLabel, () -> service.getMonthTransactionCount(ym), this::showStatus);
+    }
+
+    private void showStatus(int count) {
+        int unreadable = service.getUnreadableRecords();
+        statusLabel.setText("Showing " + currentMonth + " - " + count + " transaction" + (count==1?"":"s")
+                + (unreadable == 0 ? "" : " - " + unreadable + " unreadable record" + (unreadable==1?"":"s") + " skipped"));
     }
 }
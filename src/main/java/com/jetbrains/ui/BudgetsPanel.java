@@ -1,6 +1,7 @@
 package com.jetbrains.ui;
 
 import com.jetbrains.finance.service.FinanceService;
+import com.jetbrains.finance.service.LedgerEvent;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
@@ -10,17 +11,17 @@ import java.util.Map;
 
 public class BudgetsPanel extends JPanel {
     private final FinanceService service;
+    private final RefreshScheduler refresher;
     private final Runnable onSave;
-    private final Runnable onDataChanged;
 
     private final JTable table = new JTable();
     private boolean sorterListenerInstalled = false;
 
-    public BudgetsPanel(FinanceService service, Runnable onSave, Runnable onDataChanged) {
+    public BudgetsPanel(FinanceService service, RefreshScheduler refresher, Runnable onSave) {
         super(new BorderLayout(8,8));
         this.service = service;
+        this.refresher = refresher;
         this.onSave = onSave;
-        this.onDataChanged = onDataChanged;
 
         JToolBar tb = new JToolBar();
         tb.setFloatable(false);
@@ -51,6 +52,8 @@ public class BudgetsPanel extends JPanel {
         refresh.addActionListener(e -> refresh());
 
         refresh();
+        // Budgets do not depend on transactions or the month, so only budget changes redraw the table
+        service.addChangeListener(UIUtils.onEdt(event -> { if (event instanceof LedgerEvent.BudgetsChanged) refresh(); }));
         // load persisted state after initial model installed
         SwingUtilities.invokeLater(() -> UIUtils.loadTableState(table, "budgets"));
         maybeInstallSorterListener();
@@ -74,8 +77,12 @@ public class BudgetsPanel extends JPanel {
         }
     }
 
+    /** Reloads the budgets, once the panel is shown. */
     public void refresh() {
-        Map<String, BigDecimal> budgets = service.getBudgets();
+        refresher.whenShowing(this, () -> refresher.submit(this, service::getBudgets, this::show));
+    }
+
+    private void show(Map<String, BigDecimal> budgets) {
         DefaultTableModel model = new DefaultTableModel(new Object[]{"Category", "Monthly Limit"}, 0) {
             @Override public boolean isCellEditable(int row, int column) { return false; }
             @Override public Class<?> getColumnClass(int columnIndex) {
@@ -107,7 +114,6 @@ public class BudgetsPanel extends JPanel {
             BigDecimal lim = new BigDecimal(amt.trim());
             service.setBudget(cat.trim(), lim);
             onSave.run();
-            onDataChanged.run();
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Add failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
@@ -125,7 +131,6 @@ public class BudgetsPanel extends JPanel {
             BigDecimal lim = new BigDecimal(amt.trim());
             service.setBudget(cat, lim);
             onSave.run();
-            onDataChanged.run();
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Edit failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
@@ -142,7 +147,6 @@ public class BudgetsPanel extends JPanel {
         try {
             service.removeBudget(cat);
             onSave.run();
-            onDataChanged.run();
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Remove failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
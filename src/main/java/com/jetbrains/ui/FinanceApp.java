@@ -1,10 +1,17 @@
 package com.jetbrains.ui;
 
 import com.jetbrains.finance.service.FinanceService;
+import com.jetbrains.finance.store.BlockStore;
+import com.jetbrains.finance.store.JdbcStore;
+import com.jetbrains.finance.store.PartitionedStore;
+import com.jetbrains.finance.store.PlainTextStore;
+import com.jetbrains.finance.store.StorageBackend;
 
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.JOptionPane;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.nio.file.Files;
 import java.time.YearMonth;
@@ -20,7 +27,7 @@ public class FinanceApp {
             } catch (Exception ignored) {}
             UIUtils.initLookAndFeel();
             var dataPath = defaultDataPath();
-            var service = new FinanceService(dataPath);
+            var service = openService(dataPath);
             AppFrame frame = new AppFrame(service, YearMonth.now());
             frame.setVisible(true);
             JOptionPane.showMessageDialog(frame,
@@ -30,6 +37,58 @@ public class FinanceApp {
         });
     }
 
+    /**
+     * Opens the ledger next to the old single data file, migrating that file into it on first run. The old
+     * file is left in place as a backup but is not read again once the ledger exists: if the ledger cannot be
+     * opened later, the app says so and closes rather than open a copy that lacks every change made since.
+     * Falls back to the single file only when the ledger could not be created from it.
+     * -Dfinance.storage=blocks keeps the ledger in one block-compressed file instead of a folder of months;
+     * -Dfinance.storage=jdbc keeps it in a database named by -Dfinance.jdbc.url (by default an H2 database
+     * next to the data file), with the driver on the classpath.
+     */
+    private static FinanceService openService(Path dataPath) {
+        StorageBackend ledger = switch (System.getProperty("finance.storage", "months")) {
+            case "blocks" -> new BlockStore(dataPath.resolveSibling("ledger.fblk"));
+            case "jdbc" -> {
+                Path db = dataPath.resolveSibling("ledger-db");
+                yield new JdbcStore(System.getProperty("finance.jdbc.url", "jdbc:h2:file:" + db.toAbsolutePath()), db);
+            }
+            default -> new PartitionedStore(dataPath.resolveSibling("ledger"));
+        };
+        boolean migrated = ledger.exists();
+        try {
+            if (!migrated && Files.exists(dataPath)) {
+                ledger.importData(new PlainTextStore(dataPath, true).load());
+            }
+            return new FinanceService(ledger);
+        } catch (IOException | UncheckedIOException ex) {
+            if (migrated) {
+                JOptionPane.showMessageDialog(null,
+                        "Could not open the ledger " + ledger.getLocation() + ":\n" + ex.getMessage()
+                                + (Files.exists(dataPath) ? "\n\n" + dataPath.getFileName() + " is an older copy from before the ledger was created"
+                                + " and is not opened in its place." : "")
+                                + "\n\nThe app will close; nothing has been changed.",
+                        "Storage", JOptionPane.ERROR_MESSAGE);
+                System.exit(1);
+                throw ex instanceof UncheckedIOException u ? u : new UncheckedIOException((IOException) ex);
+            }
+            JOptionPane.showMessageDialog(null,
+                    "Could not create the ledger " + ledger.getLocation() + ":\n" + ex.getMessage()
+                            + "\n\nUsing the single data file instead.",
+                    "Storage", JOptionPane.WARNING_MESSAGE);
+        }
+        try {
+            return new FinanceService(dataPath, true);
+        } catch (UncheckedIOException ex) {
+            // Starting empty would let the next save overwrite the unreadable file
+            JOptionPane.showMessageDialog(null,
+                    "Could not read " + dataPath + ":\n" + ex.getCause().getMessage() + "\n\nThe app will close; your file has not been changed.",
+                    "Storage", JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+            throw ex;
+        }
+    }
+
     private static Path defaultDataPath() {
         String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
         Path base;
@@ -0,0 +1,91 @@
+package com.jetbrains.ui;
+
+import com.jetbrains.finance.service.TransactionIndex;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Row sorter for a {@link TransactionTableModel} that leaves the sorting to the model's {@link TransactionIndex}.
+ * The model already holds its rows in view order, so each row maps to itself; a header click only records the
+ * new sort keys and asks the owner to query the index again. Header arrows and saved sort keys work as with
+ * {@code TableRowSorter}, without comparing rows on the event dispatch thread.
+ */
+final class IndexRowSorter extends RowSorter<TransactionTableModel> {
+    // As many keys as DefaultRowSorter keeps by default
+    private static final int MAX_SORT_KEYS = 3;
+
+    private final TransactionTableModel model;
+    private final Runnable onSortChanged;
+    private List<SortKey> keys = List.of();
+
+    /** @param onSortChanged called after the sort keys change, to re-query with {@link #sorts()} */
+    IndexRowSorter(TransactionTableModel model, Runnable onSortChanged) {
+        this.model = model;
+        this.onSortChanged = onSortChanged;
+    }
+
+    /** The sort keys as the index takes them. */
+    List<TransactionIndex.Sort> sorts() {
+        List<TransactionIndex.Sort> out = new ArrayList<>();
+        for (SortKey key : keys) {
+            if (key.getSortOrder() == SortOrder.UNSORTED) continue;
+            out.add(new TransactionIndex.Sort(TransactionTableModel.columnAt(key.getColumn()), key.getSortOrder() == SortOrder.DESCENDING));
+        }
+        return out;
+    }
+
+    @Override public TransactionTableModel getModel() { return model; }
+
+    /** Sorts by {@code column} first, ascending, or flips its order if it already comes first. */
+    @Override
+    public void toggleSortOrder(int column) {
+        List<SortKey> next = new ArrayList<>(keys);
+        SortOrder order = SortOrder.ASCENDING;
+        if (!next.isEmpty() && next.get(0).getColumn() == column && next.get(0).getSortOrder() == SortOrder.ASCENDING) {
+            order = SortOrder.DESCENDING;
+        }
+        next.removeIf(key -> key.getColumn() == column);
+        next.add(0, new SortKey(column, order));
+        if (next.size() > MAX_SORT_KEYS) next = next.subList(0, MAX_SORT_KEYS);
+        setSortKeys(next);
+    }
+
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        List<SortKey> next = keys == null ? List.of() : List.copyOf(keys);
+        for (SortKey key : next) {
+            if (key.getColumn() < 0 || key.getColumn() >= model.getColumnCount()) throw new IllegalArgumentException("Invalid sort key: column " + key.getColumn());
+        }
+        if (next.equals(this.keys)) return;
+        this.keys = next;
+        fireSortOrderChanged();
+        onSortChanged.run();
+    }
+
+    @Override public List<? extends SortKey> getSortKeys() { return keys; }
+
+    @Override
+    public int convertRowIndexToModel(int index) {
+        if (index < 0 || index >= model.getRowCount()) throw new IndexOutOfBoundsException("Invalid index");
+        return index;
+    }
+
+    @Override
+    public int convertRowIndexToView(int index) {
+        if (index < 0 || index >= model.getRowCount()) throw new IndexOutOfBoundsException("Invalid index");
+        return index;
+    }
+
+    @Override public int getViewRowCount() { return model.getRowCount(); }
+    @Override public int getModelRowCount() { return model.getRowCount(); }
+
+    // The model is replaced whole, already in order, so there is nothing to redo when it changes
+    @Override public void modelStructureChanged() {}
+    @Override public void allRowsChanged() {}
+    @Override public void rowsInserted(int firstRow, int endRow) {}
+    @Override public void rowsDeleted(int firstRow, int endRow) {}
+    @Override public void rowsUpdated(int firstRow, int endRow) {}
+    @Override public void rowsUpdated(int firstRow, int endRow, int column) {}
+}
@@ -0,0 +1,157 @@
+package com.jetbrains.ui;
+
+import javax.swing.*;
+import java.awt.event.HierarchyEvent;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs the service queries behind a redraw on a background thread and applies the results on the event dispatch
+ * thread. Work is submitted under a key, one per part of the window: a newer submission under the same key
+ * supersedes the older one, which is cancelled if it has not started and has its result dropped if it has, so
+ * fast clicking costs at most one stale query per key and only the latest result is drawn. Panels on hidden tabs
+ * hold their reloads back with {@link #whenShowing} until they are shown.
+ * <p>
+ * Submit and read {@link #stats()} on the event dispatch thread. Time spent there applying results is recorded.
+ */
+public final class RefreshScheduler implements AutoCloseable {
+    /**
+     * Refreshes applied, superseded and held back for hidden panels so far, and the event dispatch thread time
+     * spent applying them.
+     */
+    public record Stats(long applied, long superseded, long deferred, long lastEdtMicros, long maxEdtMicros, long totalEdtMicros) {
+        public double meanEdtMicros() { return applied == 0 ? 0 : (double) totalEdtMicros / applied; }
+    }
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "finance-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Consumer<RuntimeException> onError;
+    // Guarded by this: the latest submission under each key that has not been applied yet
+    private final Map<Object, Task> latest = new HashMap<>();
+    private boolean closed;
+    // Event dispatch thread only: the reload each hidden panel waits to run, and the panels being watched for it
+    private final Map<JComponent, Runnable> waiting = new HashMap<>();
+    private final Set<JComponent> watched = new HashSet<>();
+    private long applied;
+    private long superseded;
+    private long deferred;
+    private long lastEdtNanos;
+    private long maxEdtNanos;
+    private long totalEdtNanos;
+
+    private static final class Task {
+        Future<?> future;
+    }
+
+    /** @param onError told, on the event dispatch thread, when the latest query for a key fails */
+    public RefreshScheduler(Consumer<RuntimeException> onError) {
+        this.onError = onError;
+    }
+
+    /** Computes {@code load} in the background and hands its result to {@code show} on the event dispatch thread. */
+    public synchronized <T> void submit(Object key, Supplier<? extends T> load, Consumer<? super T> show) {
+        if (closed) return;
+        supersede(latest.get(key));
+        Task task = new Task();
+        latest.put(key, task);
+        task.future = worker.submit(() -> run(key, task, load, show));
+    }
+
+    /**
+     * Runs {@code reload} now if {@code panel} is showing, or else the next time it is shown. Requests made while
+     * it is hidden collapse into the last one, and what is pending under the panel as a key is superseded, since
+     * no one would see it. {@code reload} should read what it needs when it runs, not when it is passed in.
+     */
+    public void whenShowing(JComponent panel, Runnable reload) {
+        if (watched.add(panel)) {
+            panel.addHierarchyListener(e -> {
+                if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) == 0 || !panel.isShowing()) return;
+                Runnable held = waiting.remove(panel);
+                if (held != null) held.run();
+            });
+        }
+        if (panel.isShowing()) {
+            waiting.remove(panel);
+            reload.run();
+        } else {
+            waiting.put(panel, reload);
+            deferred++;
+            cancel(panel);
+        }
+    }
+
+    private synchronized void cancel(Object key) {
+        supersede(latest.remove(key));
+    }
+
+    private void supersede(Task stale) {
+        if (stale == null) return;
+        stale.future.cancel(false);
+        superseded++;
+    }
+
+    private synchronized boolean isLatest(Object key, Task task) {
+        return latest.get(key) == task;
+    }
+
+    private <T> void run(Object key, Task task, Supplier<? extends T> load, Consumer<? super T> show) {
+        if (!isLatest(key, task)) return;
+        T result;
+        try {
+            result = load.get();
+        } catch (RuntimeException e) {
+            SwingUtilities.invokeLater(() -> {
+                if (finish(key, task)) onError.accept(e);
+            });
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            // A newer submission may have arrived while this one was computed
+            if (!finish(key, task)) return;
+            long start = System.nanoTime();
+            show.accept(result);
+            long took = System.nanoTime() - start;
+            applied++;
+            lastEdtNanos = took;
+            maxEdtNanos = Math.max(maxEdtNanos, took);
+            totalEdtNanos += took;
+        });
+    }
+
+    /** Retires the task if it is still the latest under its key; false if it was superseded. */
+    private synchronized boolean finish(Object key, Task task) {
+        return latest.remove(key, task);
+    }
+
+    public Stats stats() {
+        return new Stats(applied, superseded, deferred, lastEdtNanos / 1000, maxEdtNanos / 1000, totalEdtNanos / 1000);
+    }
+
+    /** Drops pending work and stops the background thread once a query it is running returns. */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            latest.clear();
+        }
+        worker.shutdown();
+        try {
+            worker.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,29 +1,42 @@
 package com.jetbrains.ui;
 
+import com.jetbrains.finance.model.Money;
+import com.jetbrains.finance.service.Aggregate;
+import com.jetbrains.finance.service.Aggregates;
 import com.jetbrains.finance.service.FinanceService;
+import com.jetbrains.finance.service.LedgerEvent;
 import com.jetbrains.finance.service.MonthlySummary;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.YearMonth;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.function.Supplier;
 
 public class SummaryPanel extends JPanel {
     private final FinanceService service;
+    private final RefreshScheduler refresher;
     private final Supplier<YearMonth> monthSupplier;
 
     private final JLabel incomeLbl = new JLabel();
     private final JLabel expenseLbl = new JLabel();
     private final JLabel netLbl = new JLabel();
     private final JTable budgetTable = new JTable();
+    // The shown month's spend by category, kept for redrawing the table when only budgets change
+    private Map<String, Money> spent = Map.of();
+    // Set when a change left the shown totals out of date, until fresh ones are drawn
+    private boolean totalsStale;
 
-    public SummaryPanel(FinanceService service, Supplier<YearMonth> monthSupplier) {
+    /** What the panel shows, read off the event dispatch thread; a null summary leaves the totals as they are. */
+    private record Model(MonthlySummary summary, Map<String, Money> spent, Map<String, BigDecimal> budgets) {}
+
+    public SummaryPanel(FinanceService service, RefreshScheduler refresher, Supplier<YearMonth> monthSupplier) {
         super(new BorderLayout(10,10));
         this.service = service;
+        this.refresher = refresher;
         this.monthSupplier = monthSupplier;
 
         JPanel cards = new JPanel(new GridLayout(1, 3, 12, 12));
@@ -76,21 +89,58 @@ public class SummaryPanel extends JPanel {
         });
 
         refresh();
+        service.addChangeListener(UIUtils.onEdt(this::onLedgerChanged));
         // Ensure sorter created and then restore state
         budgetTable.setAutoCreateRowSorter(true);
         budgetTable.getRowSorter().addRowSorterListener(e -> SwingUtilities.invokeLater(() -> UIUtils.saveTableState(budgetTable, "summary")));
         SwingUtilities.invokeLater(() -> UIUtils.loadTableState(budgetTable, "summary"));
     }
 
+    /** Redraws everything for the current month, once the panel is shown. */
     public void refresh() {
+        totalsStale = true;
+        refresher.whenShowing(this, this::reload);
+    }
+
+    private Model load(YearMonth ym, boolean totals) {
+        if (!totals) return new Model(null, null, service.getBudgets());
+        Aggregates month = service.aggregate(ym.atDay(1), ym.atEndOfMonth(), EnumSet.of(Aggregate.TOTALS, Aggregate.BY_CATEGORY));
+        return new Model(month.summary(), month.spentByCategory(), service.getBudgets());
+    }
+
+    private void show(Model model) {
+        if (model.summary() != null) {
+            showTotals(model.summary());
+            spent = model.spent();
+            totalsStale = false;
+        }
+        showBudgets(model.budgets());
+    }
+
+    /**
+     * Re-reads the cards and spend only when the shown month changed, and only the budgets when they did. Flags
+     * pile up until drawn, so a reload that supersedes another, or waits for the tab to be shown, still does what
+     * both needed.
+     */
+    private void onLedgerChanged(LedgerEvent event) {
+        if (event instanceof LedgerEvent.TransactionsChanged change && change.touches(monthSupplier.get())) totalsStale = true;
+        else if (!(event instanceof LedgerEvent.BudgetsChanged)) return;
+        refresher.whenShowing(this, this::reload);
+    }
+
+    private void reload() {
         YearMonth ym = monthSupplier.get();
-        MonthlySummary s = service.getMonthlySummary(ym);
-        incomeLbl.setText(UIUtils.CURRENCY.format(s.totalIncome()));
-        expenseLbl.setText(UIUtils.CURRENCY.format(s.totalExpense()));
-        netLbl.setText(UIUtils.CURRENCY.format(s.net()));
+        boolean totals = totalsStale;
+        refresher.submit(this, () -> load(ym, totals), this::show);
+    }
 
-        Map<String, BigDecimal> budgets = service.getBudgets();
-        Map<String, BigDecimal> spent = service.getSpentByCategory(ym);
+    private void showTotals(MonthlySummary s) {
+        incomeLbl.setText(UIUtils.CURRENCY.format(s.totalIncome().toBigDecimal()));
+        expenseLbl.setText(UIUtils.CURRENCY.format(s.totalExpense().toBigDecimal()));
+        netLbl.setText(UIUtils.CURRENCY.format(s.net().toBigDecimal()));
+    }
+
+    private void showBudgets(Map<String, BigDecimal> budgets) {
         DefaultTableModel model = new DefaultTableModel(new Object[]{"Category", "Limit", "Spent", "Remaining", "Used"}, 0) {
             @Override public boolean isCellEditable(int row, int column) { return false; }
             @Override public Class<?> getColumnClass(int columnIndex) {
@@ -102,15 +152,10 @@ public class SummaryPanel extends JPanel {
             }
         };
         budgets.forEach((cat, limit) -> {
-            BigDecimal spt = spent.getOrDefault(cat, BigDecimal.ZERO);
-            BigDecimal remaining = limit.subtract(spt);
-            double pct;
-            if (limit == null || limit.compareTo(BigDecimal.ZERO) == 0) {
-                pct = spt.compareTo(BigDecimal.ZERO) > 0 ? 100.0 : 0.0;
-            } else {
-                pct = spt.multiply(new BigDecimal("100")).divide(limit, 2, RoundingMode.HALF_UP).doubleValue();
-            }
-            model.addRow(new Object[]{cat, limit, spt, remaining, pct});
+            Money lim = limit == null ? Money.ZERO : Money.of(limit);
+            Money spt = spent.getOrDefault(cat, Money.ZERO);
+            double pct = spt.percentOf(lim);
+            model.addRow(new Object[]{cat, lim.toBigDecimal(), spt.toBigDecimal(), lim.minus(spt).toBigDecimal(), pct});
         });
         if (model.getRowCount() == 0) {
             model.addRow(new Object[]{"(no budgets)", null, null, null, 0.0});
@@ -66,6 +66,7 @@ public class TransactionDialog extends JDialog {
         try {
             BigDecimal a = new BigDecimal(amountField.getText().trim());
             if (a.compareTo(BigDecimal.ZERO) <= 0) throw new RuntimeException();
+            if (a.stripTrailingZeros().scale() > 2) { showErr("Amount can have at most 2 decimal places."); return false; }
         } catch (Exception e) { showErr("Invalid amount."); return false; }
         if (getTxnType() == TransactionType.EXPENSE && (getCategory() == null || getCategory().isBlank())) {
             showErr("Category required for expense."); return false;
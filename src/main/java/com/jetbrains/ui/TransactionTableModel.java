@@ -1,21 +1,28 @@
 package com.jetbrains.ui;
 
 import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.service.TransactionIndex;
 
 import javax.swing.table.AbstractTableModel;
-import java.util.ArrayList;
-import java.util.List;
 
+/**
+ * Shows a {@link TransactionIndex} without copying it: each cell is read from the index's column tables when the
+ * table paints it, so a view of any size opens at once. Rows are in the index's order, which is also the view
+ * order; sorting and filtering are done by re-querying the index, see {@link IndexRowSorter}. Cells of rows whose
+ * month a paged index has not loaded are empty until the owner loads them and calls {@link #fireTableRowsUpdated}.
+ */
 public class TransactionTableModel extends AbstractTableModel {
     private final String[] cols = {"Date", "Type", "Amount", "Category", "Description"};
-    private final List<Transaction> rows = new ArrayList<>();
+    private TransactionIndex rows = TransactionIndex.empty();
 
-    public void setRows(List<Transaction> data) {
-        rows.clear();
-        if (data != null) rows.addAll(data);
+    public void setRows(TransactionIndex data) {
+        rows = data == null ? TransactionIndex.empty() : data;
         fireTableDataChanged();
     }
 
+    TransactionIndex rows() { return rows; }
+
+    /** Null if the row is out of range, or its month is not loaded or changed since the rows were set; see {@link TransactionIndex}. */
     public Transaction getAt(int row) {
         if (row < 0 || row >= rows.size()) return null;
         return rows.get(row);
@@ -26,13 +33,12 @@ public class TransactionTableModel extends AbstractTableModel {
     @Override public String getColumnName(int column) { return cols[column]; }
 
     @Override public Object getValueAt(int rowIndex, int columnIndex) {
-        Transaction t = rows.get(rowIndex);
         return switch (columnIndex) {
-            case 0 -> t.getDate();
-            case 1 -> t.getType();
-            case 2 -> t.getAmount();
-            case 3 -> t.getCategory();
-            case 4 -> t.getDescription();
+            case 0 -> rows.date(rowIndex);
+            case 1 -> rows.type(rowIndex);
+            case 2 -> rows.amount(rowIndex);
+            case 3 -> rows.category(rowIndex);
+            case 4 -> rows.description(rowIndex);
             default -> "";
         };
     }
@@ -45,5 +51,9 @@ public class TransactionTableModel extends AbstractTableModel {
             default -> String.class;
         };
     }
-}
 
+    /** The index column shown in {@code column}. */
+    static TransactionIndex.Column columnAt(int column) {
+        return TransactionIndex.Column.values()[column];
+    }
+}
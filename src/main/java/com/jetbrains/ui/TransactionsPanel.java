@@ -3,32 +3,37 @@ package com.jetbrains.ui;
 import com.jetbrains.finance.model.Transaction;
 import com.jetbrains.finance.model.TransactionType;
 import com.jetbrains.finance.service.FinanceService;
+import com.jetbrains.finance.service.LedgerEvent;
+import com.jetbrains.finance.service.TransactionIndex;
 
 import javax.swing.*;
-import javax.swing.table.TableRowSorter;
 import javax.swing.table.DefaultTableCellRenderer;
 import java.awt.*;
 import java.time.LocalDate;
 import java.time.YearMonth;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.function.Supplier;
 
 public class TransactionsPanel extends JPanel {
     private final FinanceService service;
+    private final RefreshScheduler refresher;
     private final Supplier<YearMonth> monthSupplier;
     private final Runnable onSave;
-    private final Runnable onDataChanged;
 
     private final TransactionTableModel model = new TransactionTableModel();
     private final JTable table = new JTable(model);
     private final JTextField filterField = new JTextField(18);
-    private final TableRowSorter<TransactionTableModel> sorter;
+    private final JCheckBox allMonths = new JCheckBox("All months");
+    private final IndexRowSorter sorter;
 
-    public TransactionsPanel(FinanceService service, Supplier<YearMonth> monthSupplier, Runnable onSave, Runnable onDataChanged) {
+    public TransactionsPanel(FinanceService service, RefreshScheduler refresher, Supplier<YearMonth> monthSupplier, Runnable onSave) {
         super(new BorderLayout(8,8));
         this.service = service;
+        this.refresher = refresher;
         this.monthSupplier = monthSupplier;
         this.onSave = onSave;
-        this.onDataChanged = onDataChanged;
 
         JToolBar tb = new JToolBar();
         tb.setFloatable(false);
@@ -46,13 +51,18 @@ public class TransactionsPanel extends JPanel {
         filterBar.add(new JLabel("Filter:"));
         filterField.setToolTipText("Type to filter by type/category/description/date");
         filterBar.add(filterField);
+        allMonths.setOpaque(false);
+        allMonths.setToolTipText("Show every month's transactions instead of the selected month's");
+        filterBar.add(allMonths);
         JLabel hint = new JLabel("Tip: Double-click a row to edit.");
         hint.setForeground((Color)UIManager.get("Label.foreground"));
         filterBar.add(hint);
 
         add(tb, BorderLayout.NORTH);
         // use helper to remove gray gutter and keep white content
-        add(UIUtils.wrapTable(table), BorderLayout.CENTER);
+        JScrollPane scroll = UIUtils.wrapTable(table);
+        scroll.getViewport().addChangeListener(e -> loadVisibleRows());
+        add(scroll, BorderLayout.CENTER);
         add(filterBar, BorderLayout.SOUTH);
 
         addExp.addActionListener(e -> addTransactionDialog(TransactionType.EXPENSE));
@@ -60,10 +70,10 @@ public class TransactionsPanel extends JPanel {
         edit.addActionListener(e -> editSelected());
         del.addActionListener(e -> deleteSelected());
         refresh.addActionListener(e -> refresh());
+        allMonths.addActionListener(e -> refresh());
 
         table.setFillsViewportHeight(true);
         table.setRowHeight(34);
-        table.setAutoCreateRowSorter(true);
         table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         table.setToolTipText("Transactions for the selected month");
         table.setShowGrid(false);
@@ -80,8 +90,8 @@ public class TransactionsPanel extends JPanel {
             }
         });
 
-        // Renderers and sorter
-        sorter = new TableRowSorter<>(model);
+        // Renderers and sorter; sorting and filtering are queries on the index, run off the event dispatch thread
+        sorter = new IndexRowSorter(model, this::refresh);
         table.setRowSorter(sorter);
         // Set base delegates
         table.getColumnModel().getColumn(0).setCellRenderer(new UIUtils.DateRenderer());
@@ -124,32 +134,61 @@ public class TransactionsPanel extends JPanel {
         sorter.addRowSorterListener(e -> SwingUtilities.invokeLater(() -> UIUtils.saveTableState(table, "transactions")));
 
         filterField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
-            private void update() {
-                String txt = filterField.getText().trim();
-                if (txt.isEmpty()) { sorter.setRowFilter(null); return; }
-                sorter.setRowFilter(new RowFilter<>() {
-                    @Override
-                    public boolean include(Entry<? extends TransactionTableModel, ? extends Integer> entry) {
-                        for (int i = 0; i < entry.getValueCount(); i++) {
-                            Object v = entry.getValue(i);
-                            if (v == null) continue;
-                            if (v.toString().toLowerCase().contains(txt.toLowerCase())) return true;
-                        }
-                        return false;
-                    }
-                });
-            }
-            @Override public void insertUpdate(javax.swing.event.DocumentEvent e) { update(); }
-            @Override public void removeUpdate(javax.swing.event.DocumentEvent e) { update(); }
-            @Override public void changedUpdate(javax.swing.event.DocumentEvent e) { update(); }
+            @Override public void insertUpdate(javax.swing.event.DocumentEvent e) { refresh(); }
+            @Override public void removeUpdate(javax.swing.event.DocumentEvent e) { refresh(); }
+            @Override public void changedUpdate(javax.swing.event.DocumentEvent e) { refresh(); }
         });
 
         refresh();
+        service.addChangeListener(UIUtils.onEdt(this::onLedgerChanged));
     }
 
+    /** Reloads the current month's rows, or every month's, through the filter and sort order, once the panel is shown. */
     public void refresh() {
-        model.setRows(service.getTransactionsForMonth(monthSupplier.get()));
+        refresher.whenShowing(this, this::reload);
+    }
+
+    private void reload() {
+        YearMonth ym = monthSupplier.get();
+        boolean all = allMonths.isSelected();
+        String filter = filterField.getText();
+        List<TransactionIndex.Sort> sorts = sorter.sorts();
+        refresher.submit(this, () -> index(ym, all).query(filter, sorts), this::show);
+    }
+
+    private TransactionIndex index(YearMonth ym, boolean all) {
+        if (!all) return service.getTransactionIndex(ym, ym);
+        Set<YearMonth> months = service.getAvailableMonths();
+        return months.isEmpty() ? TransactionIndex.empty() : service.getTransactionIndex(Collections.min(months), Collections.max(months));
+    }
+
+    private void show(TransactionIndex rows) {
+        model.setRows(rows);
         UIUtils.styleTable(table);
+        SwingUtilities.invokeLater(this::loadVisibleRows);
+    }
+
+    /** Has the months of the rows in view read in the background, if a paged index does not hold them, then repaints those rows. */
+    private void loadVisibleRows() {
+        TransactionIndex rows = model.rows();
+        Rectangle view = table.getVisibleRect();
+        int first = table.rowAtPoint(view.getLocation());
+        if (first < 0) return;
+        int last = table.rowAtPoint(new Point(view.x, view.y + view.height - 1));
+        if (last < 0) last = table.getRowCount() - 1;
+        int from = table.convertRowIndexToModel(first), to = table.convertRowIndexToModel(last);
+        if (rows.isLoaded(from, to)) return;
+        refresher.submit(model, () -> {
+            rows.load(from, to);
+            return rows;
+        }, loaded -> {
+            if (model.rows() == loaded) model.fireTableRowsUpdated(from, Math.min(to, model.getRowCount() - 1));
+        });
+    }
+
+    /** Reloads the rows only when the change touched a shown month. */
+    private void onLedgerChanged(LedgerEvent event) {
+        if (event instanceof LedgerEvent.TransactionsChanged change && (allMonths.isSelected() || change.touches(monthSupplier.get()))) refresh();
     }
 
     public void addTransactionDialog(TransactionType type) {
@@ -164,7 +203,6 @@ public class TransactionsPanel extends JPanel {
                     dlg.getTxnType() == TransactionType.EXPENSE ? dlg.getCategory() : "INCOME",
                     dlg.getDescription());
             onSave.run();
-            onDataChanged.run();
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Add failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
@@ -175,18 +213,16 @@ public class TransactionsPanel extends JPanel {
         if (viewRow < 0) { JOptionPane.showMessageDialog(this, "Select a row to edit."); return; }
         int row = table.convertRowIndexToModel(viewRow);
         Transaction t = model.getAt(row);
-        YearMonth ym = monthSupplier.get();
+        if (t == null) { JOptionPane.showMessageDialog(this, "That row has changed; select it again."); return; }
         TransactionDialog dlg = new TransactionDialog(SwingUtilities.getWindowAncestor(this), "Edit Transaction");
         dlg.preset(t.getType(), t.getDate(), t.getAmount(), t.getCategory(), t.getDescription());
         dlg.setVisible(true);
         if (!dlg.isOk()) return;
         try {
-            int oneBased = row + 1; // within current month ordering
-            service.editTransactionAt(ym, oneBased, dlg.getTxnType(), dlg.getDate(), dlg.getAmount(),
+            service.editTransaction(t.getId(), dlg.getTxnType(), dlg.getDate(), dlg.getAmount(),
                     dlg.getTxnType() == TransactionType.EXPENSE ? dlg.getCategory() : null,
                     dlg.getDescription());
             onSave.run();
-            onDataChanged.run();
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Edit failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
@@ -195,17 +231,16 @@ public class TransactionsPanel extends JPanel {
     private void deleteSelected() {
         int viewRow = table.getSelectedRow();
         if (viewRow < 0) { JOptionPane.showMessageDialog(this, "Select a row to delete."); return; }
-        int row = table.convertRowIndexToModel(viewRow);
+        Transaction t = model.getAt(table.convertRowIndexToModel(viewRow));
+        if (t == null) { JOptionPane.showMessageDialog(this, "That row has changed; select it again."); return; }
         int res = JOptionPane.showConfirmDialog(this, "Delete selected transaction?", "Confirm", JOptionPane.YES_NO_OPTION);
         if (res != JOptionPane.YES_OPTION) return;
         try {
-            int oneBased = row + 1;
-            if (!service.deleteTransactionAt(monthSupplier.get(), oneBased)) {
-                JOptionPane.showMessageDialog(this, "Delete failed: index not found.");
+            if (!service.deleteTransaction(t.getId())) {
+                JOptionPane.showMessageDialog(this, "Delete failed: transaction not found.");
                 return;
             }
             onSave.run();
-            onDataChanged.run();
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Delete failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
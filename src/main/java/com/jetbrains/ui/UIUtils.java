@@ -15,6 +15,7 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Locale;
+import java.util.function.Consumer;
 import java.util.prefs.Preferences;
 
 public final class UIUtils {
@@ -346,6 +347,14 @@ public final class UIUtils {
         return p;
     }
 
+    /** Wraps a listener so it runs on the event dispatch thread: straight away when called there, queued otherwise. */
+    public static <T> Consumer<T> onEdt(Consumer<T> listener) {
+        return value -> {
+            if (SwingUtilities.isEventDispatchThread()) listener.accept(value);
+            else SwingUtilities.invokeLater(() -> listener.accept(value));
+        };
+    }
+
     public static class CurrencyRenderer extends DefaultTableCellRenderer {
         @Override protected void setValue(Object value) {
             if (value instanceof BigDecimal bd) setText(CURRENCY.format(bd));
@@ -0,0 +1,115 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.store.MonthTotals;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DayIndexTest {
+    private static final int TODAY = (int) LocalDate.of(2024, 6, 15).toEpochDay();
+
+    @Test
+    void rangeSumsMatchAPlainMapAsRowsComeAndGo() {
+        Random random = new Random(42);
+        DayIndex index = new DayIndex();
+        TreeMap<Integer, long[]> model = new TreeMap<>();
+        List<long[]> live = new ArrayList<>();
+        for (int step = 0; step < 20_000; step++) {
+            if (!live.isEmpty() && random.nextInt(3) == 0) {
+                long[] row = live.remove(random.nextInt(live.size()));
+                apply(index, model, (int) row[0], row[1] == 1, -row[2], -1);
+            } else {
+                long[] row = {day(random, step), random.nextBoolean() ? 1 : 0, 1 + random.nextInt(100_000)};
+                live.add(row);
+                apply(index, model, (int) row[0], row[1] == 1, row[2], 1);
+            }
+            if (step % 50 == 0) {
+                int from = day(random, step), to = from + random.nextInt(4000);
+                assertEquals(naive(model, from, to), index.sum(from, to), "step " + step + ": " + from + " to " + to);
+            }
+        }
+        assertEquals(naive(model, Integer.MIN_VALUE, Integer.MAX_VALUE), index.sum(Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void datesBeyondTheWidestWindowStayCountable() {
+        DayIndex index = new DayIndex();
+        TreeMap<Integer, long[]> model = new TreeMap<>();
+        // Grows the window a decade each way, then dates far past MAX_WINDOW on both sides
+        int[] days = {TODAY, TODAY + 3650, TODAY - 3650, TODAY + DayIndex.MAX_WINDOW, TODAY - DayIndex.MAX_WINDOW - 1,
+                (int) LocalDate.of(9999, 12, 31).toEpochDay(), (int) LocalDate.of(1, 1, 1).toEpochDay()};
+        for (int i = 0; i < days.length; i++) apply(index, model, days[i], i % 2 == 0, 100L * (i + 1), 1);
+        for (int from : days) {
+            for (int to : days) assertEquals(naive(model, from, to), index.sum(from, to));
+        }
+        // Taking the in-window rows out lets the window move to the stray dates
+        for (int i = 0; i < 3; i++) apply(index, model, days[i], i % 2 == 0, -100L * (i + 1), -1);
+        apply(index, model, days[5] - 1, true, 7, 1);
+        assertEquals(naive(model, Integer.MIN_VALUE, Integer.MAX_VALUE), index.sum(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(naive(model, days[5] - 10, days[5]), index.sum(days[5] - 10, days[5]));
+    }
+
+    @Test
+    void longIntMapMatchesAHashMap() {
+        Random random = new Random(7);
+        LongIntMap map = new LongIntMap();
+        Map<Long, Integer> model = new HashMap<>();
+        for (int step = 0; step < 200_000; step++) {
+            // A small key space makes probe runs collide, exercising the backward-shift delete
+            long key = 1 + random.nextInt(5_000) * (random.nextBoolean() ? 1L : 1L << 33);
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    int value = random.nextInt();
+                    map.put(key, value);
+                    model.put(key, value);
+                }
+                case 1 -> {
+                    Integer removed = model.remove(key);
+                    assertEquals(removed == null ? LongIntMap.MISSING : removed, map.remove(key));
+                }
+                default -> assertEquals(model.getOrDefault(key, LongIntMap.MISSING), map.get(key));
+            }
+            assertEquals(model.size(), map.size());
+        }
+        for (Map.Entry<Long, Integer> e : model.entrySet()) assertEquals(e.getValue(), map.get(e.getKey()));
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(LongIntMap.MISSING, map.get(model.keySet().iterator().next()));
+        assertThrows(IllegalArgumentException.class, () -> map.put(0, 1));
+    }
+
+    /** Mostly dates near today, spreading out over the run so the window has to grow, and now and then a stray year. */
+    private static int day(Random random, int step) {
+        if (random.nextInt(500) == 0) return (int) LocalDate.of(1 + random.nextInt(9999), 1, 1).toEpochDay();
+        return TODAY + random.nextInt(2 * (step + 100)) - (step + 100);
+    }
+
+    private static void apply(DayIndex index, TreeMap<Integer, long[]> model, int day, boolean isIncome, long amountMinor, int rowsDelta) {
+        index.add(day, isIncome, amountMinor, rowsDelta);
+        long[] totals = model.computeIfAbsent(day, k -> new long[3]);
+        totals[0] += rowsDelta;
+        totals[isIncome ? 1 : 2] += amountMinor;
+        if (totals[0] == 0) model.remove(day);
+    }
+
+    private static MonthTotals naive(TreeMap<Integer, long[]> model, int from, int to) {
+        long rows = 0, income = 0, expense = 0;
+        if (from <= to) {
+            for (long[] totals : model.subMap(from, true, to, true).values()) {
+                rows += totals[0];
+                income += totals[1];
+                expense += totals[2];
+            }
+        }
+        return new MonthTotals((int) rows, income, expense);
+    }
+}
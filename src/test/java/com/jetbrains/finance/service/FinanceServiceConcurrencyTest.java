@@ -0,0 +1,163 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.Money;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+import com.jetbrains.finance.store.MonthTotals;
+import com.jetbrains.finance.store.PartitionedStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Readers against concurrent writers on a ledger that keeps only a few months in memory: no read may throw, and
+ * every snapshot, month view and range aggregate must be consistent with itself while rows are added, edited,
+ * deleted, saved and evicted underneath it.
+ */
+class FinanceServiceConcurrencyTest {
+    private static final LocalDate FROM = LocalDate.of(2024, 1, 1);
+    private static final LocalDate TO = LocalDate.of(2024, 12, 31);
+    private static final String[] CATEGORIES = {"Food", "Rent", "Fun", "Car"};
+    private static final int ROWS = 3000;
+    private static final long RUN_MILLIS = 3000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @Timeout(60)
+    void readersSeeConsistentStateWhileWritersRun() throws Exception {
+        Random random = new Random(7);
+        List<Long> ids = new ArrayList<>();
+        FinanceService seed = new FinanceService(new PartitionedStore(dir));
+        for (int i = 0; i < ROWS; i++) {
+            boolean income = random.nextInt(4) == 0;
+            ids.add(seed.addTransaction(income ? TransactionType.INCOME : TransactionType.EXPENSE, FROM.plusDays(random.nextInt(366)),
+                    BigDecimal.valueOf(1 + random.nextInt(10_000), 2), CATEGORIES[random.nextInt(CATEGORIES.length)], "Row " + i));
+        }
+        seed.save();
+
+        FinanceService service = new FinanceService(new PartitionedStore(dir));
+        service.setResidentMonthLimit(3);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        try (SaveScheduler saver = new SaveScheduler(service, report -> {
+            if (report.error() != null) failure.compareAndSet(null, report.error());
+        })) {
+            for (int w = 0; w < 2; w++) {
+                Random rr = new Random(100 + w);
+                threads.add(new Thread(() -> run(stop, failure, () -> {
+                    long id = ids.get(rr.nextInt(ROWS));
+                    // Edits stay in 2024, so the year keeps ROWS rows; adds and deletes go to 2025
+                    boolean income = service.getTransaction(id).getType() == TransactionType.INCOME;
+                    service.editTransaction(id, null, FROM.plusDays(rr.nextInt(366)), BigDecimal.valueOf(1 + rr.nextInt(10_000), 2),
+                            income ? null : "C" + rr.nextInt(40), null);
+                    long extra = service.addTransaction(TransactionType.EXPENSE, LocalDate.of(2025, 1 + rr.nextInt(12), 1 + rr.nextInt(28)),
+                            BigDecimal.ONE, "X" + rr.nextInt(5), "Extra");
+                    if (rr.nextBoolean()) service.deleteTransaction(extra);
+                    service.setBudget("B" + rr.nextInt(5), BigDecimal.TEN);
+                    if (rr.nextInt(20) == 0) saver.requestSave();
+                    writes.incrementAndGet();
+                }), "writer-" + w));
+            }
+            for (int r = 0; r < 4; r++) {
+                Random rr = new Random(200 + r);
+                threads.add(new Thread(() -> run(stop, failure, () -> {
+                    checkSnapshot(service.snapshot());
+                    YearMonth ym = YearMonth.of(2024 + rr.nextInt(2), 1 + rr.nextInt(12));
+                    checkMonthView(service.getMonthView(ym));
+                    assertTrue(service.getMonthTransactionCount(ym) >= 0);
+                    service.getMonthlySummary(ym);
+                    checkYear(service.aggregate(FROM, TO, EnumSet.allOf(Aggregate.class)));
+                    assertEquals(ROWS, service.getTransactionsBetween(FROM, TO).size());
+                    TransactionIndex index = service.getTransactionIndex(ym, ym).query("", List.of());
+                    for (int i = 0; i < index.size(); i++) index.get(i);
+                    service.getYearSummaries(2024, 2025, rr.nextBoolean());
+                    service.getResidencyStats();
+                    reads.incrementAndGet();
+                }), "reader-" + r));
+            }
+            threads.forEach(Thread::start);
+            Thread.sleep(RUN_MILLIS);
+            stop.set(true);
+            for (Thread t : threads) t.join();
+        }
+        if (failure.get() != null) throw new AssertionError("A reader or writer failed", failure.get());
+        assertTrue(reads.get() > 0 && writes.get() > 0, "reads " + reads + ", writes " + writes);
+        service.verifyAggregates();
+        checkSnapshot(service.snapshot());
+    }
+
+    /** Runs {@code step} until stopped, recording the first failure and stopping every thread on it. */
+    private static void run(AtomicBoolean stop, AtomicReference<Throwable> failure, ThrowingRunnable step) {
+        try {
+            while (!stop.get()) step.run();
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+            stop.set(true);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    /** Every month the snapshot holds rows for must have totals equal to the sum of those rows. */
+    private static void checkSnapshot(LedgerSnapshot snap) {
+        for (YearMonth ym : snap.months()) {
+            if (!snap.hasRows(ym)) continue;
+            long income = 0, expense = 0;
+            List<Transaction> rows = snap.transactions(ym);
+            for (Transaction t : rows) {
+                assertEquals(ym, YearMonth.from(t.getDate()));
+                if (t.getType() == TransactionType.INCOME) income += Money.toMinor(t.getAmount());
+                else expense += Money.toMinor(t.getAmount());
+            }
+            MonthTotals totals = snap.totals(ym);
+            assertEquals(new MonthTotals(rows.size(), income, expense), totals, "snapshot " + snap.version() + " " + ym);
+        }
+    }
+
+    private static void checkMonthView(MonthView view) {
+        long income = 0, expense = 0;
+        for (Transaction t : view.transactions()) {
+            if (t.getType() == TransactionType.INCOME) income += Money.toMinor(t.getAmount());
+            else expense += Money.toMinor(t.getAmount());
+        }
+        long byCategory = 0;
+        for (Money m : view.aggregates().spentByCategory().values()) byCategory += m.minorUnits();
+        assertEquals(view.transactions().size(), view.count(), view.month().toString());
+        assertEquals(income, view.summary().totalIncome().minorUnits(), view.month().toString());
+        assertEquals(expense, view.summary().totalExpense().minorUnits(), view.month().toString());
+        assertEquals(expense, byCategory, view.month().toString());
+    }
+
+    private static void checkYear(Aggregates year) {
+        assertEquals(ROWS, year.count());
+        long byCategory = 0;
+        for (Money m : year.spentByCategory().values()) byCategory += m.minorUnits();
+        assertEquals(year.summary().totalExpense().minorUnits(), byCategory);
+        long daily = 0;
+        for (LocalDate day = FROM; !day.isAfter(TO); day = day.plusDays(1)) daily += year.expenseOn(day).minorUnits();
+        assertEquals(byCategory, daily);
+    }
+}
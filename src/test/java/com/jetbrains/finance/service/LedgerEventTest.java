@@ -0,0 +1,81 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.TransactionType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LedgerEventTest {
+    private static final YearMonth MARCH = YearMonth.of(2024, 3);
+    private static final YearMonth APRIL = YearMonth.of(2024, 4);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void eventsNameTheMonthsAndCategoriesARowLeftOrEntered() {
+        FinanceService service = new FinanceService(dir.resolve("finance-data.txt"));
+        List<LedgerEvent> events = new ArrayList<>();
+        service.addChangeListener(events::add);
+
+        long id = service.addTransaction(TransactionType.EXPENSE, MARCH.atDay(2), new BigDecimal("10.00"), "Food", "Lunch");
+        LedgerEvent.TransactionsChanged added = only(events);
+        assertTrue(added.touches(MARCH));
+        assertFalse(added.touches(APRIL));
+        assertEquals(Set.of("Food"), added.categories());
+        assertEquals(service.snapshot().version(), added.version());
+
+        service.editTransaction(id, TransactionType.EXPENSE, MARCH.atDay(5), new BigDecimal("12.00"), "Dining", "Lunch");
+        LedgerEvent.TransactionsChanged edited = only(events);
+        assertEquals(Set.of(MARCH), edited.months());
+        assertEquals(Set.of("Food", "Dining"), edited.categories());
+
+        // A move touches the month it left as well as the one it entered
+        service.editTransaction(id, TransactionType.EXPENSE, APRIL.atDay(1), new BigDecimal("12.00"), "Dining", "Lunch");
+        LedgerEvent.TransactionsChanged moved = only(events);
+        assertTrue(moved.touches(MARCH));
+        assertTrue(moved.touches(APRIL));
+        assertTrue(moved.touchesYear(2024));
+        assertFalse(moved.touchesYear(2023));
+
+        assertTrue(service.deleteTransaction(id));
+        LedgerEvent.TransactionsChanged deleted = only(events);
+        assertEquals(Set.of(APRIL), deleted.months());
+        assertEquals(Set.of("Dining"), deleted.categories());
+
+        // Nothing changed, so nothing is sent
+        assertFalse(service.deleteTransaction(id));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void failingListenerDoesNotFailTheWriteOrSilenceTheOthers() {
+        FinanceService service = new FinanceService(dir.resolve("finance-data.txt"));
+        List<LedgerEvent> events = new ArrayList<>();
+        service.addChangeListener(e -> { throw new IllegalStateException("view broke"); });
+        service.addChangeListener(events::add);
+
+        long id = service.addTransaction(TransactionType.INCOME, MARCH.atDay(1), new BigDecimal("900.00"), "INCOME", "Pay");
+        assertEquals(1, service.getMonthTransactionCount(MARCH));
+        assertEquals("Pay", service.getTransaction(id).getDescription());
+        assertTrue(only(events).touches(MARCH));
+        service.setBudget("Food", new BigDecimal("50"));
+        assertInstanceOf(LedgerEvent.BudgetsChanged.class, events.remove(0));
+    }
+
+    private static LedgerEvent.TransactionsChanged only(List<LedgerEvent> events) {
+        assertEquals(1, events.size());
+        return assertInstanceOf(LedgerEvent.TransactionsChanged.class, events.remove(0));
+    }
+}
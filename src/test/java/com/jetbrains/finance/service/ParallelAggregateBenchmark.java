@@ -0,0 +1,99 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Rows per second of {@link FinanceService#aggregateAll} over a resident ledger, scanned on the calling thread
+ * and then split across fork-join pools of 1 to N workers; a parallel stream runs in the pool of the thread that
+ * starts it. Every parallel result is checked against the sequential one. Not run by the build. After
+ * {@code mvn test-compile}:
+ * <pre>
+ * java -cp target/classes:target/test-classes com.jetbrains.finance.service.ParallelAggregateBenchmark [rows] [rounds]
+ * </pre>
+ * Defaults to 2,000,000 rows over ten years and 6 rounds per pool size; the first rounds warm up the JIT.
+ */
+public class ParallelAggregateBenchmark {
+    private static final String[] CATEGORIES = {"Food", "Rent", "Travel", "Fun", "Bills", "Health", "Gifts", "Other"};
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        Path dir = Files.createTempDirectory("aggregate-bench");
+        try {
+            FinanceService service = new FinanceService(dir.resolve("finance-data.txt"));
+            fill(service, rows);
+            Set<Aggregate> wanted = EnumSet.of(Aggregate.TOTALS, Aggregate.COUNT, Aggregate.BY_CATEGORY, Aggregate.MIN_MAX);
+            int cores = Runtime.getRuntime().availableProcessors();
+            System.out.printf("%d rows, %d cores%n", rows, cores);
+
+            service.setParallelMinRows(Integer.MAX_VALUE);
+            Aggregates expected = null;
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                long t0 = System.nanoTime();
+                expected = service.aggregateAll(wanted);
+                best = Math.min(best, System.nanoTime() - t0);
+            }
+            double sequential = best;
+            System.out.printf("sequential: %.1f M rows/s%n", rows / (best / 1e3));
+
+            service.setParallelMinRows(0);
+            for (int workers = 1; workers <= cores; workers *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(workers);
+                try {
+                    best = Long.MAX_VALUE;
+                    for (int round = 0; round < rounds; round++) {
+                        long t0 = System.nanoTime();
+                        Aggregates actual = pool.submit(() -> service.aggregateAll(wanted)).get();
+                        best = Math.min(best, System.nanoTime() - t0);
+                        check(expected, actual);
+                    }
+                } finally {
+                    pool.shutdown();
+                }
+                System.out.printf("%2d workers: %.1f M rows/s, %.2fx sequential%n", workers, rows / (best / 1e3), sequential / best);
+                // Doubling, but ending on every core when the count is not a power of two
+                if (workers < cores && workers * 2 > cores) workers = cores / 2;
+            }
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path p : files.toList()) Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static void fill(FinanceService service, int rows) {
+        Random random = new Random(7);
+        List<Transaction> batch = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            boolean income = random.nextInt(10) == 0;
+            batch.add(new Transaction(income ? TransactionType.INCOME : TransactionType.EXPENSE,
+                    LocalDate.of(2015, 1, 1).plusDays(random.nextInt(3650)), BigDecimal.valueOf(random.nextInt(100_000) + 1, 2),
+                    income ? "INCOME" : CATEGORIES[random.nextInt(CATEGORIES.length)], "Payment " + i));
+        }
+        service.addTransactions(batch);
+    }
+
+    private static void check(Aggregates expected, Aggregates actual) {
+        if (!expected.summary().equals(actual.summary()) || expected.count() != actual.count()
+                || !expected.spentByCategory().equals(actual.spentByCategory())
+                || !expected.smallest().equals(actual.smallest()) || !expected.largest().equals(actual.largest())) {
+            throw new IllegalStateException("Parallel result differs from the sequential one");
+        }
+    }
+}
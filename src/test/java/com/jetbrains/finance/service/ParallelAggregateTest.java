@@ -0,0 +1,133 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.CategoryDictionary;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Aggregations split across the fork-join pool must equal the same aggregations scanned on one thread. */
+class ParallelAggregateTest {
+    private static final String[] CATEGORIES = {"Food", "Rent", "Travel", "Fun", "Bills", "Health", "Gifts", "Other"};
+    private static final LocalDate FIRST = LocalDate.of(2021, 1, 1);
+    private static final int DAYS = 3 * 365;
+
+    @TempDir
+    Path dir;
+    private FinanceService service;
+
+    @BeforeEach
+    void fill() {
+        service = new FinanceService(dir.resolve("finance-data.txt"));
+        Random random = new Random(11);
+        List<Transaction> batch = new ArrayList<>();
+        for (int i = 0; i < 60_000; i++) {
+            boolean income = random.nextInt(8) == 0;
+            // Uneven months, so that splits fall at different places than month counts would suggest
+            int day = random.nextInt(4) == 0 ? random.nextInt(90) : random.nextInt(DAYS);
+            batch.add(new Transaction(income ? TransactionType.INCOME : TransactionType.EXPENSE, FIRST.plusDays(day),
+                    BigDecimal.valueOf(1 + random.nextInt(500_000), 2), income ? "INCOME" : CATEGORIES[random.nextInt(CATEGORIES.length)],
+                    "Row " + i));
+        }
+        service.addTransactions(batch);
+    }
+
+    @Test
+    void parallelScanMatchesSequentialScan() {
+        Set<Aggregate> every = EnumSet.allOf(Aggregate.class);
+        List<LocalDate[]> ranges = List.of(
+                new LocalDate[]{FIRST, FIRST.plusDays(DAYS - 1)},
+                new LocalDate[]{FIRST.plusDays(17), FIRST.plusDays(700)},
+                new LocalDate[]{LocalDate.of(2021, 3, 1), LocalDate.of(2022, 2, 28)},
+                new LocalDate[]{LocalDate.of(2020, 6, 1), LocalDate.of(2021, 2, 10)});
+        for (LocalDate[] range : ranges) {
+            for (Set<Aggregate> wanted : List.of(every, EnumSet.of(Aggregate.BY_CATEGORY), EnumSet.of(Aggregate.TOTALS, Aggregate.BY_CATEGORY))) {
+                service.setParallelMinRows(Integer.MAX_VALUE);
+                Aggregates sequential = service.aggregate(range[0], range[1], wanted);
+                service.setParallelMinRows(0);
+                Aggregates parallel = service.aggregate(range[0], range[1], wanted);
+                assertSame(wanted, sequential, parallel);
+            }
+        }
+        service.setParallelMinRows(Integer.MAX_VALUE);
+        Aggregates sequential = service.aggregateAll(every);
+        service.setParallelMinRows(0);
+        assertSame(every, sequential, service.aggregateAll(every));
+    }
+
+    @Test
+    void splitsCoverEveryMonthOnce() {
+        List<Map.Entry<YearMonth, MonthBucket>> months = new ArrayList<>();
+        service.snapshot().months().forEach(ym -> months.add(Map.entry(ym, bucketOf(ym))));
+        MonthSpliterator whole = new MonthSpliterator(months);
+        long rows = whole.rows();
+        List<Spliterator<Map.Entry<YearMonth, MonthBucket>>> parts = new ArrayList<>(List.of(whole));
+        for (int round = 0; round < 5; round++) {
+            List<Spliterator<Map.Entry<YearMonth, MonthBucket>>> next = new ArrayList<>();
+            for (Spliterator<Map.Entry<YearMonth, MonthBucket>> part : parts) {
+                Spliterator<Map.Entry<YearMonth, MonthBucket>> prefix = part.trySplit();
+                if (prefix != null) next.add(prefix);
+                next.add(part);
+            }
+            parts = next;
+        }
+        Set<YearMonth> seen = new HashSet<>();
+        long seenRows = 0;
+        for (Spliterator<Map.Entry<YearMonth, MonthBucket>> part : parts) {
+            assertTrue(part.estimateSize() > 0, "empty part");
+            List<Map.Entry<YearMonth, MonthBucket>> in = new ArrayList<>();
+            part.forEachRemaining(in::add);
+            for (Map.Entry<YearMonth, MonthBucket> e : in) {
+                assertTrue(seen.add(e.getKey()), e.getKey() + " in two parts");
+                seenRows += e.getValue().size();
+            }
+        }
+        assertEquals(months.size(), seen.size());
+        assertEquals(rows, seenRows);
+    }
+
+    private MonthBucket bucketOf(YearMonth ym) {
+        MonthBucket bucket = new MonthBucket(new CategoryDictionary(), new DayIndex());
+        bucket.mergeAll(service.getTransactionsForMonth(ym));
+        return bucket;
+    }
+
+    private static void assertSame(Set<Aggregate> wanted, Aggregates expected, Aggregates actual) {
+        String range = expected.from() + " to " + expected.to() + " " + wanted;
+        if (wanted.contains(Aggregate.TOTALS)) assertEquals(expected.summary(), actual.summary(), range);
+        if (wanted.contains(Aggregate.COUNT)) assertEquals(expected.count(), actual.count(), range);
+        if (wanted.contains(Aggregate.BY_CATEGORY)) {
+            assertNotNull(expected.spentByCategory());
+            assertEquals(new TreeMap<>(expected.spentByCategory()), new TreeMap<>(actual.spentByCategory()), range);
+        }
+        if (wanted.contains(Aggregate.MIN_MAX)) {
+            assertEquals(expected.smallest(), actual.smallest(), range);
+            assertEquals(expected.largest(), actual.largest(), range);
+        }
+        if (wanted.contains(Aggregate.DAILY)) {
+            for (LocalDate day = expected.from(); !day.isAfter(expected.to()); day = day.plusDays(1)) {
+                assertEquals(expected.incomeOn(day), actual.incomeOn(day), range + " on " + day);
+                assertEquals(expected.expenseOn(day), actual.expenseOn(day), range + " on " + day);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.jetbrains.finance.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PersistentSortedMapTest {
+
+    @Test
+    void matchesATreeMapAndKeepsEveryEarlierVersion() {
+        Random random = new Random(11);
+        PersistentSortedMap<Integer, String> map = PersistentSortedMap.empty();
+        TreeMap<Integer, String> model = new TreeMap<>();
+        List<PersistentSortedMap<Integer, String>> versions = new ArrayList<>();
+        List<TreeMap<Integer, String>> expected = new ArrayList<>();
+        for (int step = 0; step < 20_000; step++) {
+            int key = random.nextInt(2_000) - 1_000;
+            if (random.nextInt(3) == 0) {
+                map = map.without(key);
+                model.remove(key);
+            } else {
+                String value = "v" + step;
+                map = map.with(key, value);
+                model.put(key, value);
+            }
+            assertEquals(model.size(), map.size());
+            assertEquals(model.get(key), map.get(key));
+            assertEquals(model.containsKey(key), map.containsKey(key));
+            if (step % 100 == 0) {
+                int from = random.nextInt(2_200) - 1_100, to = from + random.nextInt(400);
+                assertEquals(model.subMap(from, true, to, true), range(map, from, to));
+            }
+            if (step % 1_000 == 0) {
+                versions.add(map);
+                expected.add(new TreeMap<>(model));
+            }
+        }
+        assertEquals(model, contents(map));
+        // Later writes copied their paths rather than changing nodes an earlier version can still reach
+        for (int i = 0; i < versions.size(); i++) assertEquals(expected.get(i), contents(versions.get(i)));
+    }
+
+    @Test
+    void rangeEndsAreInclusiveAndMayFallBetweenKeys() {
+        PersistentSortedMap<Integer, String> map = PersistentSortedMap.empty();
+        for (int k = 0; k < 100; k += 10) map = map.with(k, "v" + k);
+        assertEquals(List.of(10, 20, 30), List.copyOf(range(map, 10, 30).keySet()));
+        assertEquals(List.of(10, 20), List.copyOf(range(map, 5, 25).keySet()));
+        assertEquals(List.of(), List.copyOf(range(map, 41, 49).keySet()));
+        assertEquals(List.of(), List.copyOf(range(map, 200, 300).keySet()));
+        assertEquals(List.of(0), List.copyOf(range(map, -5, 0).keySet()));
+    }
+
+    @Test
+    void unchangedMapsAreShared() {
+        PersistentSortedMap<String, String> empty = PersistentSortedMap.empty();
+        PersistentSortedMap<String, String> one = empty.with("a", "1");
+        assertSame(one, one.without("b"));
+        assertSame(empty, PersistentSortedMap.<String, String>empty());
+        PersistentSortedMap<String, String> replaced = one.with("a", "2");
+        assertEquals(1, replaced.size());
+        assertEquals("1", one.get("a"));
+        assertEquals("2", replaced.get("a"));
+        assertEquals(0, one.without("a").size());
+        assertEquals("1", one.get("a"));
+    }
+
+    private static <K extends Comparable<? super K>, V> NavigableMap<K, V> contents(PersistentSortedMap<K, V> map) {
+        Map<K, V> seen = new LinkedHashMap<>();
+        map.forEach(seen::put);
+        assertEquals(new ArrayList<>(new TreeMap<>(seen).keySet()), new ArrayList<>(seen.keySet()), "keys come in order");
+        return new TreeMap<>(seen);
+    }
+
+    private static <K extends Comparable<? super K>, V> NavigableMap<K, V> range(PersistentSortedMap<K, V> map, K from, K to) {
+        Map<K, V> seen = new LinkedHashMap<>();
+        map.forEach(from, to, seen::put);
+        assertEquals(new ArrayList<>(new TreeMap<>(seen).keySet()), new ArrayList<>(seen.keySet()), "keys come in order");
+        return new TreeMap<>(seen);
+    }
+}
@@ -0,0 +1,122 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+import com.jetbrains.finance.store.PartitionedStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** The resident month limit: least recently used months are dropped once saved, and read back unchanged. */
+class ResidentMonthsTest {
+    private static final YearMonth FIRST = YearMonth.of(2023, 1);
+    private static final int MONTHS = 12;
+
+    @TempDir
+    Path dir;
+    private final Map<YearMonth, List<String>> expected = new HashMap<>();
+
+    @BeforeEach
+    void fill() throws Exception {
+        FinanceService service = new FinanceService(new PartitionedStore(dir));
+        Random random = new Random(5);
+        for (int m = 0; m < MONTHS; m++) {
+            YearMonth ym = FIRST.plusMonths(m);
+            for (int i = 0; i < 50; i++) {
+                boolean income = random.nextInt(5) == 0;
+                service.addTransaction(income ? TransactionType.INCOME : TransactionType.EXPENSE, ym.atDay(1 + random.nextInt(28)),
+                        BigDecimal.valueOf(1 + random.nextInt(50_000), 2), income ? "INCOME" : "Cat" + random.nextInt(4), "Row " + i);
+            }
+            expected.put(ym, rows(service.getTransactionsForMonth(ym)));
+        }
+        service.save();
+    }
+
+    @Test
+    void limitIsRespectedAndLeastRecentlyUsedMonthGoesFirst() {
+        FinanceService service = new FinanceService(new PartitionedStore(dir));
+        service.setResidentMonthLimit(3);
+        for (int m = 0; m < MONTHS; m++) {
+            service.getTransactionsForMonth(FIRST.plusMonths(m));
+            assertTrue(service.getResidencyStats().residentMonths() <= 3, service.getResidencyStats().toString());
+        }
+        ResidencyStats stats = service.getResidencyStats();
+        assertEquals(3, stats.residentMonths());
+        assertEquals(MONTHS, stats.storedMonths());
+        assertEquals(MONTHS, stats.loads());
+        assertEquals(MONTHS - 3, stats.evictions());
+
+        // The last three months read are resident: reading them again is a hit, reading the first is a load
+        YearMonth last = FIRST.plusMonths(MONTHS - 1);
+        service.getTransactionsForMonth(last.minusMonths(2));
+        assertEquals(stats.hits() + 1, service.getResidencyStats().hits());
+        service.getTransactionsForMonth(FIRST);
+        assertEquals(stats.loads() + 1, service.getResidencyStats().loads());
+        // The month just read was the most recent, so the least recent of the others went
+        service.getTransactionsForMonth(last.minusMonths(2));
+        assertEquals(stats.loads() + 1, service.getResidencyStats().loads());
+    }
+
+    @Test
+    void evictedMonthReloadsWithTheSameRowsAndTotals() {
+        FinanceService unlimited = new FinanceService(new PartitionedStore(dir));
+        FinanceService service = new FinanceService(new PartitionedStore(dir));
+        service.setResidentMonthLimit(2);
+        for (int round = 0; round < 2; round++) {
+            for (int m = 0; m < MONTHS; m++) {
+                YearMonth ym = FIRST.plusMonths(m);
+                assertEquals(expected.get(ym), rows(service.getTransactionsForMonth(ym)), ym.toString());
+                assertEquals(unlimited.getMonthlySummary(ym), service.getMonthlySummary(ym));
+                assertEquals(unlimited.getSpentByCategory(ym), service.getSpentByCategory(ym));
+                assertEquals(50, service.getMonthTransactionCount(ym));
+            }
+        }
+        assertTrue(service.getResidencyStats().evictions() >= 2 * MONTHS - 2);
+        // Totals over the whole range mix resident and evicted months
+        Aggregates all = service.aggregateAll(EnumSet.of(Aggregate.TOTALS, Aggregate.COUNT, Aggregate.BY_CATEGORY));
+        Aggregates reference = unlimited.aggregateAll(EnumSet.of(Aggregate.TOTALS, Aggregate.COUNT, Aggregate.BY_CATEGORY));
+        assertEquals(reference.summary(), all.summary());
+        assertEquals(reference.count(), all.count());
+        assertEquals(reference.spentByCategory(), all.spentByCategory());
+        service.verifyAggregates();
+    }
+
+    @Test
+    void unsavedMonthStaysUntilSaved() throws Exception {
+        FinanceService service = new FinanceService(new PartitionedStore(dir));
+        service.setResidentMonthLimit(1);
+        long id = service.addTransaction(TransactionType.EXPENSE, FIRST.atDay(3), BigDecimal.ONE, "Cat0", "Unsaved");
+        for (int m = 1; m < MONTHS; m++) service.getTransactionsForMonth(FIRST.plusMonths(m));
+        // The changed month cannot be dropped before it is saved, so each month read goes instead
+        ResidencyStats stats = service.getResidencyStats();
+        assertEquals(1, stats.residentMonths());
+        assertEquals(MONTHS - 1, stats.evictions());
+        assertEquals("Unsaved", service.getTransaction(id).getDescription());
+        assertEquals(stats.loads(), service.getResidencyStats().loads());
+        service.save();
+        service.getTransactionsForMonth(FIRST.plusMonths(5));
+        assertEquals(1, service.getResidencyStats().residentMonths());
+        assertEquals(51, rows(service.getTransactionsForMonth(FIRST)).size());
+    }
+
+    private static List<String> rows(List<Transaction> rows) {
+        List<String> out = new ArrayList<>(rows.size());
+        for (Transaction t : rows) {
+            out.add(t.getId() + " " + t.getType() + " " + t.getDate() + " " + t.getAmount() + " " + t.getCategory() + " " + t.getDescription());
+        }
+        return out;
+    }
+}
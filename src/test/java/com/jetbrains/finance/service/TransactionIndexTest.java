@@ -0,0 +1,122 @@
+package com.jetbrains.finance.service;
+
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+import com.jetbrains.finance.store.PartitionedStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** A paged index over the whole history must read like one that holds every month, within the resident limit. */
+class TransactionIndexTest {
+    private static final String[] CATEGORIES = {"Food", "rent", "Fun", "bills", "food"};
+    private static final YearMonth FIRST = YearMonth.of(2020, 1);
+    private static final YearMonth LAST = YearMonth.of(2023, 12);
+    private static final int ROWS = 20_000;
+    private static final int LIMIT = 4;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void fill() throws Exception {
+        FinanceService service = new FinanceService(new PartitionedStore(dir));
+        Random random = new Random(3);
+        List<Transaction> batch = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            boolean income = random.nextInt(5) == 0;
+            batch.add(new Transaction(income ? TransactionType.INCOME : TransactionType.EXPENSE, FIRST.atDay(1).plusDays(random.nextInt(4 * 365)),
+                    BigDecimal.valueOf(1 + random.nextInt(100_000), 2), CATEGORIES[random.nextInt(CATEGORIES.length)],
+                    "Row " + random.nextInt(1000) + (random.nextBoolean() ? "X" : "x")));
+        }
+        service.addTransactions(batch);
+        service.save();
+    }
+
+    @Test
+    void pagedIndexMatchesHeldIndex() {
+        FinanceService unlimited = new FinanceService(new PartitionedStore(dir));
+        FinanceService limited = new FinanceService(new PartitionedStore(dir));
+        limited.setResidentMonthLimit(LIMIT);
+        TransactionIndex held = unlimited.getTransactionIndex(FIRST, LAST);
+        TransactionIndex paged = limited.getTransactionIndex(FIRST, LAST);
+        assertEquals(ROWS, held.size());
+        assertEquals(ROWS, paged.size());
+        List<List<TransactionIndex.Sort>> sorts = List.of(
+                List.of(),
+                List.of(new TransactionIndex.Sort(TransactionIndex.Column.AMOUNT, false)),
+                List.of(new TransactionIndex.Sort(TransactionIndex.Column.CATEGORY, false), new TransactionIndex.Sort(TransactionIndex.Column.DATE, true)),
+                List.of(new TransactionIndex.Sort(TransactionIndex.Column.DESCRIPTION, true), new TransactionIndex.Sort(TransactionIndex.Column.TYPE, false)));
+        for (String filter : List.of("", "food", "2021-0", "x")) {
+            for (List<TransactionIndex.Sort> sort : sorts) {
+                TransactionIndex expected = held.query(filter, sort);
+                TransactionIndex actual = paged.query(filter, sort);
+                assertEquals(expected.size(), actual.size(), filter + " " + sort);
+                for (int row = 0; row < expected.size(); row += 37) {
+                    actual.load(row, row);
+                    assertEquals(expected.get(row).getId(), actual.get(row).getId(), filter + " " + sort + " row " + row);
+                    assertEquals(expected.amount(row), actual.amount(row));
+                    assertEquals(expected.description(row), actual.description(row));
+                }
+                assertTrue(limited.getResidencyStats().residentMonths() <= LIMIT, "resident " + limited.getResidencyStats());
+            }
+        }
+    }
+
+    @Test
+    void rowsOfMonthsNotLoadedReadAsNullWithoutReadingTheStore() {
+        FinanceService service = new FinanceService(new PartitionedStore(dir));
+        service.setResidentMonthLimit(1);
+        TransactionIndex index = service.getTransactionIndex(FIRST, LAST);
+        long loads = service.getResidencyStats().loads();
+        assertFalse(index.isLoaded(0, 0));
+        assertNull(index.get(0));
+        assertNull(index.amount(0));
+        assertEquals(loads, service.getResidencyStats().loads());
+
+        // A load keeps every month it was asked for, even past the limit
+        int wide = ROWS / 2;
+        index.load(0, wide);
+        assertTrue(index.isLoaded(0, wide));
+        TransactionIndex fresh = service.getTransactionIndex(FIRST, LAST);
+        fresh.load(wide, wide);
+        assertEquals(fresh.get(wide).getId(), index.get(wide).getId());
+    }
+
+    @Test
+    void monthThatChangedReadsAsNull() {
+        FinanceService service = new FinanceService(new PartitionedStore(dir));
+        service.setResidentMonthLimit(1);
+        TransactionIndex index = service.getTransactionIndex(FIRST, LAST);
+        index.load(0, 0);
+        Transaction first = index.get(0);
+        // Loading a late row drops the first month from the index, then one of its rows is edited, keeping the row count
+        index.load(index.size() - 1, index.size() - 1);
+        assertTrue(service.editTransaction(first.getId(), first.getType(), first.getDate(), first.getAmount().add(BigDecimal.ONE),
+                first.getCategory(), first.getDescription()));
+        index.load(0, 0);
+        assertTrue(index.isLoaded(0, 0));
+        assertNull(index.get(0));
+        assertNull(index.date(0));
+        // Months that did not change read again as before
+        int last = index.size() - 1;
+        TransactionIndex fresh = service.getTransactionIndex(FIRST, LAST);
+        fresh.load(last, last);
+        index.load(last, last);
+        assertEquals(fresh.get(last).getId(), index.get(last).getId());
+        assertEquals(first.getAmount().add(BigDecimal.ONE), service.getTransaction(first.getId()).getAmount());
+    }
+}
@@ -0,0 +1,109 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinarySnapshotTest {
+    @Test
+    void roundTripsEveryField() throws IOException {
+        List<Transaction> rows = List.of(
+                new Transaction(1, TransactionType.EXPENSE, LocalDate.of(1970, 1, 1), new BigDecimal("0.01"), "Food", "Plain"),
+                new Transaction(9, TransactionType.INCOME, LocalDate.of(2024, 2, 29), new BigDecimal("92233720368547758.07"), "INCOME", "Max"),
+                new Transaction(3, TransactionType.EXPENSE, LocalDate.of(2024, 2, 29), new BigDecimal("-12.34"), "Ünïcödé 日本", "Ümlaut €, emoji 😀 | pipe \\ slash\nnewline"),
+                new Transaction(4, TransactionType.EXPENSE, LocalDate.of(2023, 12, 31), new BigDecimal("5.00"), "", ""),
+                new Transaction(2, TransactionType.EXPENSE, LocalDate.of(1969, 12, 31), new BigDecimal("7.10"), "Food", null));
+        Map<String, BigDecimal> budgets = Map.of("Food", new BigDecimal("250.00"), "Ünïcödé 日本", new BigDecimal("0.5"));
+
+        ByteBuffer encoded = BinarySnapshot.encode(budgets, rows);
+        assertTrue(BinarySnapshot.isBinary(encoded));
+        Map<String, BigDecimal> budgetsBack = new HashMap<>();
+        List<Transaction> back = BinarySnapshot.decode(encoded, budgetsBack);
+
+        assertEquals(budgets, budgetsBack);
+        assertEquals(rows.size(), back.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Transaction a = rows.get(i), b = back.get(i);
+            assertEquals(a.getId(), b.getId());
+            assertEquals(a.getType(), b.getType());
+            assertEquals(a.getDate(), b.getDate());
+            assertEquals(0, a.getAmount().compareTo(b.getAmount()), a.getAmount() + " vs " + b.getAmount());
+            assertEquals(a.getCategory(), b.getCategory());
+            assertEquals(a.getDescription(), b.getDescription());
+        }
+        assertEquals("", back.get(3).getDescription());
+        assertNull(back.get(4).getDescription());
+    }
+
+    @Test
+    void roundTripsEmptyAndLargeSnapshots() throws IOException {
+        assertEquals(List.of(), BinarySnapshot.decode(BinarySnapshot.encode(Map.of(), List.of()), null));
+        Random random = new Random(1);
+        List<Transaction> rows = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            rows.add(new Transaction(1 + random.nextInt(1_000_000), random.nextBoolean() ? TransactionType.INCOME : TransactionType.EXPENSE,
+                    LocalDate.of(2000, 1, 1).plusDays(random.nextInt(10_000)), BigDecimal.valueOf(random.nextLong() >> 8, 2),
+                    "Cat" + random.nextInt(50), "Row " + i));
+        }
+        List<Transaction> back = BinarySnapshot.decode(BinarySnapshot.encode(Map.of(), rows), null);
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(rows.get(i).getId(), back.get(i).getId());
+            assertEquals(rows.get(i).getDate(), back.get(i).getDate());
+            assertEquals(rows.get(i).getAmount(), back.get(i).getAmount());
+            assertEquals(rows.get(i).getDescription(), back.get(i).getDescription());
+        }
+    }
+
+    @Test
+    void rejectsTruncatedInput() throws IOException {
+        byte[] bytes = bytes(BinarySnapshot.encode(Map.of("Food", BigDecimal.TEN), sample()));
+        for (int length = 0; length < bytes.length; length++) {
+            ByteBuffer cut = ByteBuffer.wrap(Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class, () -> BinarySnapshot.decode(cut, null), "truncated to " + length);
+        }
+    }
+
+    @Test
+    void rejectsCorruptInput() throws IOException {
+        byte[] bytes = bytes(BinarySnapshot.encode(Map.of("Food", BigDecimal.TEN), sample()));
+        // Every single flipped bit is caught, by the header checks or the checksum
+        for (int i = 0; i < bytes.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] bad = bytes.clone();
+                bad[i] ^= (byte) (1 << bit);
+                assertThrows(IOException.class, () -> BinarySnapshot.decode(ByteBuffer.wrap(bad), null), "byte " + i + " bit " + bit);
+            }
+        }
+        assertFalse(BinarySnapshot.isBinary(ByteBuffer.wrap("# finance-data v1\n".getBytes())));
+        assertThrows(IOException.class, () -> BinarySnapshot.decode(ByteBuffer.wrap("# finance-data v1\n[transactions]\n".getBytes()), null));
+    }
+
+    private static List<Transaction> sample() {
+        return List.of(
+                new Transaction(1, TransactionType.EXPENSE, LocalDate.of(2024, 3, 1), new BigDecimal("10.00"), "Food", "Lunch"),
+                new Transaction(2, TransactionType.INCOME, LocalDate.of(2024, 3, 2), new BigDecimal("900.00"), "INCOME", null));
+    }
+
+    private static byte[] bytes(ByteBuffer buf) {
+        byte[] out = new byte[buf.remaining()];
+        buf.duplicate().get(out);
+        return out;
+    }
+}
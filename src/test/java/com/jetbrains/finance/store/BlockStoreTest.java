@@ -0,0 +1,120 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.FinanceData;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+import com.jetbrains.finance.service.FinanceService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BlockStoreTest {
+    private static final YearMonth JANUARY = YearMonth.of(2024, 1);
+    private static final YearMonth FEBRUARY = YearMonth.of(2024, 2);
+    // January spans two blocks: a full one, written first right after the header, and one of the rest
+    private static final int JANUARY_ROWS = BlockStore.BLOCK_ROWS + 5;
+    private static final int FEBRUARY_ROWS = 3;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void corruptBlockIsSkippedAndTheRestLoads() throws Exception {
+        Path file = twoMonthsWithFirstBlockCorrupted();
+        BlockStore store = new BlockStore(file);
+        store.open();
+
+        assertEquals(5, store.loadMonth(JANUARY).size());
+        assertEquals(FEBRUARY_ROWS, store.loadMonth(FEBRUARY).size());
+        assertEquals(1, store.getUnreadableRecords());
+        // Once found, the block no longer counts towards totals, and reading it again does not count it twice
+        assertEquals(5, store.totals(JANUARY.atDay(1), JANUARY.atEndOfMonth()).rows());
+        store.loadMonth(JANUARY);
+        assertEquals(1, store.getUnreadableRecords());
+    }
+
+    @Test
+    void truncatedTailFallsBackToThePreviousTrailer() throws Exception {
+        Path file = dir.resolve("ledger.blk");
+        FinanceService service = new FinanceService(new BlockStore(file));
+        service.addTransaction(TransactionType.EXPENSE, JANUARY.atDay(2), new BigDecimal("10.00"), "Food", "Lunch");
+        service.save();
+        service.addTransaction(TransactionType.EXPENSE, FEBRUARY.atDay(3), new BigDecimal("4.00"), "Food", "Snack");
+        service.save();
+        // The second save was cut short inside its trailer
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 7);
+        }
+
+        FinanceService back = new FinanceService(new BlockStore(file));
+        assertEquals(1, back.getMonthTransactionCount(JANUARY));
+        assertEquals(0, back.getMonthTransactionCount(FEBRUARY));
+        back.addTransaction(TransactionType.EXPENSE, FEBRUARY.atDay(4), new BigDecimal("6.00"), "Food", "Tea");
+        back.save();
+
+        FinanceService again = new FinanceService(new BlockStore(file));
+        assertEquals(1, again.getMonthTransactionCount(JANUARY));
+        assertEquals(new BigDecimal("6.00"), again.getMonthlySummary(FEBRUARY).totalExpense().toBigDecimal());
+        again.verifyAggregates();
+    }
+
+    @Test
+    void saveAfterCorruptionKeepsTheUnreadableBlock() throws Exception {
+        Path file = twoMonthsWithFirstBlockCorrupted();
+        byte[] damaged = Arrays.copyOfRange(Files.readAllBytes(file), 8, 200);
+        FinanceService service = new FinanceService(new BlockStore(file));
+        assertEquals(5, service.getTransactionsForMonth(JANUARY).size());
+        service.addTransaction(TransactionType.EXPENSE, JANUARY.atDay(20), new BigDecimal("1.00"), "Food", "Bun");
+        service.save();
+
+        // Appending left the damaged bytes in place; month totals now match what can be read
+        assertArrayEquals(damaged, Arrays.copyOfRange(Files.readAllBytes(file), 8, 200));
+        FinanceService back = new FinanceService(new BlockStore(file));
+        assertEquals(6, back.getMonthTransactionCount(JANUARY));
+        assertEquals(6, back.getTransactionsForMonth(JANUARY).size());
+        assertEquals(new BigDecimal("6.00"), back.getMonthlySummary(JANUARY).totalExpense().toBigDecimal());
+        assertEquals(FEBRUARY_ROWS, back.getMonthTransactionCount(FEBRUARY));
+        assertEquals(1, back.getUnreadableRecords());
+
+        // A full rewrite copies the damaged block too
+        back.compact();
+        FinanceService compacted = new FinanceService(new BlockStore(file));
+        assertEquals(6, compacted.getTransactionsForMonth(JANUARY).size());
+        assertEquals(FEBRUARY_ROWS, compacted.getTransactionsForMonth(FEBRUARY).size());
+        assertEquals(1, compacted.getUnreadableRecords());
+    }
+
+    /** Imports January and February, then flips a byte of January's first block. */
+    private Path twoMonthsWithFirstBlockCorrupted() throws Exception {
+        Path file = dir.resolve("ledger.blk");
+        List<Transaction> rows = new ArrayList<>();
+        long id = 1;
+        for (int i = 0; i < JANUARY_ROWS; i++) {
+            rows.add(new Transaction(id++, TransactionType.EXPENSE, JANUARY.atDay(1 + i % 31), new BigDecimal("1.00"), "Food", "Row " + i));
+        }
+        for (int i = 0; i < FEBRUARY_ROWS; i++) {
+            rows.add(new Transaction(id++, TransactionType.INCOME, FEBRUARY.atDay(1 + i), new BigDecimal("100.00"), "INCOME", "Pay " + i));
+        }
+        FinanceData data = new FinanceData();
+        data.setTransactions(rows);
+        new BlockStore(file).importData(data);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(40);
+            int b = raf.read();
+            raf.seek(40);
+            raf.write(b ^ 0xFF);
+        }
+        return file;
+    }
+}
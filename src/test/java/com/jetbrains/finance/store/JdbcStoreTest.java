@@ -0,0 +1,98 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.FinanceData;
+import com.jetbrains.finance.model.Money;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+import com.jetbrains.finance.service.FinanceService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JdbcStoreTest {
+    private static final YearMonth MARCH = YearMonth.of(2024, 3);
+    private static final YearMonth APRIL = YearMonth.of(2024, 4);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void savedLedgerReadsBack() throws Exception {
+        FinanceService service = new FinanceService(store());
+        long lunch = service.addTransaction(TransactionType.EXPENSE, MARCH.atDay(2), new BigDecimal("10.00"), "Food", "Lunch");
+        service.addTransaction(TransactionType.EXPENSE, MARCH.atDay(31), new BigDecimal("2.50"), "Food", "Café ☕");
+        service.addTransaction(TransactionType.INCOME, APRIL.atDay(1), new BigDecimal("900.00"), "INCOME", "");
+        service.setBudget("Food", new BigDecimal("50.5"));
+        service.save();
+        // Moving a row to another month rewrites both months
+        service.editTransaction(lunch, TransactionType.EXPENSE, APRIL.atDay(3), new BigDecimal("11.00"), "Food", "Lunch");
+        service.save();
+
+        FinanceService back = new FinanceService(store());
+        assertEquals(1, back.getMonthTransactionCount(MARCH));
+        assertEquals(2, back.getMonthTransactionCount(APRIL));
+        assertEquals(new BigDecimal("2.50"), back.getMonthlySummary(MARCH).totalExpense().toBigDecimal());
+        assertEquals(new BigDecimal("900.00"), back.getMonthlySummary(APRIL).totalIncome().toBigDecimal());
+        assertEquals(Map.of("Food", new BigDecimal("50.5")), back.getBudgets());
+        Transaction moved = back.getTransaction(lunch);
+        assertEquals(APRIL.atDay(3), moved.getDate());
+        assertEquals("Lunch", moved.getDescription());
+        assertEquals("Café ☕", back.getTransactionsForMonth(MARCH).get(0).getDescription());
+        assertEquals("", back.getTransactionsForMonth(APRIL).get(0).getDescription());
+        back.verifyAggregates();
+    }
+
+    @Test
+    void rangesAndTotalsComeFromTheDatabase() throws Exception {
+        JdbcStore store = store();
+        FinanceData data = new FinanceData();
+        data.setTransactions(List.of(
+                new Transaction(1, TransactionType.EXPENSE, MARCH.atDay(30), new BigDecimal("4.00"), "Food", "a"),
+                new Transaction(2, TransactionType.EXPENSE, MARCH.atDay(31), new BigDecimal("6.00"), "Rent", "b"),
+                new Transaction(3, TransactionType.INCOME, APRIL.atDay(1), new BigDecimal("100.00"), "INCOME", "c"),
+                new Transaction(4, TransactionType.EXPENSE, APRIL.atDay(1), new BigDecimal("1.25"), "Food", "d"),
+                new Transaction(5, TransactionType.EXPENSE, APRIL.atDay(2), new BigDecimal("9.00"), "Food", "e")));
+        store.importData(data);
+        LedgerManifest manifest = store.open();
+        assertEquals(6, manifest.nextId());
+        assertEquals(new MonthTotals(2, 0, 1000), manifest.months().get(MARCH));
+
+        LocalDate from = MARCH.atDay(31), to = APRIL.atDay(1);
+        assertEquals(List.of(2L, 3L, 4L), store.loadRange(from, to).stream().map(Transaction::getId).toList());
+        assertEquals(new MonthTotals(3, 10000, 725), store.totals(from, to));
+        assertEquals(Map.of("Food", Money.toMinor(new BigDecimal("1.25")), "Rent", 600L), store.spentByCategory(from, to));
+        assertEquals(new MonthTotals(0, 0, 0), store.totals(LocalDate.of(2020, 1, 1), LocalDate.of(2020, 12, 31)));
+    }
+
+    @Test
+    void importReplacesTheLedger() throws Exception {
+        FinanceService service = new FinanceService(store());
+        service.addTransaction(TransactionType.EXPENSE, MARCH.atDay(2), new BigDecimal("10.00"), "Food", "Lunch");
+        service.save();
+        FinanceData data = new FinanceData();
+        data.setTransactions(List.of(new Transaction(7, TransactionType.EXPENSE, APRIL.atDay(5), new BigDecimal("3.00"), "Food", "Tea")));
+        JdbcStore store = store();
+        assertTrue(store.exists());
+        store.importData(data);
+
+        FinanceService back = new FinanceService(store());
+        assertFalse(back.getAvailableMonths().contains(MARCH));
+        assertEquals(1, back.getMonthTransactionCount(APRIL));
+        assertEquals(8, back.addTransaction(TransactionType.EXPENSE, APRIL.atDay(6), BigDecimal.ONE, "Food", "Bun"));
+    }
+
+    private JdbcStore store() {
+        Path db = dir.resolve("ledger-db");
+        return new JdbcStore("jdbc:h2:file:" + db.toAbsolutePath(), db);
+    }
+}
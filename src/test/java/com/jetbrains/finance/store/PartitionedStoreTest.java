@@ -0,0 +1,164 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.FinanceData;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+import com.jetbrains.finance.service.FinanceService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PartitionedStoreTest {
+    private static final YearMonth MARCH = YearMonth.of(2024, 3);
+    private static final YearMonth APRIL = YearMonth.of(2024, 4);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void savesOnlyChangedMonthsAndReadsThemBack() throws Exception {
+        Path ledger = dir.resolve("ledger");
+        FinanceService service = new FinanceService(new PartitionedStore(ledger));
+        service.addTransaction(TransactionType.EXPENSE, MARCH.atDay(2), new BigDecimal("10.00"), "Food", "Lunch");
+        service.addTransaction(TransactionType.INCOME, APRIL.atDay(1), new BigDecimal("900.00"), "INCOME", "Pay");
+        service.setBudget("Food", new BigDecimal("50"));
+        service.save();
+        long aprilModified = Files.getLastModifiedTime(ledger.resolve("2024-04.bin")).toMillis();
+        Thread.sleep(20);
+        service.addTransaction(TransactionType.EXPENSE, MARCH.atDay(3), new BigDecimal("2.50"), "Food", "Coffee");
+        service.save();
+        assertEquals(aprilModified, Files.getLastModifiedTime(ledger.resolve("2024-04.bin")).toMillis());
+
+        FinanceService back = new FinanceService(new PartitionedStore(ledger));
+        assertEquals(2, back.getMonthTransactionCount(MARCH));
+        assertEquals(new BigDecimal("12.50"), back.getMonthlySummary(MARCH).totalExpense().toBigDecimal());
+        assertEquals(Map.of("Food", new BigDecimal("50")), back.getBudgets());
+        assertEquals(2, back.getTransactionsForMonth(MARCH).size());
+    }
+
+    @Test
+    void monthLeftPendingByAnInterruptedSaveIsRebuiltFromItsFile() throws Exception {
+        Path ledger = dir.resolve("ledger");
+        FinanceService service = new FinanceService(new PartitionedStore(ledger));
+        service.addTransaction(TransactionType.EXPENSE, MARCH.atDay(2), new BigDecimal("10.00"), "Food", "Lunch");
+        service.save();
+        // The save wrote the month file, then stopped before the final index: the month is still marked pending
+        service.addTransaction(TransactionType.EXPENSE, MARCH.atDay(5), new BigDecimal("4.00"), "Food", "Snack");
+        service.save();
+        replaceInManifest(ledger, "2024-03|2|0|1400", "2024-03|?");
+
+        FinanceService back = new FinanceService(new PartitionedStore(ledger));
+        assertEquals(2, back.getMonthTransactionCount(MARCH));
+        assertEquals(new BigDecimal("14.00"), back.getMonthlySummary(MARCH).totalExpense().toBigDecimal());
+        back.verifyAggregates();
+    }
+
+    @Test
+    void indexIsRebuiltFromMonthFilesItDoesNotDescribe() throws Exception {
+        Path ledger = dir.resolve("ledger");
+        FinanceService service = new FinanceService(new PartitionedStore(ledger));
+        service.addTransaction(TransactionType.EXPENSE, MARCH.atDay(2), new BigDecimal("10.00"), "Food", "Lunch");
+        service.addTransaction(TransactionType.EXPENSE, APRIL.atDay(2), new BigDecimal("20.00"), "Rent", "Flat");
+        service.save();
+        // An index from before April was written, and a month file deleted outside the app
+        replaceInManifest(ledger, "2024-04|1|0|2000\n", "");
+        Files.delete(ledger.resolve("2024-03.bin"));
+
+        FinanceService back = new FinanceService(new PartitionedStore(ledger));
+        assertEquals(List.of(APRIL), List.copyOf(back.getAvailableMonths()));
+        assertEquals(1, back.getMonthTransactionCount(APRIL));
+        assertEquals(0, back.getMonthTransactionCount(MARCH));
+        assertEquals("Flat", back.getTransaction(2).getDescription());
+        assertEquals(3, back.addTransaction(TransactionType.EXPENSE, MARCH.atDay(1), BigDecimal.ONE, "Food", "Next id"));
+    }
+
+    @Test
+    void missingIndexIsRebuiltAndLeftoverTempFilesAreIgnored() throws Exception {
+        Path ledger = dir.resolve("ledger");
+        FinanceService service = new FinanceService(new PartitionedStore(ledger));
+        service.addTransaction(TransactionType.EXPENSE, MARCH.atDay(2), new BigDecimal("10.00"), "Food", "Lunch");
+        service.save();
+        Files.delete(ledger.resolve(PartitionedStore.MANIFEST));
+        Files.writeString(ledger.resolve("2024-05.bin.tmp"), "torn");
+
+        PartitionedStore store = new PartitionedStore(ledger);
+        assertTrue(store.exists());
+        FinanceService back = new FinanceService(store);
+        assertEquals(1, back.getMonthTransactionCount(MARCH));
+        assertEquals(List.of(MARCH), List.copyOf(back.getAvailableMonths()));
+    }
+
+    @Test
+    void migratesTheJournaledDataFile() throws Exception {
+        Path file = dir.resolve("finance-data.txt");
+        FinanceService old = new FinanceService(file, true);
+        long lunch = old.addTransaction(TransactionType.EXPENSE, MARCH.atDay(2), new BigDecimal("10.00"), "Food", "Lunch | out");
+        old.addTransaction(TransactionType.INCOME, APRIL.atDay(1), new BigDecimal("900.00"), "INCOME", "Pay");
+        old.save();
+        // Later changes live only in the journal
+        old.editTransaction(lunch, null, null, new BigDecimal("11.00"), null, null);
+        old.addTransaction(TransactionType.EXPENSE, APRIL.atDay(9), new BigDecimal("3.00"), "Fun", "Ünïcode");
+        old.setBudget("Food", new BigDecimal("75"));
+        old.save();
+        assertTrue(Files.size(new PlainTextStore(file, true).getJournalFile()) > 0);
+        byte[] before = Files.readAllBytes(file);
+
+        Path ledger = dir.resolve("ledger");
+        PartitionedStore store = new PartitionedStore(ledger);
+        assertFalse(store.exists());
+        store.importData(new PlainTextStore(file, true).load());
+        assertFalse(Files.exists(dir.resolve("ledger.import")));
+        assertTrue(store.exists());
+
+        FinanceService migrated = new FinanceService(new PartitionedStore(ledger));
+        FinanceService reference = new FinanceService(file, true);
+        assertEquals(reference.getBudgets(), migrated.getBudgets());
+        for (YearMonth ym : List.of(MARCH, APRIL)) {
+            assertEquals(describe(reference.getTransactionsForMonth(ym)), describe(migrated.getTransactionsForMonth(ym)));
+        }
+        assertEquals(new BigDecimal("11.00"), migrated.getTransaction(lunch).getAmount());
+        // The old file is left as it was
+        assertEquals(new String(before, StandardCharsets.UTF_8), Files.readString(file));
+    }
+
+    @Test
+    void importIntoAnExistingLedgerReplacesIt() throws Exception {
+        Path ledger = dir.resolve("ledger");
+        FinanceService service = new FinanceService(new PartitionedStore(ledger));
+        service.addTransaction(TransactionType.EXPENSE, MARCH.atDay(2), new BigDecimal("10.00"), "Food", "Lunch");
+        service.save();
+        FinanceData data = new FinanceData();
+        data.getTransactions().add(new Transaction(7, TransactionType.EXPENSE, LocalDate.of(2024, 6, 1), BigDecimal.TEN, "Fun", "Film"));
+        new PartitionedStore(ledger).importData(data);
+
+        FinanceService back = new FinanceService(new PartitionedStore(ledger));
+        assertEquals(List.of(YearMonth.of(2024, 6)), List.copyOf(back.getAvailableMonths()));
+        assertFalse(Files.exists(ledger.resolve("2024-03.bin")));
+    }
+
+    private static void replaceInManifest(Path ledger, String from, String to) throws Exception {
+        Path manifest = ledger.resolve(PartitionedStore.MANIFEST);
+        String text = Files.readString(manifest);
+        assertTrue(text.contains(from), text);
+        Files.writeString(manifest, text.replace(from, to));
+    }
+
+    private static List<String> describe(List<Transaction> rows) {
+        return rows.stream().sorted(Comparator.comparingLong(Transaction::getId))
+                .map(t -> t.getId() + " " + t.getType() + " " + t.getDate() + " " + t.getAmount() + " " + t.getCategory() + " " + t.getDescription())
+                .toList();
+    }
+}
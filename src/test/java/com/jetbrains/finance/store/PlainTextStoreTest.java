@@ -0,0 +1,77 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.FinanceData;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlainTextStoreTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void journalReplaysOverSnapshot() throws Exception {
+        Path file = dir.resolve("finance-data.txt");
+        PlainTextStore store = new PlainTextStore(file, true);
+        FinanceData data = store.load();
+        data.getTransactions().add(row(1, "Lunch"));
+        store.save(data);
+        Transaction added = row(2, "Dinner");
+        data.getTransactions().add(added);
+        store.recordAdd(added);
+        store.recordBudget("Food", new BigDecimal("100"));
+        assertFalse(store.needsSnapshot());
+        store.save(data);
+        assertTrue(Files.exists(store.getJournalFile()));
+
+        PlainTextStore reopened = new PlainTextStore(file, true);
+        FinanceData back = reopened.load();
+        assertEquals(2, back.getTransactions().size());
+        assertEquals(new BigDecimal("100"), back.getBudgets().get("Food"));
+        assertEquals(0, reopened.getUnreadableRecords());
+    }
+
+    @Test
+    void damagedJournalRecordsAreCountedAndFoldedIntoTheNextSnapshot() throws Exception {
+        Path file = dir.resolve("finance-data.txt");
+        PlainTextStore store = new PlainTextStore(file, true);
+        FinanceData data = store.load();
+        data.getTransactions().add(row(1, "Lunch"));
+        store.save(data);
+        Transaction added = row(2, "Dinner");
+        data.getTransactions().add(added);
+        store.recordAdd(added);
+        store.save(data);
+        // A record torn by a crash mid-append, then one that replays fine
+        Files.writeString(store.getJournalFile(), "ADD|3|EXPENSE|2024-0\nDEL|1\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        PlainTextStore reopened = new PlainTextStore(file, true);
+        FinanceData back = reopened.load();
+        assertEquals(1, reopened.getUnreadableRecords());
+        assertEquals(1, back.getTransactions().size());
+        assertEquals(2, back.getTransactions().get(0).getId());
+        assertTrue(reopened.needsSnapshot(), "a damaged journal is not appended to");
+
+        reopened.save(back);
+        assertFalse(Files.exists(reopened.getJournalFile()));
+        PlainTextStore again = new PlainTextStore(file, true);
+        assertEquals(1, again.load().getTransactions().size());
+        assertEquals(0, again.getUnreadableRecords());
+    }
+
+    private static Transaction row(long id, String description) {
+        return new Transaction(id, TransactionType.EXPENSE, LocalDate.of(2024, 3, (int) id), new BigDecimal("12.50"), "Food", description);
+    }
+}
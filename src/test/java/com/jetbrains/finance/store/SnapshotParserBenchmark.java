@@ -0,0 +1,111 @@
+package com.jetbrains.finance.store;
+
+import com.jetbrains.finance.model.FinanceData;
+import com.jetbrains.finance.model.Transaction;
+import com.jetbrains.finance.model.TransactionType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Snapshot load throughput in MB/s on a generated file: the line-by-line loader that {@link SnapshotParser}
+ * replaced, the parser alone on one thread and in parallel chunks, and a full {@link PlainTextStore#load}.
+ * Not run by the build. After {@code mvn test-compile}:
+ * <pre>
+ * java -cp target/classes:target/test-classes com.jetbrains.finance.store.SnapshotParserBenchmark [rows] [rounds]
+ * </pre>
+ * Defaults to 1,000,000 rows (about 60 MB) and 8 rounds; the first rounds warm up the JIT, so read the later ones.
+ */
+public class SnapshotParserBenchmark {
+    private static final String[] CATEGORIES = {"Food", "Rent", "Travel", "Fun", "Bills", "Health", "Gifts", "Other"};
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        Path dir = Files.createTempDirectory("snapshot-bench");
+        Path file = dir.resolve("finance-data.txt");
+        try {
+            write(file, rows);
+            byte[] bytes = Files.readAllBytes(file);
+            double mb = bytes.length / 1e6;
+            System.out.printf("%d rows, %.1f MB, %d cores%n", rows, mb, Runtime.getRuntime().availableProcessors());
+            for (int round = 1; round <= rounds; round++) {
+                long t0 = System.nanoTime();
+                int before = legacyLoad(file).getTransactions().size();
+                long t1 = System.nanoTime();
+                FinanceData parsed = new FinanceData();
+                new SnapshotParser(ByteBuffer.wrap(bytes)).parse(parsed);
+                long t2 = System.nanoTime();
+                FinanceData chunked = new FinanceData();
+                new SnapshotParser(ByteBuffer.wrap(bytes)).parseParallel(chunked);
+                long t3 = System.nanoTime();
+                int loaded = new PlainTextStore(file).load().getTransactions().size();
+                long t4 = System.nanoTime();
+                if (before != rows || parsed.getTransactions().size() != rows || chunked.getTransactions().size() != rows || loaded != rows) {
+                    throw new IllegalStateException("Row counts differ: " + before + ", " + parsed.getTransactions().size()
+                            + ", " + chunked.getTransactions().size() + ", " + loaded);
+                }
+                System.out.printf("round %d: line loader %.1f MB/s | parser %.1f MB/s, parallel %.1f MB/s | load() %.1f MB/s%n",
+                        round, mbPerSecond(mb, t0, t1), mbPerSecond(mb, t1, t2), mbPerSecond(mb, t2, t3), mbPerSecond(mb, t3, t4));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static double mbPerSecond(double mb, long from, long to) {
+        return mb / ((to - from) / 1e9);
+    }
+
+    /** A snapshot of {@code rows} transactions over ten years, some with escaped characters in the description. */
+    private static void write(Path file, int rows) throws IOException {
+        Random random = new Random(7);
+        FinanceData data = new FinanceData();
+        for (int i = 1; i <= rows; i++) {
+            boolean income = random.nextInt(10) == 0;
+            data.getTransactions().add(new Transaction(i, income ? TransactionType.INCOME : TransactionType.EXPENSE,
+                    LocalDate.of(2015, 1, 1).plusDays(random.nextInt(3650)), BigDecimal.valueOf(random.nextInt(100_000) + 1, 2),
+                    income ? "INCOME" : CATEGORIES[random.nextInt(CATEGORIES.length)], "Payment number " + i + (i % 97 == 0 ? " a|b\\c" : "")));
+        }
+        data.getBudgets().put("Food", new BigDecimal("300"));
+        new PlainTextStore(file).compact(data);
+    }
+
+    /** The loader before {@link SnapshotParser}: trims and splits each decoded line into strings, then parses them. */
+    private static FinanceData legacyLoad(Path file) throws IOException {
+        FinanceData data = new FinanceData();
+        String section = "";
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                if (line.startsWith("[") && line.endsWith("]")) {
+                    section = line;
+                    continue;
+                }
+                if ("[budgets]".equals(section)) {
+                    String[] parts = TextFiles.splitEscaped(line, '|', 2);
+                    if (parts.length == 2) data.getBudgets().put(parts[0], new BigDecimal(parts[1]));
+                } else if ("[transactions]".equals(section)) {
+                    String[] parts = TextFiles.splitEscaped(line, '|', 6);
+                    if (parts.length >= 5) {
+                        Transaction t = new Transaction(TransactionType.valueOf(parts[0]), LocalDate.parse(parts[1]),
+                                new BigDecimal(parts[2]), parts[3], parts[4]);
+                        if (parts.length >= 6 && !parts[5].isEmpty()) t.setId(Long.parseLong(parts[5]));
+                        data.getTransactions().add(t);
+                    }
+                }
+            }
+        }
+        return data;
+    }
+}